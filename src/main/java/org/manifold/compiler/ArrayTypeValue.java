@@ -8,6 +8,10 @@ import com.google.gson.JsonElement;
 
 public class ArrayTypeValue extends TypeValue {
 
+  // arrays of primitive values read from JSON with at least this many
+  // elements are decoded lazily; see LazyArrayValue
+  static final int LAZY_DECODE_THRESHOLD = 1024;
+
   private final TypeValue elementType;
 
   public TypeValue getElementType() {
@@ -28,16 +32,75 @@ public class ArrayTypeValue extends TypeValue {
     return "Array(" + elementType + ")";
   }
 
+  /**
+   * Every element is checked here, so that malformed arrays are reported
+   * when they are read. Arrays of primitive values keep no reference to the
+   * JSON they were read from; see instantiatePrimitive.
+   */
   @Override
   public Value instantiate(JsonElement element) {
     JsonArray jsonArray = element.getAsJsonArray();
-    ImmutableList.Builder<Value> valueList = ImmutableList.builder();
-    jsonArray.forEach(value -> valueList.add(
-        elementType.instantiate(value)));
     try {
+      if (jsonArray.size() > 0) {
+        ArrayValue primitiveArray = instantiatePrimitive(jsonArray);
+        if (primitiveArray != null) {
+          return primitiveArray;
+        }
+      }
+      ImmutableList.Builder<Value> valueList = ImmutableList.builder();
+      jsonArray.forEach(value -> valueList.add(
+          elementType.instantiate(value)));
       return new ArrayValue(this, valueList.build());
     } catch (TypeMismatchException e) {
       throw Throwables.propagate(e);
     }
   }
+
+  /*
+   * Arrays of integers, reals, booleans and strings are stored without a
+   * Value object per element, which keeps large ones (such as initialization
+   * data) compact; null for any other element type.
+   */
+  private ArrayValue instantiatePrimitive(JsonArray jsonArray)
+      throws TypeMismatchException {
+    TypeValue primitiveType =
+        UserDefinedTypeValue.getUnaliasedType(elementType);
+    int n = jsonArray.size();
+    if (n >= LAZY_DECODE_THRESHOLD && isPrimitive(primitiveType)) {
+      return new LazyArrayValue(this, primitiveType, jsonArray);
+    }
+    if (primitiveType == IntegerTypeValue.getInstance()) {
+      int[] values = new int[n];
+      for (int i = 0; i < n; ++i) {
+        values[i] = IntegerTypeValue.parse(jsonArray.get(i));
+      }
+      return new IntArrayValue(this, values, false);
+    } else if (primitiveType == RealTypeValue.getInstance()) {
+      double[] values = new double[n];
+      for (int i = 0; i < n; ++i) {
+        values[i] = RealTypeValue.parse(jsonArray.get(i));
+      }
+      return new RealArrayValue(this, values, false);
+    } else if (primitiveType == BooleanTypeValue.getInstance()) {
+      boolean[] values = new boolean[n];
+      for (int i = 0; i < n; ++i) {
+        values[i] = BooleanTypeValue.parse(jsonArray.get(i));
+      }
+      return new BoolArrayValue(this, values);
+    } else if (primitiveType == StringTypeValue.getInstance()) {
+      String[] values = new String[n];
+      for (int i = 0; i < n; ++i) {
+        values[i] = jsonArray.get(i).getAsString();
+      }
+      return new StringArrayValue(this, values);
+    }
+    return null;
+  }
+
+  private static boolean isPrimitive(TypeValue type) {
+    return type == IntegerTypeValue.getInstance()
+        || type == RealTypeValue.getInstance()
+        || type == BooleanTypeValue.getInstance()
+        || type == StringTypeValue.getInstance();
+  }
 }
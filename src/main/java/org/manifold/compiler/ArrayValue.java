@@ -9,7 +9,12 @@ import com.google.gson.JsonElement;
 public class ArrayValue extends Value {
 
   private final TypeValue elementType;
-  private List<Value> elements = null;
+  // null in subclasses, which store their elements themselves
+  private final List<Value> elements;
+  // computed once, as arrays are immutable; subclasses override the
+  // methods instead
+  private final boolean elaborationtimeKnowable;
+  private final boolean runtimeKnowable;
 
   public ArrayValue(ArrayTypeValue t, List<Value> elements)
       throws TypeMismatchException {
@@ -18,15 +23,46 @@ public class ArrayValue extends Value {
 
     TypeValue etAlias = UserDefinedTypeValue.getUnaliasedType(elementType);
     // type-check contents -- every Value must have type 'elementType'
+    boolean elaborationtimeKnowable = true;
+    boolean runtimeKnowable = true;
     for (Value element : elements){
       TypeValue vt = element.getType();
       TypeValue vtAlias = UserDefinedTypeValue.getUnaliasedType(vt);
       if (!vtAlias.equals(etAlias)) {
         throw new TypeMismatchException(elementType, vt);
       }
+      // nested arrays answer from their own cached flags
+      elaborationtimeKnowable &= element.isElaborationtimeKnowable();
+      runtimeKnowable &= element.isRuntimeKnowable();
     }
     // now we can copy the new list into our object
     this.elements = ImmutableList.copyOf(elements);
+    this.elaborationtimeKnowable = elaborationtimeKnowable;
+    this.runtimeKnowable = runtimeKnowable;
+  }
+
+  /**
+   * For subclasses that keep their elements in a more compact form; they
+   * override get() and length(), and both knowability methods.
+   */
+  protected ArrayValue(ArrayTypeValue t) {
+    super(t);
+    this.elementType = t.getElementType();
+    this.elements = null;
+    this.elaborationtimeKnowable = false;
+    this.runtimeKnowable = false;
+  }
+
+  /**
+   * Check, once for the whole array, that its elements are of the given
+   * primitive type (or an alias of it).
+   */
+  protected static void checkElementType(ArrayTypeValue t,
+      TypeValue primitiveType) throws TypeMismatchException {
+    TypeValue elementType = t.getElementType();
+    if (UserDefinedTypeValue.getUnaliasedType(elementType) != primitiveType) {
+      throw new TypeMismatchException(elementType, primitiveType);
+    }
   }
 
   public TypeValue getElementType(){
@@ -48,22 +84,12 @@ public class ArrayValue extends Value {
 
   @Override
   public boolean isElaborationtimeKnowable() {
-    for (Value element : elements) {
-      if (!element.isElaborationtimeKnowable()) {
-        return false;
-      }
-    }
-    return true;
+    return elaborationtimeKnowable;
   }
 
   @Override
   public boolean isRuntimeKnowable() {
-    for (Value element : elements) {
-      if (!element.isRuntimeKnowable()) {
-        return false;
-      }
-    }
-    return true;
+    return runtimeKnowable;
   }
 
   public void accept(SchematicValueVisitor visitor) {
@@ -73,8 +99,8 @@ public class ArrayValue extends Value {
   @Override
   public JsonElement toJson() {
     JsonArray arr = new JsonArray();
-    for (Value element : elements) {
-      arr.add(element.toJson());
+    for (int i = 0; i < length(); ++i) {
+      arr.add(get(i).toJson());
     }
     return arr;
   }
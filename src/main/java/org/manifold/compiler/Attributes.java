@@ -1,14 +1,23 @@
 package org.manifold.compiler;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.ImmutableMap;
 
 public class Attributes {
+  private static final Attributes EMPTY = new Attributes(ImmutableMap.of());
+
   private final Map<String, Value> data;
 
+  /**
+   * @return an instance without attributes, shared by everything that has
+   * none
+   */
+  public static Attributes empty() {
+    return EMPTY;
+  }
+
   public Attributes(Map<String, Value> data) {
     this.data = ImmutableMap.copyOf(data);
   }
@@ -16,33 +25,50 @@ public class Attributes {
   public Attributes(Map<String, TypeValue> types,
       Map<String, Value> data) throws UndeclaredAttributeException,
       InvalidAttributeException, TypeMismatchException {
-    data = validateAttrsExistForTypesAndAddInferredValues(types, data);
+    ImmutableMap.Builder<String, Value> withUnset =
+        validateAttrsExistForTypesAndAddInferredValues(types, data);
     validateAttrNamesInTypes(types.keySet(), data.keySet());
     validateAttrTypes(types, data);
-    this.data = ImmutableMap.copyOf(data);
+    if (withUnset == null) {
+      this.data = ImmutableMap.copyOf(data);
+    } else {
+      this.data = withUnset.build();
+    }
   }
 
-  private Map<String, Value> validateAttrsExistForTypesAndAddInferredValues(
-      Map<String, TypeValue> types,
-      Map<String, Value> originalData) throws UndeclaredAttributeException {
-    Map<String, Value> data = originalData;
+  /*
+   * Missing attributes are only allowed if their type is inferred; they
+   * get the shared unset value of that type. Returns null if none are
+   * missing, and otherwise a builder holding all of the attributes.
+   */
+  private static ImmutableMap.Builder<String, Value>
+      validateAttrsExistForTypesAndAddInferredValues(
+          Map<String, TypeValue> types, Map<String, Value> data)
+      throws UndeclaredAttributeException {
+    ImmutableMap.Builder<String, Value> withUnset = null;
     for (Map.Entry<String, TypeValue> e : types.entrySet()) {
       String name = e.getKey();
       if (!data.containsKey(name)) {
-        TypeValue type = UserDefinedTypeValue.getUnaliasedType(e.getValue());
-        if (!(type instanceof InferredTypeValue)) {
+        InferredValue unset = unsetValue(e.getValue());
+        if (unset == null) {
           throw new UndeclaredAttributeException(name);
-        } else {
-          // Copy and edit the hash map in rare case inferred type is added
-          if (data == originalData) {
-            data = new HashMap<>(originalData);
-          }
-          // Add the inferred value with no value set.
-          data.put(name, new InferredValue((InferredTypeValue) type));
         }
+        if (withUnset == null) {
+          withUnset = ImmutableMap.builder();
+          withUnset.putAll(data);
+        }
+        withUnset.put(name, unset);
       }
     }
-    return data;
+    return withUnset;
+  }
+
+  private static InferredValue unsetValue(TypeValue type) {
+    TypeValue unaliased = UserDefinedTypeValue.getUnaliasedType(type);
+    if (unaliased instanceof InferredTypeValue) {
+      return ((InferredTypeValue) unaliased).getUnsetValue();
+    }
+    return null;
   }
 
   private static void validateAttrNamesInTypes(Set<String> typeNames,
@@ -59,7 +85,11 @@ public class Attributes {
       Map<String, Value> data) throws TypeMismatchException {
     for (Map.Entry<String, TypeValue> entry : types.entrySet()) {
       String attrName = entry.getKey();
-      TypeValue expectedType = data.get(attrName).getType();
+      Value value = data.get(attrName);
+      if (value == null) {
+        value = unsetValue(entry.getValue());
+      }
+      TypeValue expectedType = value.getType();
       TypeValue actualType = entry.getValue();
       if (!actualType.isSubtypeOf(expectedType)) {
         throw new TypeMismatchException(expectedType, actualType);
@@ -67,12 +97,19 @@ public class Attributes {
     }
   }
 
+  /**
+   * @return the value of the given attribute, or null if there is none
+   */
+  public Value find(String attrName) {
+    return data.get(attrName);
+  }
+
   public Value get(String attrName) throws UndeclaredAttributeException {
-    if (data.containsKey(attrName)) {
-      return data.get(attrName);
-    } else {
+    Value value = data.get(attrName);
+    if (value == null) {
       throw new UndeclaredAttributeException(attrName);
     }
+    return value;
   }
 
   public Map<String, Value> getAll() {
@@ -0,0 +1,175 @@
+package org.manifold.compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Equivalence;
+
+/**
+ * Deduplicates Attributes: interning an instance returns a previously
+ * interned one with the same attributes, if there is one. Regular designs
+ * (memories, buses) hold many identical cells, whose attributes can then
+ * all share one instance.
+ *
+ * Attributes are the same if they have the same names, and their values
+ * are the same: primitive values (booleans, integers, reals, strings, and
+ * arrays and inferred values of them) by content, and everything else,
+ * such as types and instances, by identity. Values do not define equals()
+ * themselves, so this comparison is made here. Large arrays whose elements
+ * are decoded lazily (see LazyArrayValue) are compared by identity, so that
+ * interning does not decode them.
+ *
+ * An interner is not thread-safe, and keeps every distinct instance it is
+ * given for as long as it is itself in use.
+ */
+public class AttributesInterner {
+
+  private static final Equivalence<Attributes> SAME_ATTRIBUTES =
+      new Equivalence<Attributes>() {
+        @Override
+        protected boolean doEquivalent(Attributes a, Attributes b) {
+          Map<String, Value> aData = a.getAll();
+          Map<String, Value> bData = b.getAll();
+          if (aData.size() != bData.size()) {
+            return false;
+          }
+          for (Map.Entry<String, Value> entry : aData.entrySet()) {
+            Value other = bData.get(entry.getKey());
+            if (other == null || !sameValue(entry.getValue(), other)) {
+              return false;
+            }
+          }
+          return true;
+        }
+
+        @Override
+        protected int doHash(Attributes attributes) {
+          int h = 0;
+          for (Map.Entry<String, Value> entry
+              : attributes.getAll().entrySet()) {
+            h += entry.getKey().hashCode() ^ hashValue(entry.getValue());
+          }
+          return h;
+        }
+      };
+
+  private final Map<Equivalence.Wrapper<Attributes>, Attributes> interned =
+      new HashMap<>();
+
+  /**
+   * @return an interned instance with the same attributes as the given one;
+   * the given instance itself if there was none before
+   */
+  public Attributes intern(Attributes attributes) {
+    // empty attributes are shared anyway
+    if (attributes.getAll().isEmpty()) {
+      return Attributes.empty();
+    }
+    Equivalence.Wrapper<Attributes> key = SAME_ATTRIBUTES.wrap(attributes);
+    Attributes existing = interned.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    interned.put(key, attributes);
+    return attributes;
+  }
+
+  /**
+   * @return the number of distinct instances interned
+   */
+  public int size() {
+    return interned.size();
+  }
+
+  private static boolean sameValue(Value a, Value b) {
+    if (a == b) {
+      return true;
+    }
+    // comparing lazily decoded arrays would decode them
+    if (a instanceof LazyArrayValue || b instanceof LazyArrayValue) {
+      return false;
+    }
+    // however its elements are stored
+    if (a instanceof ArrayValue && b instanceof ArrayValue) {
+      return a.getType() == b.getType()
+          && sameElements((ArrayValue) a, (ArrayValue) b);
+    }
+    if (a.getClass() != b.getClass() || a.getType() != b.getType()) {
+      return false;
+    }
+    if (a instanceof IntegerValue) {
+      return ((IntegerValue) a).toInt() == ((IntegerValue) b).toInt();
+    } else if (a instanceof RealValue) {
+      return Double.doubleToLongBits(((RealValue) a).toDouble())
+          == Double.doubleToLongBits(((RealValue) b).toDouble());
+    } else if (a instanceof StringValue) {
+      return a.toString().equals(b.toString());
+    } else if (a instanceof InferredValue) {
+      Value aElement = ((InferredValue) a).get();
+      Value bElement = ((InferredValue) b).get();
+      if (aElement == null || bElement == null) {
+        return aElement == bElement;
+      }
+      return sameValue(aElement, bElement);
+    }
+    // booleans are singletons; everything else is compared by identity
+    return false;
+  }
+
+  private static boolean sameElements(ArrayValue a, ArrayValue b) {
+    if (a.length() != b.length()) {
+      return false;
+    }
+    // compare the unboxed elements when both arrays store them that way
+    if (a instanceof IntArrayValue && b instanceof IntArrayValue) {
+      return ((IntArrayValue) a).sameElements((IntArrayValue) b);
+    } else if (a instanceof RealArrayValue && b instanceof RealArrayValue) {
+      return ((RealArrayValue) a).sameElements((RealArrayValue) b);
+    } else if (a instanceof BoolArrayValue && b instanceof BoolArrayValue) {
+      return ((BoolArrayValue) a).sameElements((BoolArrayValue) b);
+    } else if (a instanceof StringArrayValue
+        && b instanceof StringArrayValue) {
+      return ((StringArrayValue) a).sameElements((StringArrayValue) b);
+    }
+    for (int i = 0; i < a.length(); ++i) {
+      if (!sameValue(a.get(i), b.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hashValue(Value value) {
+    if (value instanceof IntegerValue) {
+      return ((IntegerValue) value).toInt();
+    } else if (value instanceof RealValue) {
+      return Double.hashCode(((RealValue) value).toDouble());
+    } else if (value instanceof StringValue) {
+      return value.toString().hashCode();
+    } else if (value instanceof BooleanValue) {
+      return Boolean.hashCode(((BooleanValue) value).toBoolean());
+    } else if (value instanceof LazyArrayValue) {
+      return System.identityHashCode(value);
+    } else if (value instanceof IntArrayValue) {
+      return ((IntArrayValue) value).elementsHashCode();
+    } else if (value instanceof RealArrayValue) {
+      return ((RealArrayValue) value).elementsHashCode();
+    } else if (value instanceof BoolArrayValue) {
+      return ((BoolArrayValue) value).elementsHashCode();
+    } else if (value instanceof StringArrayValue) {
+      return ((StringArrayValue) value).elementsHashCode();
+    } else if (value instanceof ArrayValue) {
+      ArrayValue array = (ArrayValue) value;
+      int h = 1;
+      for (int i = 0; i < array.length(); ++i) {
+        h = 31 * h + hashValue(array.get(i));
+      }
+      return h;
+    } else if (value instanceof InferredValue) {
+      Value element = ((InferredValue) value).get();
+      return element == null ? 0 : hashValue(element);
+    }
+    return System.identityHashCode(value);
+  }
+
+}
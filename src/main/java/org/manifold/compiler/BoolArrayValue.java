@@ -0,0 +1,65 @@
+package org.manifold.compiler;
+
+import java.util.BitSet;
+
+/**
+ * An array of booleans, stored one bit per element.
+ */
+public class BoolArrayValue extends ArrayValue {
+
+  private final BitSet bits;
+  private final int length;
+
+  public BoolArrayValue(ArrayTypeValue t, boolean[] values)
+      throws TypeMismatchException {
+    super(t);
+    checkElementType(t, BooleanTypeValue.getInstance());
+    this.length = values.length;
+    this.bits = new BitSet(length);
+    for (int i = 0; i < length; ++i) {
+      bits.set(i, values[i]);
+    }
+  }
+
+  public boolean getBoolean(int i) {
+    if (i < 0 || i >= length) {
+      throw new IndexOutOfBoundsException(Integer.toString(i));
+    }
+    return bits.get(i);
+  }
+
+  @Override
+  public Value get(int i) {
+    return BooleanValue.getInstance(getBoolean(i));
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  // used by AttributesInterner, whose hash of any array of booleans this
+  // matches
+  boolean sameElements(BoolArrayValue other) {
+    return length == other.length && bits.equals(other.bits);
+  }
+
+  int elementsHashCode() {
+    int h = 1;
+    for (int i = 0; i < length; ++i) {
+      h = 31 * h + Boolean.hashCode(bits.get(i));
+    }
+    return h;
+  }
+
+  @Override
+  public boolean isElaborationtimeKnowable() {
+    return true;
+  }
+
+  @Override
+  public boolean isRuntimeKnowable() {
+    return true;
+  }
+
+}
@@ -24,6 +24,10 @@ public class BooleanTypeValue extends TypeValue {
 
   @Override
   public Value instantiate(JsonElement e) {
+    return BooleanValue.getInstance(parse(e));
+  }
+
+  static boolean parse(JsonElement e) {
     // TODO: consider using JSON true, false instead. (also for int).
     String s = e.getAsString();
     if (!(Boolean.TRUE.toString().equals(s) ||
@@ -31,7 +35,7 @@ public class BooleanTypeValue extends TypeValue {
       throw new IllegalArgumentException(String.format(
           "Expected boolean value of true or false, got %s", s));
     }
-    return BooleanValue.getInstance(Boolean.parseBoolean(s));
+    return Boolean.parseBoolean(s);
   }
 
 }
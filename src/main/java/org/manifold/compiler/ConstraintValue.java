@@ -18,8 +18,16 @@ public class ConstraintValue extends Value {
   public ConstraintValue(ConstraintType type, Map<String, Value> attrs)
       throws UndeclaredAttributeException, InvalidAttributeException,
       TypeMismatchException {
+    this(type, attrs, null);
+  }
+
+  public ConstraintValue(ConstraintType type, Map<String, Value> attrs,
+      AttributesInterner interner) throws UndeclaredAttributeException,
+      InvalidAttributeException, TypeMismatchException {
     super(type);
-    this.attributes = new Attributes(type.getAttributes(), attrs);
+    Attributes attributes = new Attributes(type.getAttributes(), attrs);
+    this.attributes = interner == null ? attributes
+        : interner.intern(attributes);
   }
 
   @Override
@@ -0,0 +1,29 @@
+package org.manifold.compiler;
+
+import org.manifold.compiler.middle.SchematicException;
+
+public class DanglingReferenceException extends SchematicException {
+  private static final long serialVersionUID = -2893650571023482217L;
+  private final String instanceName;
+  private final String referrerName;
+
+  public DanglingReferenceException(String instanceName,
+      String referrerName) {
+    this.instanceName = instanceName;
+    this.referrerName = referrerName;
+  }
+
+  public String getInstanceName() {
+    return instanceName;
+  }
+
+  public String getReferrerName() {
+    return referrerName;
+  }
+
+  @Override
+  public String getMessage() {
+    return "'" + instanceName + "' is still referenced by '" + referrerName
+        + "'";
+  }
+}
@@ -6,6 +6,8 @@ import com.google.gson.JsonElement;
 public class InferredTypeValue extends TypeValue {
 
   private final TypeValue elementType;
+  // values are immutable, so every unset value of this type can be the same
+  private final InferredValue unsetValue;
 
   public TypeValue getInferredType() {
     return this.elementType;
@@ -13,6 +15,14 @@ public class InferredTypeValue extends TypeValue {
 
   public InferredTypeValue(TypeValue elementType) {
     this.elementType = elementType;
+    this.unsetValue = new InferredValue(this);
+  }
+
+  /**
+   * @return the value of this type that has not been inferred yet
+   */
+  public InferredValue getUnsetValue() {
+    return unsetValue;
   }
 
   @Override
@@ -28,7 +38,7 @@ public class InferredTypeValue extends TypeValue {
   @Override
   public Value instantiate(JsonElement element) {
     if (element.isJsonNull()) {
-      return new InferredValue(this);
+      return unsetValue;
     }
 
     Value v = elementType.instantiate(element);
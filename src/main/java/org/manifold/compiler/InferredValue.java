@@ -6,12 +6,16 @@ import com.google.gson.JsonNull;
 public class InferredValue extends Value {
   private final TypeValue inferredType;
   private final Value element;
+  private final boolean elaborationtimeKnowable;
+  private final boolean runtimeKnowable;
 
   public InferredValue(InferredTypeValue t) {
     super(t);
 
     this.inferredType = t.getInferredType();
     this.element = null;
+    this.elaborationtimeKnowable = true;
+    this.runtimeKnowable = true;
   }
 
   public InferredValue(InferredTypeValue t, Value element)
@@ -30,6 +34,11 @@ public class InferredValue extends Value {
       if (!vtUnaliased.equals(itUnaliased)) {
         throw new TypeMismatchException(inferredType, vt);
       }
+      this.elaborationtimeKnowable = element.isElaborationtimeKnowable();
+      this.runtimeKnowable = element.isRuntimeKnowable();
+    } else {
+      this.elaborationtimeKnowable = true;
+      this.runtimeKnowable = true;
     }
   }
 
@@ -52,18 +61,12 @@ public class InferredValue extends Value {
 
   @Override
   public boolean isElaborationtimeKnowable() {
-    if (element != null) {
-      return element.isElaborationtimeKnowable();
-    }
-    return true;
+    return elaborationtimeKnowable;
   }
 
   @Override
   public boolean isRuntimeKnowable() {
-    if (element != null) {
-      return element.isRuntimeKnowable();
-    }
-    return true;
+    return runtimeKnowable;
   }
 
   public void accept(SchematicValueVisitor visitor) {
@@ -0,0 +1,63 @@
+package org.manifold.compiler;
+
+import java.util.Arrays;
+
+/**
+ * An array of integers, stored unboxed. get() creates an IntegerValue for
+ * each call; getInt() does not.
+ */
+public class IntArrayValue extends ArrayValue {
+
+  private final int[] values;
+
+  public IntArrayValue(ArrayTypeValue t, int[] values)
+      throws TypeMismatchException {
+    this(t, values, true);
+  }
+
+  /*
+   * Unless copy is set, the array takes ownership of values, which the
+   * caller must not change afterwards.
+   */
+  IntArrayValue(ArrayTypeValue t, int[] values, boolean copy)
+      throws TypeMismatchException {
+    super(t);
+    checkElementType(t, IntegerTypeValue.getInstance());
+    this.values = copy ? values.clone() : values;
+  }
+
+  public int getInt(int i) {
+    return values[i];
+  }
+
+  @Override
+  public Value get(int i) {
+    return new IntegerValue(values[i]);
+  }
+
+  @Override
+  public int length() {
+    return values.length;
+  }
+
+  // for AttributesInterner, which compares arrays by content; the hash is
+  // the one it computes for any array of integers
+  boolean sameElements(IntArrayValue other) {
+    return Arrays.equals(values, other.values);
+  }
+
+  int elementsHashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public boolean isElaborationtimeKnowable() {
+    return true;
+  }
+
+  @Override
+  public boolean isRuntimeKnowable() {
+    return false;
+  }
+
+}
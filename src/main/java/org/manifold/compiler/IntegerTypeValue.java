@@ -1,6 +1,7 @@
 package org.manifold.compiler;
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
 
 public class IntegerTypeValue extends TypeValue {
   private static final IntegerTypeValue instance = new IntegerTypeValue();
@@ -25,7 +26,23 @@ public class IntegerTypeValue extends TypeValue {
 
   @Override
   public Value instantiate(JsonElement e) {
-    return new IntegerValue(Integer.parseInt(e.getAsString()));
+    return new IntegerValue(parse(e));
+  }
+
+  /*
+   * Integers are written as JSON numbers, but used to be written as strings,
+   * which are still accepted. Numbers built in memory are used as they are;
+   * parsed ones are checked to be integers in range, as strings are.
+   */
+  static int parse(JsonElement e) {
+    JsonPrimitive primitive = e.getAsJsonPrimitive();
+    if (primitive.isNumber()) {
+      Number n = primitive.getAsNumber();
+      if (n instanceof Integer || n instanceof Short || n instanceof Byte) {
+        return n.intValue();
+      }
+    }
+    return Integer.parseInt(primitive.getAsString());
   }
 
 }
@@ -12,6 +12,10 @@ public class IntegerValue extends Value {
     this.val = val;
   }
 
+  public int toInt() {
+    return val;
+  }
+
   @Override
   public boolean isElaborationtimeKnowable() {
     return true;
@@ -30,7 +34,7 @@ public class IntegerValue extends Value {
 
   @Override
   public JsonElement toJson() {
-    return new JsonPrimitive(String.valueOf(val));
+    return new JsonPrimitive(val);
   }
 
   public void accept(SchematicValueVisitor visitor) {
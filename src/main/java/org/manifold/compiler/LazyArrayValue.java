@@ -0,0 +1,104 @@
+package org.manifold.compiler;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * A large array of integers, reals, booleans or strings read from JSON,
+ * whose elements are only decoded when they are first looked at, so that
+ * attributes which no backend reads (such as initialization data used by a
+ * single one) cost neither the time to decode them nor a Value per element.
+ *
+ * Until then the array keeps the JSON text of its elements, all of them in
+ * one string, rather than the parsed JSON. The elements are checked when
+ * the array is read, so malformed ones are reported at load time as they
+ * are for small arrays. An element decodes to what get() returns on the
+ * eagerly decoded array, so toJson() gives the same output too.
+ */
+public class LazyArrayValue extends ArrayValue {
+
+  // the unaliased element type, one of the four primitive types
+  private final TypeValue primitiveType;
+  private final int length;
+  // element i is text[offsets[i], offsets[i + 1]); both are dropped once
+  // every element has been decoded
+  private String text;
+  private int[] offsets;
+  // the elements decoded so far; created on first access
+  private Value[] elements = null;
+  private int undecoded;
+
+  LazyArrayValue(ArrayTypeValue t, TypeValue primitiveType, JsonArray raw) {
+    super(t);
+    this.primitiveType = primitiveType;
+    this.length = raw.size();
+    this.undecoded = length;
+    this.offsets = new int[length + 1];
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; ++i) {
+      JsonElement element = raw.get(i);
+      check(element);
+      offsets[i] = builder.length();
+      builder.append(element.getAsString());
+    }
+    offsets[length] = builder.length();
+    this.text = builder.toString();
+  }
+
+  private void check(JsonElement element) {
+    if (primitiveType == IntegerTypeValue.getInstance()) {
+      IntegerTypeValue.parse(element);
+    } else if (primitiveType == RealTypeValue.getInstance()) {
+      RealTypeValue.parse(element);
+    } else if (primitiveType == BooleanTypeValue.getInstance()) {
+      BooleanTypeValue.parse(element);
+    } else {
+      element.getAsJsonPrimitive();
+    }
+  }
+
+  /**
+   * @return whether the given element has been decoded yet
+   */
+  public synchronized boolean isDecoded(int i) {
+    return elements != null && elements[i] != null;
+  }
+
+  @Override
+  public synchronized Value get(int i) {
+    if (i < 0 || i >= length) {
+      throw new IndexOutOfBoundsException(Integer.toString(i));
+    }
+    if (elements == null) {
+      elements = new Value[length];
+    }
+    Value element = elements[i];
+    if (element == null) {
+      element = primitiveType.instantiate(new JsonPrimitive(
+          text.substring(offsets[i], offsets[i + 1])));
+      elements[i] = element;
+      if (--undecoded == 0) {
+        text = null;
+        offsets = null;
+      }
+    }
+    return element;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public boolean isElaborationtimeKnowable() {
+    return true;
+  }
+
+  @Override
+  public boolean isRuntimeKnowable() {
+    return primitiveType == BooleanTypeValue.getInstance();
+  }
+
+}
@@ -1,6 +1,8 @@
 package org.manifold.compiler;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import com.google.common.collect.ImmutableMap;
@@ -9,11 +11,27 @@ public class NodeTypeValue extends TypeValue {
 
   private final Map<String, PortTypeValue> ports;
 
+  // Every port of the type has a slot, by which nodes of the type store
+  // their ports in an array. Inherited ports keep the slots they have in
+  // the supertype, so a node can be used as an instance of its supertype
+  // slot for slot; ports added by this type follow, sorted by name.
+  private final String[] portNames;
+  private final PortTypeValue[] portTypes;
+  private final Map<String, Integer> portSlots;
+
   public NodeTypeValue(
       Map<String, TypeValue> attributes,
       Map<String, PortTypeValue> ports) {
     super(attributes);
-    this.ports = ImmutableMap.copyOf(ports);
+    List<String> names = new ArrayList<>(ports.keySet());
+    Collections.sort(names);
+    this.portNames = names.toArray(new String[names.size()]);
+    this.portTypes = new PortTypeValue[portNames.length];
+    for (int slot = 0; slot < portNames.length; ++slot) {
+      portTypes[slot] = ports.get(portNames[slot]);
+    }
+    this.portSlots = slotMap(portNames);
+    this.ports = portMap(portNames, portTypes);
   }
 
   public NodeTypeValue(
@@ -22,15 +40,75 @@ public class NodeTypeValue extends TypeValue {
       NodeTypeValue supertype) {
     super(supertype, attributes);
     // add derived ports to inherited ports
-    Map<String, PortTypeValue> mixedPorts = new HashMap<>(supertype.getPorts());
-    mixedPorts.putAll(ports);
-    this.ports = ImmutableMap.copyOf(mixedPorts);
+    List<String> derived = new ArrayList<>();
+    for (String name : ports.keySet()) {
+      if (supertype.getPortSlot(name) < 0) {
+        derived.add(name);
+      }
+    }
+    Collections.sort(derived);
+    int inherited = supertype.getPortCount();
+    this.portNames = new String[inherited + derived.size()];
+    this.portTypes = new PortTypeValue[portNames.length];
+    for (int slot = 0; slot < inherited; ++slot) {
+      portNames[slot] = supertype.portNames[slot];
+      PortTypeValue redefined = ports.get(portNames[slot]);
+      portTypes[slot] = redefined != null ? redefined
+          : supertype.portTypes[slot];
+    }
+    for (int i = 0; i < derived.size(); ++i) {
+      portNames[inherited + i] = derived.get(i);
+      portTypes[inherited + i] = ports.get(derived.get(i));
+    }
+    this.portSlots = slotMap(portNames);
+    this.ports = portMap(portNames, portTypes);
+  }
+
+  private static Map<String, Integer> slotMap(String[] names) {
+    ImmutableMap.Builder<String, Integer> b = ImmutableMap.builder();
+    for (int slot = 0; slot < names.length; ++slot) {
+      b.put(names[slot], slot);
+    }
+    return b.build();
   }
 
+  private static Map<String, PortTypeValue> portMap(String[] names,
+      PortTypeValue[] types) {
+    ImmutableMap.Builder<String, PortTypeValue> b = ImmutableMap.builder();
+    for (int slot = 0; slot < names.length; ++slot) {
+      b.put(names[slot], types[slot]);
+    }
+    return b.build();
+  }
+
+  /**
+   * @return the ports of this type, in slot order
+   */
   public Map<String, PortTypeValue> getPorts() {
     return this.ports;
   }
 
+  public int getPortCount() {
+    return portNames.length;
+  }
+
+  /**
+   * @return the slot of the port with the given name, or -1 if this type
+   * has no such port
+   */
+  public int getPortSlot(String portName) {
+    Integer slot = portSlots.get(portName);
+    return slot == null ? -1 : slot;
+  }
+
+  public String getPortName(int slot) {
+    return portNames[slot];
+  }
+
+  public PortTypeValue getPortType(int slot) {
+    return portTypes[slot];
+  }
+
   @Override
   public void accept(SchematicValueVisitor visitor) {
     visitor.visit(this);
@@ -1,6 +1,5 @@
 package org.manifold.compiler;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.manifold.compiler.middle.SchematicException;
@@ -10,10 +9,55 @@ import com.google.common.collect.ImmutableMap;
 public class NodeValue extends Value {
 
   private final Attributes attributes;
-  private final Map<String, PortValue> ports;
+  // indexed by the port slots of the node's type; ports without
+  // attributes are only created when they are first asked for, so slots
+  // may be null until then
+  private final PortValue[] ports;
 
+  /**
+   * @return a copy of the ports of this node by name, in slot order
+   */
   public Map<String, PortValue> getPorts() {
-    return ImmutableMap.copyOf(ports);
+    NodeTypeValue type = (NodeTypeValue) getType();
+    ImmutableMap.Builder<String, PortValue> b = ImmutableMap.builder();
+    for (int slot = 0; slot < ports.length; ++slot) {
+      b.put(type.getPortName(slot), getPort(slot));
+    }
+    return b.build();
+  }
+
+  public int getPortCount() {
+    return ports.length;
+  }
+
+  /**
+   * @return the port in the given slot of the node's type
+   */
+  public PortValue getPort(int slot) {
+    PortValue port = ports[slot];
+    if (port == null) {
+      port = createPort(slot);
+    }
+    return port;
+  }
+
+  // synchronized, so that every caller gets the same port
+  private synchronized PortValue createPort(int slot) {
+    if (ports[slot] == null) {
+      ports[slot] = new PortValue(
+          ((NodeTypeValue) getType()).getPortType(slot), this,
+          Attributes.empty());
+    }
+    return ports[slot];
+  }
+
+  /**
+   * @return the attributes of the port in the given slot, without creating
+   * the port if it has not been yet
+   */
+  public Attributes getPortAttributes(int slot) {
+    PortValue port = ports[slot];
+    return port == null ? Attributes.empty() : port.getAttributes();
   }
 
   public Value getAttribute(String attrName)
@@ -25,38 +69,79 @@ public class NodeValue extends Value {
     return attributes;
   }
 
+  /**
+   * @return the value of the given attribute, or null if there is none
+   */
+  public Value findAttribute(String attrName) {
+    return attributes.find(attrName);
+  }
+
+  /**
+   * @return the port with the given name, or null if there is none
+   */
+  public PortValue findPort(String portName) {
+    int slot = ((NodeTypeValue) getType()).getPortSlot(portName);
+    return slot < 0 ? null : getPort(slot);
+  }
+
+  /**
+   * @return the name of the given port of this node, or null if the port
+   * belongs to another node
+   */
+  public String getPortName(PortValue port) {
+    if (port.getParent() != this) {
+      return null;
+    }
+    for (int slot = 0; slot < ports.length; ++slot) {
+      if (ports[slot] == port) {
+        return ((NodeTypeValue) getType()).getPortName(slot);
+      }
+    }
+    return null;
+  }
+
   public PortValue getPort(String portName)
       throws UndeclaredIdentifierException {
-    if (ports.containsKey(portName)) {
-      return ports.get(portName);
-    } else {
+    PortValue port = findPort(portName);
+    if (port == null) {
       throw new UndeclaredIdentifierException(portName);
     }
+    return port;
   }
 
   public NodeValue(NodeTypeValue type, Map<String, Value> attrs,
       Map<String, Map<String, Value>> portAttrMaps) throws SchematicException {
+    this(type, attrs, portAttrMaps, null);
+  }
+
+  /**
+   * Create a node whose attributes, and those of its ports, are shared
+   * with identical ones through the given interner (if it is not null).
+   */
+  public NodeValue(NodeTypeValue type, Map<String, Value> attrs,
+      Map<String, Map<String, Value>> portAttrMaps,
+      AttributesInterner interner) throws SchematicException {
     super(type);
-    this.attributes = new Attributes(type.getAttributes(), attrs);
-    this.ports = new HashMap<>();
-
-    final Map<String, PortTypeValue> portTypes = type.getPorts();
-    if (portTypes != null) {
-      for (String portName : portAttrMaps.keySet()) {
-        if (!portTypes.containsKey(portName)) {
-          throw new UndeclaredIdentifierException(portName);
-        }
+    Attributes attributes = new Attributes(type.getAttributes(), attrs);
+    this.attributes = interner == null ? attributes
+        : interner.intern(attributes);
+    this.ports = new PortValue[type.getPortCount()];
+
+    for (String portName : portAttrMaps.keySet()) {
+      if (type.getPortSlot(portName) < 0) {
+        throw new UndeclaredIdentifierException(portName);
       }
+    }
 
-      Map<String, PortTypeValue> ports = type.getPorts();
-      for (Map.Entry<String, PortTypeValue> portEntry : ports.entrySet()) {
-        String portName = portEntry.getKey();
-        PortTypeValue portType = portEntry.getValue();
-        Map<String, Value> portAttrs = portAttrMaps.get(portName);
-        if (portAttrs == null) {
-          throw new InvalidIdentifierException(portName);
-        }
-        this.ports.put(portName, new PortValue(portType, this, portAttrs));
+    for (int slot = 0; slot < ports.length; ++slot) {
+      String portName = type.getPortName(slot);
+      Map<String, Value> portAttrs = portAttrMaps.get(portName);
+      if (portAttrs == null) {
+        throw new InvalidIdentifierException(portName);
+      }
+      PortTypeValue portType = type.getPortType(slot);
+      if (!portAttrs.isEmpty() || !portType.getAttributes().isEmpty()) {
+        ports[slot] = new PortValue(portType, this, portAttrs, interner);
       }
     }
   }
@@ -25,9 +25,24 @@ public class PortValue extends Value {
   public PortValue(PortTypeValue type, NodeValue parent,
       Map<String, Value> attrMap) throws UndeclaredAttributeException,
       InvalidAttributeException, TypeMismatchException {
+    this(type, parent, attrMap, null);
+  }
+
+  public PortValue(PortTypeValue type, NodeValue parent,
+      Map<String, Value> attrMap, AttributesInterner interner)
+      throws UndeclaredAttributeException, InvalidAttributeException,
+      TypeMismatchException {
+    super(type);
+    Attributes attributes = new Attributes(type.getAttributes(), attrMap);
+    this.attributes = interner == null ? attributes
+        : interner.intern(attributes);
+    this.parent = checkNotNull(parent);
+  }
 
+  // for ports whose attributes have already been checked
+  PortValue(PortTypeValue type, NodeValue parent, Attributes attributes) {
     super(type);
-    this.attributes = new Attributes(type.getAttributes(), attrMap);
+    this.attributes = attributes;
     this.parent = checkNotNull(parent);
   }
 
@@ -0,0 +1,62 @@
+package org.manifold.compiler;
+
+import java.util.Arrays;
+
+/**
+ * An array of reals, stored unboxed. get() creates a RealValue for each
+ * call; getDouble() does not.
+ */
+public class RealArrayValue extends ArrayValue {
+
+  private final double[] values;
+
+  public RealArrayValue(ArrayTypeValue t, double[] values)
+      throws TypeMismatchException {
+    this(t, values, true);
+  }
+
+  /*
+   * Unless copy is set, the array takes ownership of values, which the
+   * caller must not change afterwards.
+   */
+  RealArrayValue(ArrayTypeValue t, double[] values, boolean copy)
+      throws TypeMismatchException {
+    super(t);
+    checkElementType(t, RealTypeValue.getInstance());
+    this.values = copy ? values.clone() : values;
+  }
+
+  public double getDouble(int i) {
+    return values[i];
+  }
+
+  @Override
+  public Value get(int i) {
+    return new RealValue(values[i]);
+  }
+
+  @Override
+  public int length() {
+    return values.length;
+  }
+
+  // used by AttributesInterner; elements compare and hash as Doubles do
+  boolean sameElements(RealArrayValue other) {
+    return Arrays.equals(values, other.values);
+  }
+
+  int elementsHashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public boolean isElaborationtimeKnowable() {
+    return true;
+  }
+
+  @Override
+  public boolean isRuntimeKnowable() {
+    return false;
+  }
+
+}
@@ -1,6 +1,7 @@
 package org.manifold.compiler;
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
 
 public class RealTypeValue extends TypeValue {
   private static final RealTypeValue instance = new RealTypeValue();
@@ -25,6 +26,18 @@ public class RealTypeValue extends TypeValue {
 
   @Override
   public Value instantiate(JsonElement e) {
-    return new RealValue(Double.parseDouble(e.getAsString()));
+    return new RealValue(parse(e));
+  }
+
+  /*
+   * Reals are written as JSON numbers, except for NaN and the infinities,
+   * and used to be written as strings, which are still accepted.
+   */
+  static double parse(JsonElement e) {
+    JsonPrimitive primitive = e.getAsJsonPrimitive();
+    if (primitive.isNumber()) {
+      return primitive.getAsDouble();
+    }
+    return Double.parseDouble(primitive.getAsString());
   }
 }
@@ -36,6 +36,10 @@ public class RealValue extends Value {
 
   @Override
   public JsonElement toJson() {
-    return new JsonPrimitive(Double.toString(val));
+    // JSON has no numbers for NaN and the infinities
+    if (Double.isNaN(val) || Double.isInfinite(val)) {
+      return new JsonPrimitive(Double.toString(val));
+    }
+    return new JsonPrimitive(val);
   }
 }
@@ -0,0 +1,92 @@
+package org.manifold.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An array of strings, dictionary-encoded: each distinct string is kept
+ * (as a StringValue) once, and the array itself holds indices into the
+ * dictionary. get() returns the shared StringValues.
+ */
+public class StringArrayValue extends ArrayValue {
+
+  private final StringValue[] dictionary;
+  private final int[] codes;
+
+  public StringArrayValue(ArrayTypeValue t, String[] values)
+      throws TypeMismatchException {
+    super(t);
+    checkElementType(t, StringTypeValue.getInstance());
+    Map<String, Integer> index = new HashMap<>();
+    List<StringValue> distinct = new ArrayList<>();
+    this.codes = new int[values.length];
+    for (int i = 0; i < values.length; ++i) {
+      Integer code = index.get(values[i]);
+      if (code == null) {
+        code = distinct.size();
+        index.put(values[i], code);
+        distinct.add(new StringValue(StringTypeValue.getInstance(),
+            values[i]));
+      }
+      codes[i] = code;
+    }
+    this.dictionary = distinct.toArray(new StringValue[distinct.size()]);
+  }
+
+  public String getString(int i) {
+    return dictionary[codes[i]].toString();
+  }
+
+  @Override
+  public Value get(int i) {
+    return dictionary[codes[i]];
+  }
+
+  @Override
+  public int length() {
+    return codes.length;
+  }
+
+  // used by AttributesInterner, whose hash of any array of strings this
+  // matches
+  boolean sameElements(StringArrayValue other) {
+    // the dictionary is in order of first appearance, so arrays with the
+    // same strings have the same codes
+    if (!Arrays.equals(codes, other.codes)
+        || dictionary.length != other.dictionary.length) {
+      return false;
+    }
+    for (int i = 0; i < dictionary.length; ++i) {
+      if (!dictionary[i].toString().equals(other.dictionary[i].toString())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int elementsHashCode() {
+    int[] hashes = new int[dictionary.length];
+    for (int i = 0; i < dictionary.length; ++i) {
+      hashes[i] = dictionary[i].toString().hashCode();
+    }
+    int h = 1;
+    for (int code : codes) {
+      h = 31 * h + hashes[code];
+    }
+    return h;
+  }
+
+  @Override
+  public boolean isElaborationtimeKnowable() {
+    return true;
+  }
+
+  @Override
+  public boolean isRuntimeKnowable() {
+    return false;
+  }
+
+}
@@ -8,6 +8,7 @@ public class UndeclaredAttributeException extends SchematicException {
   public String name;
 
   public UndeclaredAttributeException(String name) {
+    super(false);
     this.name = name;
   }
 
@@ -10,6 +10,7 @@ public class UndeclaredIdentifierException extends SchematicException {
   }
   
   public UndeclaredIdentifierException(String identifier){
+    super(false);
     this.identifier = identifier;
   }
   
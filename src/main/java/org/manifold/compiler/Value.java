@@ -5,7 +5,7 @@ import com.google.gson.JsonElement;
 
 public abstract class Value {
 
-  private TypeValue type = null;
+  private final TypeValue type;
 
   protected Value(Value type) {
     // Allow a "null" type so that TypeTypeValue can escape the circular
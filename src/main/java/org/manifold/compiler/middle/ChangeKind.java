@@ -0,0 +1,10 @@
+package org.manifold.compiler.middle;
+
+/**
+ * The ways a named entity in a Schematic can change.
+ */
+public enum ChangeKind {
+  ADD,
+  REMOVE,
+  REPLACE
+}
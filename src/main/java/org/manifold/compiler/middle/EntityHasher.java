@@ -0,0 +1,265 @@
+package org.manifold.compiler.middle;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.manifold.compiler.ArrayTypeValue;
+import org.manifold.compiler.ArrayValue;
+import org.manifold.compiler.Attributes;
+import org.manifold.compiler.BooleanValue;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintType;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.InferredTypeValue;
+import org.manifold.compiler.InferredValue;
+import org.manifold.compiler.IntegerValue;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.RealValue;
+import org.manifold.compiler.StringValue;
+import org.manifold.compiler.TypeValue;
+import org.manifold.compiler.UserDefinedTypeValue;
+import org.manifold.compiler.Value;
+
+/**
+ * Computes 64-bit structural hashes of the entities in a Schematic.
+ *
+ * Types are hashed by structure (attributes, ports, signal type and
+ * supertype), so two separately constructed but identical type definitions
+ * hash the same; the result for each type is cached since types are
+ * immutable. Instances are hashed by their type and attribute values.
+ * Attribute values that refer to other instances (nodes, ports, connections,
+ * constraints) are hashed by the name they are bound to in the schematic, so
+ * an instance hash is independent of object identity.
+ *
+ * The hash of an entity never includes its own name; see
+ * {@link #hashEntry(String, long)} to combine the two.
+ */
+public class EntityHasher {
+
+  private static final long SEED = 0x6d616e69666f6c64L;
+
+  private final Schematic schematic;
+  private final Map<TypeValue, Long> typeHashes = new IdentityHashMap<>();
+
+  public EntityHasher(Schematic schematic) {
+    this.schematic = schematic;
+  }
+
+  public long hashEntity(SchematicSection section, Value entity) {
+    switch (section) {
+    case NODES:
+      return hashNode((NodeValue) entity);
+    case CONNECTIONS:
+      return hashConnection((ConnectionValue) entity);
+    case CONSTRAINTS:
+      return hashConstraint((ConstraintValue) entity);
+    default:
+      return hashType((TypeValue) entity);
+    }
+  }
+
+  public long hashNode(NodeValue node) {
+    long h = combine(SEED, hashType(node.getType()));
+    h = combine(h, hashAttributes(node.getAttributes()));
+    long ports = 0;
+    NodeTypeValue type = (NodeTypeValue) node.getType();
+    for (int slot = 0; slot < node.getPortCount(); ++slot) {
+      ports += hashEntry(type.getPortName(slot),
+          hashAttributes(node.getPortAttributes(slot)));
+    }
+    return fmix(combine(h, ports));
+  }
+
+  public long hashConnection(ConnectionValue conn) {
+    long h = combine(SEED, hashPortReference(conn.getFrom()));
+    h = combine(h, hashPortReference(conn.getTo()));
+    return fmix(combine(h, hashAttributes(conn.getAttributes())));
+  }
+
+  public long hashConstraint(ConstraintValue constraint) {
+    long h = combine(SEED, hashType(constraint.getType()));
+    return fmix(combine(h, hashAttributes(constraint.getAttributes())));
+  }
+
+  public long hashAttributes(Attributes attributes) {
+    // order-independent, so that equal maps built in a different insertion
+    // order hash the same
+    long h = 0;
+    for (Map.Entry<String, Value> attr : attributes.getAll().entrySet()) {
+      h += hashEntry(attr.getKey(), hashValue(attr.getValue()));
+    }
+    return h;
+  }
+
+  public long hashValue(Value v) {
+    if (v == null) {
+      return SEED;
+    } else if (v instanceof TypeValue) {
+      return hashType((TypeValue) v);
+    } else if (v instanceof NodeValue) {
+      return combine(hashString("node"), hashName(() ->
+          schematic.getNodeName((NodeValue) v)));
+    } else if (v instanceof PortValue) {
+      return combine(hashString("port"), hashPortReference((PortValue) v));
+    } else if (v instanceof ConnectionValue) {
+      return combine(hashString("connection"), hashName(() ->
+          schematic.getConnectionName((ConnectionValue) v)));
+    } else if (v instanceof ConstraintValue) {
+      return combine(hashString("constraint"), hashName(() ->
+          schematic.getConstraintName((ConstraintValue) v)));
+    }
+
+    long h = hashType(v.getType());
+    if (v instanceof IntegerValue) {
+      h = combine(h, ((IntegerValue) v).toInt());
+    } else if (v instanceof RealValue) {
+      h = combine(h, Double.doubleToLongBits(((RealValue) v).toDouble()));
+    } else if (v instanceof BooleanValue) {
+      h = combine(h, ((BooleanValue) v).toBoolean() ? 1 : 0);
+    } else if (v instanceof StringValue) {
+      h = combine(h, hashString(v.toString()));
+    } else if (v instanceof ArrayValue) {
+      ArrayValue arr = (ArrayValue) v;
+      h = combine(h, arr.length());
+      for (int i = 0; i < arr.length(); ++i) {
+        h = combine(h, hashValue(arr.get(i)));
+      }
+    } else if (v instanceof InferredValue) {
+      InferredValue inferred = (InferredValue) v;
+      h = combine(h, inferred.isSet() ? hashValue(inferred.get()) : 0);
+    } else {
+      h = combine(h, hashString(v.toJson().toString()));
+    }
+    return fmix(h);
+  }
+
+  public long hashType(TypeValue type) {
+    if (type == null) {
+      return SEED;
+    }
+    Long cached = typeHashes.get(type);
+    if (cached != null) {
+      return cached;
+    }
+    long h = computeTypeHash(type);
+    typeHashes.put(type, h);
+    return h;
+  }
+
+  private long computeTypeHash(TypeValue type) {
+    long h;
+    if (type instanceof UserDefinedTypeValue) {
+      UserDefinedTypeValue udt = (UserDefinedTypeValue) type;
+      h = combine(hashString(udt.getName()), hashType(udt.getTypeAlias()));
+    } else if (type instanceof ArrayTypeValue) {
+      h = combine(hashString("Array"),
+          hashType(((ArrayTypeValue) type).getElementType()));
+    } else if (type instanceof InferredTypeValue) {
+      h = combine(hashString("Inferred"),
+          hashType(((InferredTypeValue) type).getInferredType()));
+    } else if (type instanceof PortTypeValue) {
+      h = combine(hashString("PortType"),
+          hashType(((PortTypeValue) type).getSignalType()));
+      h = combine(h, hashTypeAttributes(type));
+      h = combine(h, hashSupertype(type));
+    } else if (type instanceof NodeTypeValue) {
+      h = combine(hashString("NodeType"), hashTypeAttributes(type));
+      long ports = 0;
+      for (Map.Entry<String, PortTypeValue> port
+          : ((NodeTypeValue) type).getPorts().entrySet()) {
+        ports += hashEntry(port.getKey(), hashType(port.getValue()));
+      }
+      h = combine(h, ports);
+      h = combine(h, hashSupertype(type));
+    } else if (type instanceof ConstraintType) {
+      h = combine(hashString("ConstraintType"), hashTypeAttributes(type));
+      h = combine(h, hashSupertype(type));
+    } else {
+      // primitive and internal types are singletons identified by name
+      h = hashString(type.toString());
+    }
+    return fmix(h);
+  }
+
+  private long hashTypeAttributes(TypeValue type) {
+    long h = 0;
+    for (Map.Entry<String, TypeValue> attr
+        : type.getAttributes().entrySet()) {
+      h += hashEntry(attr.getKey(), hashType(attr.getValue()));
+    }
+    return h;
+  }
+
+  private long hashSupertype(TypeValue type) {
+    // types without an explicit supertype all derive from TypeTypeValue,
+    // which would only add noise
+    TypeValue supertype = type.getSupertype();
+    if (supertype != null && supertype.getClass() == type.getClass()) {
+      return hashType(supertype);
+    }
+    return 0;
+  }
+
+  private long hashPortReference(PortValue port) {
+    NodeValue parent = port.getParent();
+    long h = hashName(() -> schematic.getNodeName(parent));
+    String portName = parent.getPortName(port);
+    if (portName != null) {
+      h = combine(h, hashString(portName));
+    }
+    return h;
+  }
+
+  private interface NameLookup {
+    String lookup();
+  }
+
+  private long hashName(NameLookup name) {
+    try {
+      return hashString(name.lookup());
+    } catch (NoSuchElementException e) {
+      // references to instances outside of this schematic are all
+      // considered equal
+      return SEED;
+    }
+  }
+
+  /**
+   * Combine the name of an entry (attribute, port, or schematic entity) with
+   * the hash of its content. The result is suitable for order-independent
+   * aggregation by summation.
+   */
+  public static long hashEntry(String name, long contentHash) {
+    return fmix(combine(hashString(name), contentHash));
+  }
+
+  public static long hashString(String s) {
+    // 64-bit FNV-1a over UTF-16 code units; String.hashCode() is too narrow
+    // to rely on for change detection
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); ++i) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return fmix(h);
+  }
+
+  static long combine(long h, long v) {
+    return h ^ (v + 0x9e3779b97f4a7c15L + (h << 6) + (h >>> 2));
+  }
+
+  static long fmix(long h) {
+    // finalization mix from MurmurHash3
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
@@ -0,0 +1,494 @@
+package org.manifold.compiler.middle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A hash array mapped trie: a hash map whose structure can be shared between
+ * copies. {@link #snapshot()} makes a copy in constant time; afterwards, the
+ * first change to either map copies only the path from the root to the
+ * changed entry (at most seven small nodes), so any number of snapshots can
+ * coexist at the cost of the entries in which they differ.
+ *
+ * Between snapshots the map is changed in place, like an ordinary HashMap.
+ * Every trie node records the edit token of the map that created it; a map
+ * only modifies nodes carrying its current token, and takes a fresh token
+ * whenever a snapshot is made, so that nodes which are (or may be) shared
+ * are never modified.
+ *
+ * Removing an entry collapses the nodes it leaves holding a single entry
+ * into their parents, so the trie stays as shallow as its contents need.
+ *
+ * Keys must not be null. Like HashMap, this class is not thread-safe, but
+ * separate snapshots may be used from separate threads.
+ */
+public class HashTrieMap<K, V> extends AbstractMap<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  // 32-bit hashes consume seven levels of 5 bits; a collision node below
+  private static final int MAX_DEPTH = 8;
+
+  private static final Object NOT_FOUND = new Object();
+
+  private TrieNode root;
+  private int size;
+  private Object edit;
+  private int modCount = 0;
+
+  public HashTrieMap() {
+    this(null, 0);
+  }
+
+  public HashTrieMap(Map<? extends K, ? extends V> m) {
+    this(null, 0);
+    putAll(m);
+  }
+
+  private HashTrieMap(TrieNode root, int size) {
+    this.root = root;
+    this.size = size;
+    this.edit = new Object();
+  }
+
+  /**
+   * @return a copy of this map, made in constant time by sharing its
+   * structure with this map
+   */
+  public HashTrieMap<K, V> snapshot() {
+    // every node is now shared, so neither map may change one in place
+    edit = new Object();
+    return new HashTrieMap<>(root, size);
+  }
+
+  /**
+   * @return a new map that also maps the given key to the given value,
+   * leaving this map unchanged
+   */
+  public HashTrieMap<K, V> plus(K key, V value) {
+    // through snapshot(), so that neither map changes the shared nodes
+    HashTrieMap<K, V> copy = snapshot();
+    copy.put(key, value);
+    return copy;
+  }
+
+  /**
+   * @return a new map without the given key, leaving this map unchanged
+   */
+  public HashTrieMap<K, V> minus(Object key) {
+    HashTrieMap<K, V> copy = snapshot();
+    copy.remove(key);
+    return copy;
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return root != null
+        && root.find(0, hash(key), checkNotNull(key)) != NOT_FOUND;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    if (root == null) {
+      return null;
+    }
+    Object value = root.find(0, hash(key), checkNotNull(key));
+    return value == NOT_FOUND ? null : (V) value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V put(K key, V value) {
+    checkNotNull(key);
+    Change change = new Change();
+    if (root == null) {
+      root = BitmapNode.EMPTY;
+    }
+    root = root.put(edit, 0, hash(key), key, value, change);
+    if (change.sizeChanged) {
+      ++size;
+      ++modCount;
+    }
+    return (V) change.oldValue;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V remove(Object key) {
+    if (root == null) {
+      return null;
+    }
+    Change change = new Change();
+    root = root.remove(edit, 0, hash(key), checkNotNull(key), change);
+    if (change.sizeChanged) {
+      --size;
+      ++modCount;
+    }
+    return (V) change.oldValue;
+  }
+
+  @Override
+  public void clear() {
+    root = null;
+    size = 0;
+    ++modCount;
+  }
+
+  @Override
+  public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  // what a put or remove did, for the benefit of the map
+  private static class Change {
+    private boolean sizeChanged = false;
+    private Object oldValue = null;
+  }
+
+  /*
+   * Both kinds of node keep their contents in a single array of key/value
+   * pairs. In a bitmap node a null key marks a slot holding a child node
+   * instead of an entry, which is why null keys are not allowed.
+   */
+  private abstract static class TrieNode {
+    protected final Object edit;
+    protected Object[] array;
+
+    TrieNode(Object edit, Object[] array) {
+      this.edit = edit;
+      this.array = array;
+    }
+
+    abstract Object find(int shift, int hash, Object key);
+
+    abstract TrieNode put(Object edit, int shift, int hash, Object key,
+        Object value, Change change);
+
+    // returns null if the node is left empty
+    abstract TrieNode remove(Object edit, int shift, int hash, Object key,
+        Change change);
+
+    // copy of the array with pair i removed
+    protected Object[] withoutPair(int i) {
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, 2 * i);
+      System.arraycopy(array, 2 * (i + 1), newArray, 2 * i,
+          newArray.length - 2 * i);
+      return newArray;
+    }
+  }
+
+  private static final class BitmapNode extends TrieNode {
+    static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+    private int bitmap;
+
+    BitmapNode(Object edit, int bitmap, Object[] array) {
+      super(edit, array);
+      this.bitmap = bitmap;
+    }
+
+    private static int bitpos(int hash, int shift) {
+      return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int i = index(bit);
+      Object k = array[2 * i];
+      Object v = array[2 * i + 1];
+      if (k == null) {
+        return ((TrieNode) v).find(shift + BITS, hash, key);
+      }
+      return key.equals(k) ? v : NOT_FOUND;
+    }
+
+    // this node, if it belongs to the edit, or a copy of it that does
+    private BitmapNode editable(Object edit) {
+      if (this.edit == edit) {
+        return this;
+      }
+      return new BitmapNode(edit, bitmap, array.clone());
+    }
+
+    @Override
+    TrieNode put(Object edit, int shift, int hash, Object key, Object value,
+        Change change) {
+      int bit = bitpos(hash, shift);
+      int i = index(bit);
+      if ((bitmap & bit) != 0) {
+        Object k = array[2 * i];
+        Object v = array[2 * i + 1];
+        if (k == null) {
+          TrieNode child = (TrieNode) v;
+          TrieNode newChild =
+              child.put(edit, shift + BITS, hash, key, value, change);
+          if (newChild == child) {
+            return this;
+          }
+          BitmapNode node = editable(edit);
+          node.array[2 * i + 1] = newChild;
+          return node;
+        }
+        if (key.equals(k)) {
+          change.oldValue = v;
+          if (v == value) {
+            return this;
+          }
+          BitmapNode node = editable(edit);
+          node.array[2 * i + 1] = value;
+          return node;
+        }
+        // two keys in one slot: push both down a level
+        change.sizeChanged = true;
+        BitmapNode node = editable(edit);
+        node.array[2 * i] = null;
+        node.array[2 * i + 1] = split(edit, shift + BITS, k, v, hash, key,
+            value);
+        return node;
+      }
+      change.sizeChanged = true;
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, 2 * i);
+      newArray[2 * i] = key;
+      newArray[2 * i + 1] = value;
+      System.arraycopy(array, 2 * i, newArray, 2 * (i + 1),
+          array.length - 2 * i);
+      if (this.edit == edit) {
+        array = newArray;
+        bitmap |= bit;
+        return this;
+      }
+      return new BitmapNode(edit, bitmap | bit, newArray);
+    }
+
+    private static TrieNode split(Object edit, int shift, Object k1,
+        Object v1, int h2, Object k2, Object v2) {
+      int h1 = hash(k1);
+      if (h1 == h2) {
+        return new CollisionNode(edit, h1, new Object[] {k1, v1, k2, v2});
+      }
+      Change ignored = new Change();
+      return new BitmapNode(edit, 0, new Object[0])
+          .put(edit, shift, h1, k1, v1, ignored)
+          .put(edit, shift, h2, k2, v2, ignored);
+    }
+
+    @Override
+    TrieNode remove(Object edit, int shift, int hash, Object key,
+        Change change) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int i = index(bit);
+      Object k = array[2 * i];
+      Object v = array[2 * i + 1];
+      if (k == null) {
+        TrieNode child = (TrieNode) v;
+        TrieNode newChild = child.remove(edit, shift + BITS, hash, key,
+            change);
+        if (newChild == child) {
+          return this;
+        }
+        if (newChild != null) {
+          BitmapNode node = editable(edit);
+          Object[] childArray = newChild.array;
+          if (childArray.length == 2 && childArray[0] != null) {
+            // a child left with a single entry is replaced by the entry,
+            // so that removals do not leave chains of one-entry nodes
+            node.array[2 * i] = childArray[0];
+            node.array[2 * i + 1] = childArray[1];
+          } else {
+            node.array[2 * i + 1] = newChild;
+          }
+          return node;
+        }
+      } else if (key.equals(k)) {
+        change.sizeChanged = true;
+        change.oldValue = v;
+      } else {
+        return this;
+      }
+      // slot i is now empty
+      if (bitmap == bit) {
+        return null;
+      }
+      if (this.edit == edit) {
+        array = withoutPair(i);
+        bitmap ^= bit;
+        return this;
+      }
+      return new BitmapNode(edit, bitmap ^ bit, withoutPair(i));
+    }
+  }
+
+  // keys whose (full) hashes are equal
+  private static final class CollisionNode extends TrieNode {
+    private final int hash;
+
+    CollisionNode(Object edit, int hash, Object[] array) {
+      super(edit, array);
+      this.hash = hash;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i / 2;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      if (hash != this.hash) {
+        return NOT_FOUND;
+      }
+      int i = indexOf(key);
+      return i < 0 ? NOT_FOUND : array[2 * i + 1];
+    }
+
+    @Override
+    TrieNode put(Object edit, int shift, int hash, Object key, Object value,
+        Change change) {
+      if (hash != this.hash) {
+        // nest this node below a bitmap node, then add the key beside it
+        int bit = 1 << ((this.hash >>> shift) & MASK);
+        return new BitmapNode(edit, bit, new Object[] {null, this})
+            .put(edit, shift, hash, key, value, change);
+      }
+      int i = indexOf(key);
+      if (i >= 0) {
+        change.oldValue = array[2 * i + 1];
+        if (change.oldValue == value) {
+          return this;
+        }
+        CollisionNode node = this.edit == edit ? this
+            : new CollisionNode(edit, hash, array.clone());
+        node.array[2 * i + 1] = value;
+        return node;
+      }
+      change.sizeChanged = true;
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      if (this.edit == edit) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(edit, hash, newArray);
+    }
+
+    @Override
+    TrieNode remove(Object edit, int shift, int hash, Object key,
+        Change change) {
+      if (hash != this.hash) {
+        return this;
+      }
+      int i = indexOf(key);
+      if (i < 0) {
+        return this;
+      }
+      change.sizeChanged = true;
+      change.oldValue = array[2 * i + 1];
+      if (array.length == 2) {
+        return null;
+      }
+      if (this.edit == edit) {
+        array = withoutPair(i);
+        return this;
+      }
+      return new CollisionNode(edit, hash, withoutPair(i));
+    }
+  }
+
+  // depth-first walk over the node arrays, without recursion
+  private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+    private final Object[][] arrays = new Object[MAX_DEPTH][];
+    private final int[] positions = new int[MAX_DEPTH];
+    private int depth = -1;
+    private final int expectedModCount = modCount;
+    private int remaining = size;
+
+    EntryIterator() {
+      if (root != null) {
+        depth = 0;
+        arrays[0] = root.array;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map.Entry<K, V> next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      while (true) {
+        Object[] array = arrays[depth];
+        int pos = positions[depth];
+        if (pos == array.length) {
+          --depth;
+          continue;
+        }
+        positions[depth] = pos + 2;
+        if (array[pos] == null) {
+          ++depth;
+          arrays[depth] = ((TrieNode) array[pos + 1]).array;
+          positions[depth] = 0;
+          continue;
+        }
+        --remaining;
+        return new AbstractMap.SimpleImmutableEntry<>(
+            (K) array[pos], (V) array[pos + 1]);
+      }
+    }
+  }
+
+}
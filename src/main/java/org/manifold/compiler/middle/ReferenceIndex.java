@@ -0,0 +1,125 @@
+package org.manifold.compiler.middle;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.manifold.compiler.ArrayValue;
+import org.manifold.compiler.Attributes;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.InferredValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.Value;
+
+/**
+ * For every node, connection and constraint that the attribute values of
+ * other instances refer to, the instances referring to it. A reference to
+ * a port counts as a reference to its node.
+ *
+ * The Schematic keeps this index up to date as instances come and go, so
+ * that it can refuse to remove an instance that is still referred to, and
+ * re-hash the instances that referred to one before it was added. Like the
+ * schematic's tables, the index is persistent, so snapshots share it.
+ */
+class ReferenceIndex {
+
+  private final HashTrieMap<Value, HashTrieMap<Value, Boolean>> referrers;
+
+  ReferenceIndex() {
+    this.referrers = new HashTrieMap<>();
+  }
+
+  ReferenceIndex(ReferenceIndex source) {
+    this.referrers = source.referrers.snapshot();
+  }
+
+  /**
+   * Index the references made by the attributes of the given instance.
+   */
+  void add(Value instance) {
+    forEachReference(instance, target -> {
+        HashTrieMap<Value, Boolean> refs = referrers.get(target);
+        if (refs == null) {
+          refs = new HashTrieMap<>();
+        }
+        if (!refs.containsKey(instance)) {
+          referrers.put(target, refs.plus(instance, Boolean.TRUE));
+        }
+      });
+  }
+
+  void remove(Value instance) {
+    forEachReference(instance, target -> {
+        HashTrieMap<Value, Boolean> refs = referrers.get(target);
+        if (refs == null || !refs.containsKey(instance)) {
+          return;
+        }
+        refs = refs.minus(instance);
+        if (refs.isEmpty()) {
+          referrers.remove(target);
+        } else {
+          referrers.put(target, refs);
+        }
+      });
+  }
+
+  /**
+   * @return the instances whose attributes refer to the given one, as they
+   * are now
+   */
+  Set<Value> getReferrers(Value instance) {
+    HashTrieMap<Value, Boolean> refs = referrers.get(instance);
+    if (refs == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(refs.keySet());
+  }
+
+  /**
+   * Call the action for every node, connection and constraint referred to
+   * by the attribute values of the given node (including its ports),
+   * connection or constraint.
+   */
+  static void forEachReference(Value instance, Consumer<Value> action) {
+    if (instance instanceof NodeValue) {
+      NodeValue node = (NodeValue) instance;
+      forEachReference(node.getAttributes(), action);
+      for (int slot = 0; slot < node.getPortCount(); ++slot) {
+        forEachReference(node.getPortAttributes(slot), action);
+      }
+    } else if (instance instanceof ConnectionValue) {
+      forEachReference(((ConnectionValue) instance).getAttributes(), action);
+    } else if (instance instanceof ConstraintValue) {
+      forEachReference(((ConstraintValue) instance).getAttributes(), action);
+    }
+  }
+
+  private static void forEachReference(Attributes attributes,
+      Consumer<Value> action) {
+    for (Value value : attributes.getAll().values()) {
+      forEachReferenceIn(value, action);
+    }
+  }
+
+  private static void forEachReferenceIn(Value value,
+      Consumer<Value> action) {
+    if (value instanceof NodeValue || value instanceof ConnectionValue
+        || value instanceof ConstraintValue) {
+      action.accept(value);
+    } else if (value instanceof PortValue) {
+      action.accept(((PortValue) value).getParent());
+    } else if (value != null && value.getClass() == ArrayValue.class) {
+      // only generic arrays can hold instances; the specialized ones hold
+      // primitive values
+      ArrayValue array = (ArrayValue) value;
+      for (int i = 0; i < array.length(); ++i) {
+        forEachReferenceIn(array.get(i), action);
+      }
+    } else if (value instanceof InferredValue) {
+      forEachReferenceIn(((InferredValue) value).get(), action);
+    }
+  }
+
+}
@@ -2,28 +2,45 @@ package org.manifold.compiler.middle;
 
 import static org.manifold.compiler.middle.serialization.SerializationConsts.PrimitiveTypes.PRIMITIVE_TYPES;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.manifold.compiler.Attributes;
 import org.manifold.compiler.ConnectionValue;
 import org.manifold.compiler.ConstraintType;
 import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.DanglingReferenceException;
 import org.manifold.compiler.MultipleAssignmentException;
 import org.manifold.compiler.MultipleDefinitionException;
 import org.manifold.compiler.NodeTypeValue;
 import org.manifold.compiler.NodeValue;
 import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.TypeMismatchException;
 import org.manifold.compiler.UndeclaredIdentifierException;
 import org.manifold.compiler.UndefinedBehaviourError;
 import org.manifold.compiler.UserDefinedTypeValue;
+import org.manifold.compiler.Value;
 
-import com.google.common.collect.ImmutableMap;
 
 /**
  * A Schematic contains all the information needed by the intermediate
  * representation. This includes type definitions, node/connection definitions,
  * node/connection instantiations, and constraint definitions/instantiations.
+ *
+ * All of the tables are persistent maps, so {@link #snapshot()} can copy a
+ * schematic in constant time; the copies share their structure until one of
+ * them is changed.
  */
 public class Schematic {
   private final String name;
@@ -34,36 +51,91 @@ public class Schematic {
 
   // Maps containing object definitions for this schematic; they are all
   // indexed by the (string) type-name of the object.
-  private final Map<String, UserDefinedTypeValue> userDefinedTypes;
-  private final Map<String, PortTypeValue> portTypes;
-  private final Map<String, NodeTypeValue> nodeTypes;
-  private final Map<String, ConstraintType> constraintTypes;
+  private final HashTrieMap<String, UserDefinedTypeValue> userDefinedTypes;
+  private final HashTrieMap<String, PortTypeValue> portTypes;
+  private final HashTrieMap<String, NodeTypeValue> nodeTypes;
+  private final HashTrieMap<String, ConstraintType> constraintTypes;
 
   // Maps containing instantiated objects for this schematic; they are all
   // indexed by the (string) instance-name of the object.
-  private final Map<String, NodeValue> nodes;
-  private final Map<NodeValue, String> reverseNodeMap;
-  private final Map<String, ConnectionValue> connections;
-  private final Map<ConnectionValue, String> reverseConnectionMap;
-  private final Map<String, ConstraintValue> constraints;
-  private final Map<ConstraintValue, String> reverseConstraintMap;
+  private final HashTrieMap<String, NodeValue> nodes;
+  private final HashTrieMap<String, ConnectionValue> connections;
+  private final HashTrieMap<String, ConstraintValue> constraints;
+
+  // the names of all of the above, looked up by object
+  private final SymbolTable symbols;
+
+  private final SchematicDigest digest;
+
+  // Connections attached to each node, by either endpoint. Kept up to date
+  // as connections come and go, so that removing or replacing a node (or
+  // validating a patch that does) only looks at that node's connections.
+  // The per-node sets may be shared with snapshots, so they are only
+  // updated with plus() and minus(), never in place.
+  private final HashTrieMap<NodeValue, HashTrieMap<ConnectionValue, Boolean>>
+      attachedConnections;
+
+  // the instances referred to by attribute values of other instances
+  private final ReferenceIndex references;
+
+  // incremented by every change, so that derived structures can tell
+  // whether they are still up to date
+  private long revision = 0;
+
+  private final List<SchematicListener> listeners = new ArrayList<>();
+  private int batchDepth = 0;
+  // events buffered by the current batch, coalesced per entity
+  private final Map<SchematicSection, Map<String, SchematicEvent>>
+      pendingEvents = new EnumMap<>(SchematicSection.class);
 
   public Schematic(String name) {
     this.name = name;
+    this.digest = new SchematicDigest(this);
+    this.symbols = new SymbolTable(this);
 
-    this.userDefinedTypes = new HashMap<>();
+    this.userDefinedTypes = new HashTrieMap<>();
     populateDefaultType();
 
-    this.portTypes = new HashMap<>();
-    this.nodeTypes = new HashMap<>();
-    this.constraintTypes = new HashMap<>();
+    this.portTypes = new HashTrieMap<>();
+    this.nodeTypes = new HashTrieMap<>();
+    this.constraintTypes = new HashTrieMap<>();
+
+    this.nodes = new HashTrieMap<>();
+    this.connections = new HashTrieMap<>();
+    this.constraints = new HashTrieMap<>();
+    this.attachedConnections = new HashTrieMap<>();
+    this.references = new ReferenceIndex();
+  }
+
+  private Schematic(Schematic source) {
+    this.name = source.name;
+    this.userDefinedTypes = source.userDefinedTypes.snapshot();
+    this.portTypes = source.portTypes.snapshot();
+    this.nodeTypes = source.nodeTypes.snapshot();
+    this.constraintTypes = source.constraintTypes.snapshot();
 
-    this.nodes = new HashMap<>();
-    this.reverseNodeMap = new HashMap<>();
-    this.connections = new HashMap<>();
-    this.reverseConnectionMap = new HashMap<>();
-    this.constraints = new HashMap<>();
-    this.reverseConstraintMap = new HashMap<>();
+    this.nodes = source.nodes.snapshot();
+    this.connections = source.connections.snapshot();
+    this.constraints = source.constraints.snapshot();
+    this.symbols = new SymbolTable(this, source.symbols);
+
+    this.attachedConnections = source.attachedConnections.snapshot();
+    this.references = new ReferenceIndex(source.references);
+    this.digest = new SchematicDigest(this, source.digest);
+    this.revision = source.revision;
+  }
+
+  /**
+   * Make a copy of this schematic in constant time. The copy and the
+   * original share their tables, and each change to either of them copies
+   * only the part of a table that it touches, so that many variants of one
+   * schematic can be kept in memory at once. Listeners are not copied.
+   */
+  public Schematic snapshot() {
+    if (batchDepth > 0) {
+      throw new IllegalStateException("cannot snapshot during a batch");
+    }
+    return new Schematic(this);
   }
 
   /*
@@ -74,6 +146,7 @@ public class Schematic {
     PRIMITIVE_TYPES.forEach((name, type) -> {
         try {
           addUserDefinedType(new UserDefinedTypeValue(type, name));
+          symbols.nameBuiltinType(name, type);
         } catch (MultipleDefinitionException mde) {
           // this should not actually be possible unless there is something
           // wrong with the compiler itself
@@ -92,15 +165,26 @@ public class Schematic {
           "user-defined-type-definition", typename);
     }
     userDefinedTypes.put(typename, td);
+    symbols.declareType(typename, td);
+    digest.entityAdded(SchematicSection.USER_DEFINED_TYPES, typename, td);
+    fireEvent(ChangeKind.ADD, SchematicSection.USER_DEFINED_TYPES, typename,
+        null, td);
+  }
+
+  /**
+   * @return the user-defined type named typename, or null if there is none
+   */
+  public UserDefinedTypeValue findUserDefinedType(String typename) {
+    return userDefinedTypes.get(typename);
   }
 
   public UserDefinedTypeValue getUserDefinedType(String typename)
       throws UndeclaredIdentifierException {
-    if (userDefinedTypes.containsKey(typename)) {
-      return userDefinedTypes.get(typename);
-    } else {
+    UserDefinedTypeValue found = userDefinedTypes.get(typename);
+    if (found == null) {
       throw new UndeclaredIdentifierException(typename);
     }
+    return found;
   }
 
   public void addPortType(String typename, PortTypeValue portType)
@@ -109,15 +193,26 @@ public class Schematic {
       throw new MultipleDefinitionException("port-definition", typename);
     }
     portTypes.put(typename, portType);
+    symbols.declareType(typename, portType);
+    digest.entityAdded(SchematicSection.PORT_TYPES, typename, portType);
+    fireEvent(ChangeKind.ADD, SchematicSection.PORT_TYPES, typename, null,
+        portType);
+  }
+
+  /**
+   * @return the port type named typename, or null if there is none
+   */
+  public PortTypeValue findPortType(String typename) {
+    return portTypes.get(typename);
   }
 
   public PortTypeValue getPortType(String typename)
       throws UndeclaredIdentifierException {
-    if (portTypes.containsKey(typename)) {
-      return portTypes.get(typename);
-    } else {
+    PortTypeValue found = portTypes.get(typename);
+    if (found == null) {
       throw new UndeclaredIdentifierException(typename);
     }
+    return found;
   }
 
   public void addNodeType(String typename, NodeTypeValue nd)
@@ -126,16 +221,26 @@ public class Schematic {
       throw new MultipleDefinitionException("node-definition", typename);
     }
     nodeTypes.put(typename, nd);
+    symbols.declareType(typename, nd);
+    digest.entityAdded(SchematicSection.NODE_TYPES, typename, nd);
+    fireEvent(ChangeKind.ADD, SchematicSection.NODE_TYPES, typename, null,
+        nd);
+  }
+
+  /**
+   * @return the node type named typename, or null if there is none
+   */
+  public NodeTypeValue findNodeType(String typename) {
+    return nodeTypes.get(typename);
   }
 
   public NodeTypeValue getNodeType(String typename)
       throws UndeclaredIdentifierException {
-
-    if (nodeTypes.containsKey(typename)) {
-      return nodeTypes.get(typename);
-    } else {
+    NodeTypeValue found = nodeTypes.get(typename);
+    if (found == null) {
       throw new UndeclaredIdentifierException(typename);
     }
+    return found;
   }
 
   public void addConstraintType(String typename, ConstraintType cd)
@@ -144,118 +249,825 @@ public class Schematic {
       throw new MultipleDefinitionException("constraint-definition", typename);
     }
     constraintTypes.put(typename, cd);
+    symbols.declareType(typename, cd);
+    digest.entityAdded(SchematicSection.CONSTRAINT_TYPES, typename, cd);
+    fireEvent(ChangeKind.ADD, SchematicSection.CONSTRAINT_TYPES, typename,
+        null, cd);
+  }
+
+  /**
+   * @return the constraint type named typename, or null if there is none
+   */
+  public ConstraintType findConstraintType(String typename) {
+    return constraintTypes.get(typename);
   }
 
   public ConstraintType getConstraintType(String typename)
       throws UndeclaredIdentifierException {
-    if (constraintTypes.containsKey(typename)) {
-      return constraintTypes.get(typename);
-    } else {
+    ConstraintType found = constraintTypes.get(typename);
+    if (found == null) {
       throw new UndeclaredIdentifierException(typename);
     }
+    return found;
   }
 
   public void addNode(String instanceName, NodeValue node)
       throws MultipleAssignmentException {
-    if (nodes.containsKey(instanceName) || reverseNodeMap.containsKey(node)) {
+    if (nodes.containsKey(instanceName) || symbols.contains(node)) {
       throw new MultipleAssignmentException("node", instanceName);
     }
+    bindNode(instanceName, node);
+  }
+
+  /**
+   * Add many nodes at once. The whole map is checked before any node is
+   * added, so if an exception is thrown the schematic is left unchanged;
+   * listeners receive the additions as one batch.
+   */
+  public void addNodes(Map<String, NodeValue> newNodes)
+      throws MultipleAssignmentException {
+    Set<NodeValue> seen = new HashSet<>();
+    for (Map.Entry<String, NodeValue> entry : newNodes.entrySet()) {
+      if (nodes.containsKey(entry.getKey())
+          || symbols.contains(entry.getValue())
+          || !seen.add(entry.getValue())) {
+        throw new MultipleAssignmentException("node", entry.getKey());
+      }
+    }
+    beginBatch();
+    try {
+      newNodes.forEach(this::bindNode);
+    } finally {
+      endBatch();
+    }
+  }
+
+  private void bindNode(String instanceName, NodeValue node) {
+    List<Value> referrers = unhashReferrers(node);
     nodes.put(instanceName, node);
-    reverseNodeMap.put(node, instanceName);
+    symbols.declareNode(instanceName, node);
+    references.add(node);
+    digest.entityAdded(SchematicSection.NODES, instanceName, node);
+    rehashReferrers(referrers);
+    fireEvent(ChangeKind.ADD, SchematicSection.NODES, instanceName, null,
+        node);
+  }
+
+  /**
+   * @return the node named instanceName, or null if there is none
+   */
+  public NodeValue findNode(String instanceName) {
+    return nodes.get(instanceName);
   }
 
   public NodeValue getNode(String instanceName)
       throws UndeclaredIdentifierException {
-    if (nodes.containsKey(instanceName)) {
-      return nodes.get(instanceName);
-    } else {
+    NodeValue found = nodes.get(instanceName);
+    if (found == null) {
       throw new UndeclaredIdentifierException(instanceName);
     }
+    return found;
+  }
+
+  /**
+   * @return the name of the given node, or null if it is not part of
+   * this schematic
+   */
+  public String findNodeName(NodeValue instance) {
+    return symbols.getName(instance);
   }
 
   public String getNodeName(NodeValue instance) {
-    if (reverseNodeMap.containsKey(instance)) {
-      return reverseNodeMap.get(instance);
+    String name = symbols.getName(instance);
+    if (name == null) {
+      throw new NoSuchElementException();
     }
-    throw new NoSuchElementException();
+    return name;
   }
 
   public void addConnection(String instanceName, ConnectionValue conn)
       throws MultipleAssignmentException {
-    if (connections.containsKey(instanceName)) {
+    if (connections.containsKey(instanceName) || symbols.contains(conn)) {
       throw new MultipleAssignmentException("connection", instanceName);
     }
+    bindConnection(instanceName, conn);
+  }
+
+  /**
+   * Add many connections at once; see {@link #addNodes(Map)}.
+   */
+  public void addConnections(Map<String, ConnectionValue> newConnections)
+      throws MultipleAssignmentException {
+    Set<ConnectionValue> seen = new HashSet<>();
+    for (Map.Entry<String, ConnectionValue> entry : newConnections.entrySet()) {
+      if (connections.containsKey(entry.getKey())
+          || symbols.contains(entry.getValue())
+          || !seen.add(entry.getValue())) {
+        throw new MultipleAssignmentException("connection", entry.getKey());
+      }
+    }
+    beginBatch();
+    try {
+      newConnections.forEach(this::bindConnection);
+    } finally {
+      endBatch();
+    }
+  }
+
+  private void bindConnection(String instanceName, ConnectionValue conn) {
+    List<Value> referrers = unhashReferrers(conn);
     connections.put(instanceName, conn);
-    reverseConnectionMap.put(conn, instanceName);
+    symbols.declareInstance(instanceName, conn);
+    attach(conn);
+    references.add(conn);
+    digest.entityAdded(SchematicSection.CONNECTIONS, instanceName, conn);
+    rehashReferrers(referrers);
+    fireEvent(ChangeKind.ADD, SchematicSection.CONNECTIONS, instanceName,
+        null, conn);
+  }
+
+  /**
+   * @return the connection named instanceName, or null if there is none
+   */
+  public ConnectionValue findConnection(String instanceName) {
+    return connections.get(instanceName);
   }
 
   public ConnectionValue getConnection(String instanceName)
       throws UndeclaredIdentifierException {
-    if (connections.containsKey(instanceName)) {
-      return connections.get(instanceName);
-    } else {
+    ConnectionValue found = connections.get(instanceName);
+    if (found == null) {
       throw new UndeclaredIdentifierException(instanceName);
     }
+    return found;
+  }
+
+  /**
+   * @return the name of the given connection, or null if it is not part of
+   * this schematic
+   */
+  public String findConnectionName(ConnectionValue instance) {
+    return symbols.getName(instance);
   }
 
   public String getConnectionName(ConnectionValue instance) {
-    if (reverseConnectionMap.containsKey(instance)) {
-      return reverseConnectionMap.get(instance);
+    String name = symbols.getName(instance);
+    if (name == null) {
+      throw new NoSuchElementException();
     }
-    throw new NoSuchElementException();
+    return name;
   }
 
   public void addConstraint(String instanceName, ConstraintValue constraint)
       throws MultipleAssignmentException {
-    if (constraints.containsKey(instanceName)) {
+    if (constraints.containsKey(instanceName) || symbols.contains(constraint)) {
       throw new MultipleAssignmentException("constraint", instanceName);
     }
+    bindConstraint(instanceName, constraint);
+  }
+
+  /**
+   * Add many constraints at once; see {@link #addNodes(Map)}.
+   */
+  public void addConstraints(Map<String, ConstraintValue> newConstraints)
+      throws MultipleAssignmentException {
+    Set<ConstraintValue> seen = new HashSet<>();
+    for (Map.Entry<String, ConstraintValue> entry : newConstraints.entrySet()) {
+      if (constraints.containsKey(entry.getKey())
+          || symbols.contains(entry.getValue())
+          || !seen.add(entry.getValue())) {
+        throw new MultipleAssignmentException("constraint", entry.getKey());
+      }
+    }
+    beginBatch();
+    try {
+      newConstraints.forEach(this::bindConstraint);
+    } finally {
+      endBatch();
+    }
+  }
+
+  private void bindConstraint(String instanceName,
+      ConstraintValue constraint) {
+    List<Value> referrers = unhashReferrers(constraint);
     constraints.put(instanceName, constraint);
-    reverseConstraintMap.put(constraint, instanceName);
+    symbols.declareInstance(instanceName, constraint);
+    references.add(constraint);
+    digest.entityAdded(SchematicSection.CONSTRAINTS, instanceName,
+        constraint);
+    rehashReferrers(referrers);
+    fireEvent(ChangeKind.ADD, SchematicSection.CONSTRAINTS, instanceName,
+        null, constraint);
+  }
+
+  /**
+   * @return the constraint named instanceName, or null if there is none
+   */
+  public ConstraintValue findConstraint(String instanceName) {
+    return constraints.get(instanceName);
   }
 
   public ConstraintValue getConstraint(String instanceName)
       throws UndeclaredIdentifierException {
-    if (constraints.containsKey(instanceName)) {
-      return constraints.get(instanceName);
-    } else {
+    ConstraintValue found = constraints.get(instanceName);
+    if (found == null) {
       throw new UndeclaredIdentifierException(instanceName);
     }
+    return found;
+  }
+
+  /**
+   * @return the name of the given constraint, or null if it is not part of
+   * this schematic
+   */
+  public String findConstraintName(ConstraintValue instance) {
+    return symbols.getName(instance);
   }
 
   public String getConstraintName(ConstraintValue instance) {
-    if (reverseConstraintMap.containsKey(instance)) {
-      return reverseConstraintMap.get(instance);
+    String name = symbols.getName(instance);
+    if (name == null) {
+      throw new NoSuchElementException();
+    }
+    return name;
+  }
+
+  /**
+   * Remove a node, together with every connection attached to one of its
+   * ports. Listeners receive all of the removals as one batch. If any other
+   * instance refers to the node or one of those connections, a
+   * DanglingReferenceException is thrown before anything is changed.
+   */
+  public void removeNode(String instanceName)
+      throws UndeclaredIdentifierException, DanglingReferenceException {
+    NodeValue node = getNode(instanceName);
+    // copy, since removing connections modifies the index
+    List<ConnectionValue> attached =
+        new ArrayList<>(getAttachedConnections(node));
+    Set<Value> leaving = new HashSet<>(attached);
+    leaving.add(node);
+    checkUnreferenced(leaving);
+    beginBatch();
+    try {
+      // everything leaves the digest while it is all still bound, since
+      // the node and its connections may refer to each other
+      for (ConnectionValue conn : attached) {
+        digest.entityRemoved(SchematicSection.CONNECTIONS,
+            getConnectionName(conn), conn);
+      }
+      digest.entityRemoved(SchematicSection.NODES, instanceName, node);
+      for (ConnectionValue conn : attached) {
+        unbindConnection(getConnectionName(conn), conn);
+      }
+      nodes.remove(instanceName);
+      symbols.undeclareNode(node);
+      attachedConnections.remove(node);
+      references.remove(node);
+      fireEvent(ChangeKind.REMOVE, SchematicSection.NODES, instanceName,
+          node, null);
+    } finally {
+      endBatch();
+    }
+  }
+
+  /**
+   * Bind a name to a different node. Connections attached to the old node
+   * are replaced by connections (with the same names and attributes) to the
+   * ports of the same name on the new node. If the new node lacks one of
+   * those ports, a rewired connection would not type-check, or another
+   * instance (or the new node, or a rewired connection) refers to the old
+   * node or one of the replaced connections, an exception is thrown before
+   * anything is changed.
+   */
+  public void replaceNode(String instanceName, NodeValue node)
+      throws UndeclaredIdentifierException, MultipleAssignmentException,
+      TypeMismatchException, DanglingReferenceException {
+    NodeValue old = getNode(instanceName);
+    if (old == node) {
+      return;
+    }
+    if (symbols.contains(node)) {
+      throw new MultipleAssignmentException("node", instanceName);
     }
-    throw new NoSuchElementException();
+    Map<String, ConnectionValue> oldConnections = new LinkedHashMap<>();
+    Map<String, ConnectionValue> rewired = new LinkedHashMap<>();
+    for (ConnectionValue conn : getAttachedConnections(old)) {
+      String connName = getConnectionName(conn);
+      oldConnections.put(connName, conn);
+      rewired.put(connName, new ConnectionValue(
+          rewire(conn.getFrom(), old, node),
+          rewire(conn.getTo(), old, node),
+          conn.getAttributes().getAll()));
+    }
+    Set<Value> leaving = new HashSet<>(oldConnections.values());
+    leaving.add(old);
+    checkUnreferenced(leaving);
+    checkNotReferring(instanceName, node, leaving);
+    for (Map.Entry<String, ConnectionValue> entry : rewired.entrySet()) {
+      checkNotReferring(entry.getKey(), entry.getValue(), leaving);
+    }
+
+    beginBatch();
+    try {
+      // Connections are hashed by the names of the nodes they attach to, so
+      // they must leave the digest while the old node is still bound and
+      // re-enter it once the new one is.
+      for (Map.Entry<String, ConnectionValue> entry
+          : oldConnections.entrySet()) {
+        digest.entityRemoved(SchematicSection.CONNECTIONS, entry.getKey(),
+            entry.getValue());
+      }
+      digest.entityRemoved(SchematicSection.NODES, instanceName, old);
+      List<Value> referrers = unhashReferrers(node, leaving);
+      nodes.put(instanceName, node);
+      symbols.undeclareNode(old);
+      symbols.declareNode(instanceName, node);
+      references.remove(old);
+      references.add(node);
+      digest.entityAdded(SchematicSection.NODES, instanceName, node);
+      rehashReferrers(referrers);
+      fireEvent(ChangeKind.REPLACE, SchematicSection.NODES, instanceName,
+          old, node);
+      for (Map.Entry<String, ConnectionValue> entry : rewired.entrySet()) {
+        String connName = entry.getKey();
+        ConnectionValue oldConn = oldConnections.get(connName);
+        rebindConnection(connName, oldConn, entry.getValue());
+        digest.entityAdded(SchematicSection.CONNECTIONS, connName,
+            entry.getValue());
+        fireEvent(ChangeKind.REPLACE, SchematicSection.CONNECTIONS,
+            connName, oldConn, entry.getValue());
+      }
+    } finally {
+      endBatch();
+    }
+  }
+
+  private static PortValue rewire(PortValue port, NodeValue oldNode,
+      NodeValue newNode) throws UndeclaredIdentifierException {
+    if (port.getParent() != oldNode) {
+      return port;
+    }
+    String portName = oldNode.getPortName(port);
+    if (portName == null) {
+      throw new UndefinedBehaviourError(
+          "port is not one of its parent's ports");
+    }
+    return newNode.getPort(portName);
+  }
+
+  /**
+   * Remove a connection; if another instance refers to it, a
+   * DanglingReferenceException is thrown instead.
+   */
+  public void removeConnection(String instanceName)
+      throws UndeclaredIdentifierException, DanglingReferenceException {
+    ConnectionValue conn = getConnection(instanceName);
+    checkUnreferenced(Collections.singleton(conn));
+    digest.entityRemoved(SchematicSection.CONNECTIONS, instanceName, conn);
+    unbindConnection(instanceName, conn);
+  }
+
+  private void unbindConnection(String instanceName, ConnectionValue conn) {
+    connections.remove(instanceName);
+    symbols.undeclareInstance(conn);
+    detach(conn);
+    references.remove(conn);
+    fireEvent(ChangeKind.REMOVE, SchematicSection.CONNECTIONS, instanceName,
+        conn, null);
   }
 
+  public void replaceConnection(String instanceName, ConnectionValue conn)
+      throws UndeclaredIdentifierException, DanglingReferenceException {
+    ConnectionValue old = getConnection(instanceName);
+    if (old == conn) {
+      return;
+    }
+    Set<Value> leaving = Collections.singleton(old);
+    checkUnreferenced(leaving);
+    checkNotReferring(instanceName, conn, leaving);
+    digest.entityRemoved(SchematicSection.CONNECTIONS, instanceName, old);
+    List<Value> referrers = unhashReferrers(conn, leaving);
+    rebindConnection(instanceName, old, conn);
+    digest.entityAdded(SchematicSection.CONNECTIONS, instanceName, conn);
+    rehashReferrers(referrers);
+    fireEvent(ChangeKind.REPLACE, SchematicSection.CONNECTIONS, instanceName,
+        old, conn);
+  }
+
+  private void rebindConnection(String instanceName, ConnectionValue old,
+      ConnectionValue conn) {
+    connections.put(instanceName, conn);
+    symbols.undeclareInstance(old);
+    symbols.declareInstance(instanceName, conn);
+    detach(old);
+    attach(conn);
+    references.remove(old);
+    references.add(conn);
+  }
+
+  /**
+   * Remove a constraint; if another instance refers to it, a
+   * DanglingReferenceException is thrown instead.
+   */
+  public void removeConstraint(String instanceName)
+      throws UndeclaredIdentifierException, DanglingReferenceException {
+    ConstraintValue constraint = getConstraint(instanceName);
+    checkUnreferenced(Collections.singleton(constraint));
+    digest.entityRemoved(SchematicSection.CONSTRAINTS, instanceName,
+        constraint);
+    constraints.remove(instanceName);
+    symbols.undeclareInstance(constraint);
+    references.remove(constraint);
+    fireEvent(ChangeKind.REMOVE, SchematicSection.CONSTRAINTS, instanceName,
+        constraint, null);
+  }
+
+  public void replaceConstraint(String instanceName,
+      ConstraintValue constraint)
+      throws UndeclaredIdentifierException, DanglingReferenceException {
+    ConstraintValue old = getConstraint(instanceName);
+    if (old == constraint) {
+      return;
+    }
+    Set<Value> leaving = Collections.singleton(old);
+    checkUnreferenced(leaving);
+    checkNotReferring(instanceName, constraint, leaving);
+    digest.entityRemoved(SchematicSection.CONSTRAINTS, instanceName, old);
+    List<Value> referrers = unhashReferrers(constraint, leaving);
+    constraints.put(instanceName, constraint);
+    symbols.undeclareInstance(old);
+    symbols.declareInstance(instanceName, constraint);
+    references.remove(old);
+    references.add(constraint);
+    digest.entityAdded(SchematicSection.CONSTRAINTS, instanceName,
+        constraint);
+    rehashReferrers(referrers);
+    fireEvent(ChangeKind.REPLACE, SchematicSection.CONSTRAINTS, instanceName,
+        old, constraint);
+  }
+
+  boolean isBound(NodeValue node) {
+    return symbols.contains(node);
+  }
+
+  // the nodes, connections and constraints whose attribute values refer to
+  // the given instance (or, for a node, to one of its ports)
+  Set<Value> getReferrers(Value instance) {
+    return references.getReferrers(instance);
+  }
+
+  /*
+   * Instances may only leave the schematic together with every instance
+   * referring to them; otherwise the references would dangle.
+   */
+  private void checkUnreferenced(Set<Value> leaving)
+      throws DanglingReferenceException {
+    for (Value instance : leaving) {
+      for (Value referrer : references.getReferrers(instance)) {
+        if (!leaving.contains(referrer)) {
+          throw new DanglingReferenceException(symbols.getName(instance),
+              symbols.getName(referrer));
+        }
+      }
+    }
+  }
+
+  // an instance entering the schematic may not refer to one leaving it
+  private void checkNotReferring(String referrerName, Value referrer,
+      Set<Value> leaving) throws DanglingReferenceException {
+    List<Value> targets = new ArrayList<>();
+    ReferenceIndex.forEachReference(referrer, targets::add);
+    for (Value target : targets) {
+      if (leaving.contains(target)) {
+        throw new DanglingReferenceException(symbols.getName(target),
+            referrerName);
+      }
+    }
+  }
+
+  /*
+   * An instance that refers to another one that is not bound hashes the
+   * reference as unbound (see EntityHasher). When the other one is bound,
+   * its referrers must therefore leave the digest before, and re-enter it
+   * after.
+   */
+  private List<Value> unhashReferrers(Value instance) {
+    return unhashReferrers(instance, Collections.emptySet());
+  }
+
+  // as above, but for an instance replacing others, which have left the
+  // digest already
+  private List<Value> unhashReferrers(Value instance, Set<Value> leaving) {
+    List<Value> referrers = new ArrayList<>();
+    for (Value referrer : references.getReferrers(instance)) {
+      if (!leaving.contains(referrer)) {
+        referrers.add(referrer);
+      }
+    }
+    for (Value referrer : referrers) {
+      digest.entityRemoved(sectionOf(referrer), symbols.getName(referrer),
+          referrer);
+    }
+    return referrers;
+  }
+
+  private void rehashReferrers(List<Value> referrers) {
+    for (Value referrer : referrers) {
+      digest.entityAdded(sectionOf(referrer), symbols.getName(referrer),
+          referrer);
+    }
+  }
+
+  static SchematicSection sectionOf(Value instance) {
+    if (instance instanceof NodeValue) {
+      return SchematicSection.NODES;
+    } else if (instance instanceof ConnectionValue) {
+      return SchematicSection.CONNECTIONS;
+    }
+    return SchematicSection.CONSTRAINTS;
+  }
+
+  /**
+   * @return the connections that have an endpoint on one of the ports of
+   * the given node, as they are now; the collection does not change along
+   * with the schematic. The connections are looked up in an index kept
+   * by the schematic, so this takes time proportional to their number.
+   */
+  public Collection<ConnectionValue> getAttachedConnections(NodeValue node) {
+    HashTrieMap<ConnectionValue, Boolean> attached =
+        attachedConnections.get(node);
+    if (attached == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(attached.keySet());
+  }
+
+  private void attach(ConnectionValue conn) {
+    attach(conn.getFrom().getParent(), conn);
+    attach(conn.getTo().getParent(), conn);
+  }
+
+  private void attach(NodeValue node, ConnectionValue conn) {
+    HashTrieMap<ConnectionValue, Boolean> attached =
+        attachedConnections.get(node);
+    if (attached == null) {
+      attached = new HashTrieMap<>();
+    }
+    attachedConnections.put(node, attached.plus(conn, Boolean.TRUE));
+  }
+
+  private void detach(ConnectionValue conn) {
+    detach(conn.getFrom().getParent(), conn);
+    detach(conn.getTo().getParent(), conn);
+  }
+
+  private void detach(NodeValue node, ConnectionValue conn) {
+    HashTrieMap<ConnectionValue, Boolean> attached =
+        attachedConnections.get(node);
+    if (attached == null) {
+      return;
+    }
+    attached = attached.minus(conn);
+    if (attached.isEmpty()) {
+      attachedConnections.remove(node);
+    } else {
+      attachedConnections.put(node, attached);
+    }
+  }
+
+  public void addListener(SchematicListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(SchematicListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Start buffering change events; listeners receive the (coalesced) events
+   * when the matching call to {@link #endBatch()} is made. Batches nest, and
+   * only the outermost batch delivers events.
+   */
+  public void beginBatch() {
+    ++batchDepth;
+  }
+
+  public void endBatch() {
+    if (batchDepth == 0) {
+      throw new IllegalStateException("endBatch() without beginBatch()");
+    }
+    if (--batchDepth > 0 || pendingEvents.isEmpty()) {
+      return;
+    }
+    // removals first and in reverse section order, so that uses go before
+    // their definitions; then everything else in section order, so that
+    // definitions arrive before their uses
+    List<SchematicEvent> events = new ArrayList<>();
+    List<SchematicSection> sections = new ArrayList<>(pendingEvents.keySet());
+    for (int i = sections.size() - 1; i >= 0; --i) {
+      for (SchematicEvent event : pendingEvents.get(sections.get(i)).values()) {
+        if (event.getKind() == ChangeKind.REMOVE) {
+          events.add(event);
+        }
+      }
+    }
+    for (Map<String, SchematicEvent> sectionEvents : pendingEvents.values()) {
+      for (SchematicEvent event : sectionEvents.values()) {
+        if (event.getKind() != ChangeKind.REMOVE) {
+          events.add(event);
+        }
+      }
+    }
+    pendingEvents.clear();
+    if (!events.isEmpty()) {
+      notifyListeners(Collections.unmodifiableList(events));
+    }
+  }
+
+  private void fireEvent(ChangeKind kind, SchematicSection section,
+      String name, Value oldValue, Value newValue) {
+    ++revision;
+    if (listeners.isEmpty()) {
+      return;
+    }
+    SchematicEvent event =
+        new SchematicEvent(kind, section, name, oldValue, newValue);
+    if (batchDepth == 0) {
+      notifyListeners(Collections.singletonList(event));
+      return;
+    }
+    Map<String, SchematicEvent> sectionEvents = pendingEvents
+        .computeIfAbsent(section, (s) -> new LinkedHashMap<>());
+    SchematicEvent earlier = sectionEvents.get(name);
+    if (earlier == null) {
+      sectionEvents.put(name, event);
+    } else {
+      SchematicEvent combined = earlier.coalesce(event);
+      if (combined == null) {
+        sectionEvents.remove(name);
+      } else {
+        sectionEvents.put(name, combined);
+      }
+    }
+  }
+
+  private void notifyListeners(List<SchematicEvent> events) {
+    // copy, so that listeners may (un)register themselves
+    for (SchematicListener listener : new ArrayList<>(listeners)) {
+      listener.schematicChanged(this, events);
+    }
+  }
+
+  /**
+   * @return a number that changes whenever an entity is added, removed, or
+   * replaced
+   */
+  public long getRevision() {
+    return revision;
+  }
+
+  /**
+   * @return the structural digest of this schematic, which is kept up to
+   * date as entities are added
+   */
+  public SchematicDigest getDigest() {
+    return digest;
+  }
+
+  /**
+   * @return the names of everything declared in this schematic, which are
+   * kept up to date as it changes
+   */
+  public SymbolTable getSymbolTable() {
+    return symbols;
+  }
+
+  // live (uncopied) view of one section, for use within this package
+  Map<String, ? extends Value> getSectionMap(SchematicSection section) {
+    switch (section) {
+    case USER_DEFINED_TYPES:
+      return userDefinedTypes;
+    case PORT_TYPES:
+      return portTypes;
+    case NODE_TYPES:
+      return nodeTypes;
+    case CONSTRAINT_TYPES:
+      return constraintTypes;
+    case NODES:
+      return nodes;
+    case CONNECTIONS:
+      return connections;
+    case CONSTRAINTS:
+      return constraints;
+    default:
+      throw new UndefinedBehaviourError("unknown schematic section "
+          + section);
+    }
+  }
+
+  /**
+   * @return the number of attributes of nodes (and their ports),
+   * connections and constraints whose values are not runtime-knowable
+   */
+  public long countNonRuntimeKnowableAttributes() {
+    long count = nodes.snapshot().values().parallelStream()
+        .mapToLong(node -> {
+            long n = countNonRuntimeKnowable(node.getAttributes());
+            for (int slot = 0; slot < node.getPortCount(); ++slot) {
+              n += countNonRuntimeKnowable(node.getPortAttributes(slot));
+            }
+            return n;
+          })
+        .sum();
+    count += connections.snapshot().values().parallelStream()
+        .mapToLong(conn -> countNonRuntimeKnowable(conn.getAttributes()))
+        .sum();
+    count += constraints.snapshot().values().parallelStream()
+        .mapToLong(c -> countNonRuntimeKnowable(c.getAttributes()))
+        .sum();
+    return count;
+  }
+
+  /**
+   * @return the attributes counted by
+   * {@link #countNonRuntimeKnowableAttributes()}, each as the name of its
+   * instance (or "node:port" for port attributes), a '.' and its own name,
+   * in no particular order
+   */
+  public List<String> findNonRuntimeKnowableAttributes() {
+    Stream<String> nodeAttrs = nodes.snapshot().entrySet().parallelStream()
+        .flatMap(entry -> {
+            NodeValue node = entry.getValue();
+            NodeTypeValue type = (NodeTypeValue) node.getType();
+            Stream<String> attrs = nonRuntimeKnowable(entry.getKey(),
+                node.getAttributes());
+            for (int slot = 0; slot < node.getPortCount(); ++slot) {
+              attrs = Stream.concat(attrs, nonRuntimeKnowable(
+                  entry.getKey() + ":" + type.getPortName(slot),
+                  node.getPortAttributes(slot)));
+            }
+            return attrs;
+          });
+    Stream<String> connectionAttrs = connections.snapshot().entrySet()
+        .parallelStream()
+        .flatMap(entry -> nonRuntimeKnowable(entry.getKey(),
+            entry.getValue().getAttributes()));
+    Stream<String> constraintAttrs = constraints.snapshot().entrySet()
+        .parallelStream()
+        .flatMap(entry -> nonRuntimeKnowable(entry.getKey(),
+            entry.getValue().getAttributes()));
+    return Stream.concat(Stream.concat(nodeAttrs, connectionAttrs),
+        constraintAttrs).collect(Collectors.toList());
+  }
+
+  private static long countNonRuntimeKnowable(Attributes attributes) {
+    long n = 0;
+    for (Value value : attributes.getAll().values()) {
+      if (!value.isRuntimeKnowable()) {
+        ++n;
+      }
+    }
+    return n;
+  }
+
+  private static Stream<String> nonRuntimeKnowable(String instanceName,
+      Attributes attributes) {
+    return attributes.getAll().entrySet().stream()
+        .filter(entry -> !entry.getValue().isRuntimeKnowable())
+        .map(entry -> instanceName + "." + entry.getKey());
+  }
+
+  // The maps returned below are read-only views of the schematic's tables,
+  // so they change along with it; copy them, or take a snapshot() of the
+  // schematic, to keep them as they are. (Snapshotting a table on every read
+  // would make the next change to it copy part of the trie.)
+
   public Map<String, UserDefinedTypeValue> getUserDefinedTypes() {
-    return ImmutableMap.copyOf(userDefinedTypes);
+    return Collections.unmodifiableMap(userDefinedTypes);
   }
 
   public Map<String, PortTypeValue> getPortTypes() {
-    return ImmutableMap.copyOf(portTypes);
+    return Collections.unmodifiableMap(portTypes);
   }
 
   public Map<String, NodeTypeValue> getNodeTypes() {
-    return ImmutableMap.copyOf(nodeTypes);
+    return Collections.unmodifiableMap(nodeTypes);
   }
 
   public Map<String, ConstraintType> getConstraintTypes() {
-    return ImmutableMap.copyOf(constraintTypes);
+    return Collections.unmodifiableMap(constraintTypes);
   }
 
   public Map<String, NodeValue> getNodes() {
-    return ImmutableMap.copyOf(nodes);
+    return Collections.unmodifiableMap(nodes);
   }
 
   public Map<String, ConnectionValue> getConnections() {
-    return ImmutableMap.copyOf(connections);
+    return Collections.unmodifiableMap(connections);
   }
 
   public Map<String, ConstraintValue> getConstraints() {
-    return ImmutableMap.copyOf(constraints);
+    return Collections.unmodifiableMap(constraints);
   }
 
 }
@@ -0,0 +1,327 @@
+package org.manifold.compiler.middle;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.manifold.compiler.Attributes;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.TypeValue;
+import org.manifold.compiler.Value;
+
+/**
+ * The differences between two revisions of a Schematic, reported per section
+ * as added, removed and changed entities. Changed entities carry the names
+ * of the attributes (and ports) that differ.
+ *
+ * Entities are matched by name and compared by their structural hash, so a
+ * diff takes time proportional to the size of the schematics rather than
+ * their serialized form; sections whose digests match are skipped entirely.
+ */
+public class SchematicDiff {
+
+  /**
+   * The attribute-level differences of a single entity that exists in both
+   * revisions.
+   */
+  public static class EntityChange {
+    private final String name;
+    private final Set<String> changedAttributes = new TreeSet<>();
+    private final Map<String, Set<String>> changedPorts = new TreeMap<>();
+    private boolean typeChanged = false;
+    private boolean endpointChanged = false;
+
+    EntityChange(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the names of attributes that were added, removed, or changed
+     * in value (or in type, for type definitions)
+     */
+    public Set<String> getChangedAttributes() {
+      return Collections.unmodifiableSet(changedAttributes);
+    }
+
+    /**
+     * @return for nodes, the changed attributes of every port that differs;
+     * for node types, the ports that were added, removed or retyped (with no
+     * attribute detail)
+     */
+    public Map<String, Set<String>> getChangedPorts() {
+      return Collections.unmodifiableMap(changedPorts);
+    }
+
+    /**
+     * @return true if an instance now has a different type, or a type
+     * definition has a different supertype or signal type
+     */
+    public boolean isTypeChanged() {
+      return typeChanged;
+    }
+
+    /**
+     * @return true if a connection now connects different ports
+     */
+    public boolean isEndpointChanged() {
+      return endpointChanged;
+    }
+
+    @Override
+    public String toString() {
+      return name + "{attributes=" + changedAttributes + ", ports="
+          + changedPorts + ", typeChanged=" + typeChanged
+          + ", endpointChanged=" + endpointChanged + "}";
+    }
+  }
+
+  private final Map<SchematicSection, Set<String>> added =
+      new EnumMap<>(SchematicSection.class);
+  private final Map<SchematicSection, Set<String>> removed =
+      new EnumMap<>(SchematicSection.class);
+  private final Map<SchematicSection, Map<String, EntityChange>> changed =
+      new EnumMap<>(SchematicSection.class);
+
+  private final EntityHasher beforeHasher;
+  private final EntityHasher afterHasher;
+
+  private SchematicDiff(Schematic before, Schematic after) {
+    this.beforeHasher = before.getDigest().getHasher();
+    this.afterHasher = after.getDigest().getHasher();
+    for (SchematicSection section : SchematicSection.values()) {
+      added.put(section, new TreeSet<>());
+      removed.put(section, new TreeSet<>());
+      changed.put(section, new TreeMap<>());
+    }
+  }
+
+  public static SchematicDiff compare(Schematic before, Schematic after) {
+    SchematicDiff diff = new SchematicDiff(before, after);
+    for (SchematicSection section : SchematicSection.values()) {
+      if (before.getDigest().getSectionDigest(section)
+          == after.getDigest().getSectionDigest(section)) {
+        continue;
+      }
+      diff.compareSection(section, before.getSectionMap(section),
+          after.getSectionMap(section));
+    }
+    return diff;
+  }
+
+  public boolean isEmpty() {
+    for (SchematicSection section : SchematicSection.values()) {
+      if (!isEmpty(section)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean isEmpty(SchematicSection section) {
+    return added.get(section).isEmpty() && removed.get(section).isEmpty()
+        && changed.get(section).isEmpty();
+  }
+
+  public Set<String> getAdded(SchematicSection section) {
+    return Collections.unmodifiableSet(added.get(section));
+  }
+
+  public Set<String> getRemoved(SchematicSection section) {
+    return Collections.unmodifiableSet(removed.get(section));
+  }
+
+  public Map<String, EntityChange> getChanged(SchematicSection section) {
+    return Collections.unmodifiableMap(changed.get(section));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (SchematicSection section : SchematicSection.values()) {
+      if (isEmpty(section)) {
+        continue;
+      }
+      sb.append(section).append(": added=").append(added.get(section))
+          .append(", removed=").append(removed.get(section))
+          .append(", changed=").append(changed.get(section).values())
+          .append('\n');
+    }
+    return sb.toString();
+  }
+
+  private void compareSection(SchematicSection section,
+      Map<String, ? extends Value> beforeMap,
+      Map<String, ? extends Value> afterMap) {
+    for (Map.Entry<String, ? extends Value> entry : beforeMap.entrySet()) {
+      String name = entry.getKey();
+      Value afterEntity = afterMap.get(name);
+      if (afterEntity == null) {
+        removed.get(section).add(name);
+        continue;
+      }
+      Value beforeEntity = entry.getValue();
+      if (beforeHasher.hashEntity(section, beforeEntity)
+          != afterHasher.hashEntity(section, afterEntity)) {
+        changed.get(section).put(name,
+            describeChange(section, name, beforeEntity, afterEntity));
+      }
+    }
+    if (afterMap.size() != beforeMap.size() - removed.get(section).size()) {
+      for (String name : afterMap.keySet()) {
+        if (!beforeMap.containsKey(name)) {
+          added.get(section).add(name);
+        }
+      }
+    }
+  }
+
+  private EntityChange describeChange(SchematicSection section, String name,
+      Value before, Value after) {
+    EntityChange change = new EntityChange(name);
+    switch (section) {
+    case NODES:
+      describeNodeChange(change, (NodeValue) before, (NodeValue) after);
+      break;
+    case CONNECTIONS:
+      describeConnectionChange(change, (ConnectionValue) before,
+          (ConnectionValue) after);
+      break;
+    case CONSTRAINTS:
+      change.typeChanged = beforeHasher.hashType(before.getType())
+          != afterHasher.hashType(after.getType());
+      compareAttributes(change.changedAttributes,
+          ((ConstraintValue) before).getAttributes(),
+          ((ConstraintValue) after).getAttributes());
+      break;
+    default:
+      describeTypeChange(change, (TypeValue) before, (TypeValue) after);
+      break;
+    }
+    return change;
+  }
+
+  private void describeNodeChange(EntityChange change, NodeValue before,
+      NodeValue after) {
+    change.typeChanged = beforeHasher.hashType(before.getType())
+        != afterHasher.hashType(after.getType());
+    compareAttributes(change.changedAttributes, before.getAttributes(),
+        after.getAttributes());
+
+    // ports are compared slot by slot, so that those the nodes have not
+    // created yet are not created here
+    NodeTypeValue beforeType = (NodeTypeValue) before.getType();
+    NodeTypeValue afterType = (NodeTypeValue) after.getType();
+    for (int slot = 0; slot < before.getPortCount(); ++slot) {
+      String portName = beforeType.getPortName(slot);
+      int afterSlot = afterType.getPortSlot(portName);
+      Set<String> portChanges = new TreeSet<>();
+      if (afterSlot < 0) {
+        change.changedPorts.put(portName, portChanges);
+        continue;
+      }
+      compareAttributes(portChanges, before.getPortAttributes(slot),
+          after.getPortAttributes(afterSlot));
+      if (!portChanges.isEmpty()) {
+        change.changedPorts.put(portName, portChanges);
+      }
+    }
+    for (int slot = 0; slot < after.getPortCount(); ++slot) {
+      String portName = afterType.getPortName(slot);
+      if (beforeType.getPortSlot(portName) < 0) {
+        change.changedPorts.put(portName, new TreeSet<>());
+      }
+    }
+  }
+
+  private void describeConnectionChange(EntityChange change,
+      ConnectionValue before, ConnectionValue after) {
+    // endpoints are compared by name; values referring to the same port
+    // hash equal in their respective schematics
+    change.endpointChanged =
+        beforeHasher.hashValue(before.getFrom())
+          != afterHasher.hashValue(after.getFrom())
+        || beforeHasher.hashValue(before.getTo())
+          != afterHasher.hashValue(after.getTo());
+    compareAttributes(change.changedAttributes, before.getAttributes(),
+        after.getAttributes());
+  }
+
+  private void describeTypeChange(EntityChange change, TypeValue before,
+      TypeValue after) {
+    Map<String, TypeValue> beforeAttrs = before.getAttributes();
+    Map<String, TypeValue> afterAttrs = after.getAttributes();
+    Set<String> attrNames = new HashSet<>(beforeAttrs.keySet());
+    attrNames.addAll(afterAttrs.keySet());
+    for (String attrName : attrNames) {
+      if (hashTypeOrNull(beforeHasher, beforeAttrs.get(attrName))
+          != hashTypeOrNull(afterHasher, afterAttrs.get(attrName))) {
+        change.changedAttributes.add(attrName);
+      }
+    }
+
+    if (before instanceof NodeTypeValue && after instanceof NodeTypeValue) {
+      Map<String, PortTypeValue> beforePorts =
+          ((NodeTypeValue) before).getPorts();
+      Map<String, PortTypeValue> afterPorts =
+          ((NodeTypeValue) after).getPorts();
+      Set<String> portNames = new HashSet<>(beforePorts.keySet());
+      portNames.addAll(afterPorts.keySet());
+      for (String portName : portNames) {
+        if (hashTypeOrNull(beforeHasher, beforePorts.get(portName))
+            != hashTypeOrNull(afterHasher, afterPorts.get(portName))) {
+          change.changedPorts.put(portName, Collections.emptySet());
+        }
+      }
+    }
+
+    change.typeChanged = before.getClass() != after.getClass()
+        || hashTypeOrNull(beforeHasher, before.getSupertype())
+          != hashTypeOrNull(afterHasher, after.getSupertype());
+    if (before instanceof PortTypeValue && after instanceof PortTypeValue) {
+      change.typeChanged |= beforeHasher.hashType(
+          ((PortTypeValue) before).getSignalType())
+          != afterHasher.hashType(((PortTypeValue) after).getSignalType());
+    }
+    // anything else that differs (e.g. the alias of a user-defined type)
+    // is a change to the type itself
+    if (change.changedAttributes.isEmpty()
+        && change.changedPorts.isEmpty()) {
+      change.typeChanged = true;
+    }
+  }
+
+  private static long hashTypeOrNull(EntityHasher hasher, TypeValue type) {
+    return type == null ? 0 : hasher.hashType(type);
+  }
+
+  private void compareAttributes(Set<String> changes, Attributes before,
+      Attributes after) {
+    Map<String, Value> beforeAttrs = before.getAll();
+    Map<String, Value> afterAttrs = after.getAll();
+    Map<String, Value> remaining = new HashMap<>(afterAttrs);
+    for (Map.Entry<String, Value> attr : beforeAttrs.entrySet()) {
+      Value afterValue = remaining.remove(attr.getKey());
+      if (afterValue == null) {
+        changes.add(attr.getKey());
+      } else if (beforeHasher.hashValue(attr.getValue())
+          != afterHasher.hashValue(afterValue)) {
+        changes.add(attr.getKey());
+      }
+    }
+    changes.addAll(remaining.keySet());
+  }
+
+}
@@ -0,0 +1,112 @@
+package org.manifold.compiler.middle;
+
+import java.util.Map;
+
+import org.manifold.compiler.Value;
+
+/**
+ * Merkle-style digest of a Schematic. Every named entity contributes the
+ * hash of its name and structure (see {@link EntityHasher}) to the digest of
+ * its section; the section digests are then combined into a digest of the
+ * whole schematic.
+ *
+ * Section digests are sums of entity hashes, so they do not depend on the
+ * order entities were added in and can be updated in constant time as
+ * entities come and go. A section is only hashed the first time its digest
+ * is requested; from then on the Schematic keeps it up to date on every
+ * change, so bulk loads that never ask for a digest pay nothing for it.
+ *
+ * Removing an entity subtracts its current hash. Attribute values that refer
+ * to other instances are hashed by name, so an instance's hash depends on
+ * whether the instances it refers to are bound. The Schematic keeps this
+ * consistent: instances that are still referred to cannot be removed, and
+ * the referrers of an instance are re-hashed when it is added.
+ */
+public class SchematicDigest {
+
+  private static final SchematicSection[] SECTIONS =
+      SchematicSection.values();
+
+  private final Schematic schematic;
+  private final EntityHasher hasher;
+
+  private final long[] sectionDigests = new long[SECTIONS.length];
+  private final boolean[] materialized = new boolean[SECTIONS.length];
+
+  SchematicDigest(Schematic schematic) {
+    this.schematic = schematic;
+    this.hasher = new EntityHasher(schematic);
+  }
+
+  // digest of a snapshot, which starts out equal to that of its source
+  SchematicDigest(Schematic schematic, SchematicDigest source) {
+    this(schematic);
+    System.arraycopy(source.sectionDigests, 0, sectionDigests, 0,
+        SECTIONS.length);
+    System.arraycopy(source.materialized, 0, materialized, 0,
+        SECTIONS.length);
+  }
+
+  public EntityHasher getHasher() {
+    return hasher;
+  }
+
+  /**
+   * @return the structural hash of a single named entity, not including its
+   * name
+   */
+  public long getEntityHash(SchematicSection section, String name) {
+    Value entity = schematic.getSectionMap(section).get(name);
+    if (entity == null) {
+      throw new IllegalArgumentException("no entity named '" + name
+          + "' in section " + section);
+    }
+    return hasher.hashEntity(section, entity);
+  }
+
+  public long getSectionDigest(SchematicSection section) {
+    int idx = section.ordinal();
+    if (!materialized[idx]) {
+      long digest = 0;
+      for (Map.Entry<String, ? extends Value> entry
+          : schematic.getSectionMap(section).entrySet()) {
+        digest += contribution(section, entry.getKey(), entry.getValue());
+      }
+      sectionDigests[idx] = digest;
+      materialized[idx] = true;
+    }
+    return sectionDigests[idx];
+  }
+
+  /**
+   * @return a digest of every section of the schematic; two schematics with
+   * the same digest contain the same entities under the same names
+   */
+  public long getDigest() {
+    long h = 0;
+    for (SchematicSection section : SECTIONS) {
+      h = EntityHasher.combine(h, getSectionDigest(section));
+    }
+    return EntityHasher.fmix(h);
+  }
+
+  void entityAdded(SchematicSection section, String name, Value entity) {
+    if (materialized[section.ordinal()]) {
+      sectionDigests[section.ordinal()] +=
+          contribution(section, name, entity);
+    }
+  }
+
+  void entityRemoved(SchematicSection section, String name, Value entity) {
+    if (materialized[section.ordinal()]) {
+      sectionDigests[section.ordinal()] -=
+          contribution(section, name, entity);
+    }
+  }
+
+  private long contribution(SchematicSection section, String name,
+      Value entity) {
+    return EntityHasher.hashEntry(name, hasher.hashEntity(section, entity));
+  }
+
+}
@@ -0,0 +1,79 @@
+package org.manifold.compiler.middle;
+
+import org.manifold.compiler.Value;
+
+/**
+ * A change to one named entity of a Schematic.
+ */
+public class SchematicEvent {
+  private final ChangeKind kind;
+  private final SchematicSection section;
+  private final String name;
+  private final Value oldValue;
+  private final Value newValue;
+
+  SchematicEvent(ChangeKind kind, SchematicSection section, String name,
+      Value oldValue, Value newValue) {
+    this.kind = kind;
+    this.section = section;
+    this.name = name;
+    this.oldValue = oldValue;
+    this.newValue = newValue;
+  }
+
+  public ChangeKind getKind() {
+    return kind;
+  }
+
+  public SchematicSection getSection() {
+    return section;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the entity previously bound to the name; null for additions
+   */
+  public Value getOldValue() {
+    return oldValue;
+  }
+
+  /**
+   * @return the entity now bound to the name; null for removals
+   */
+  public Value getNewValue() {
+    return newValue;
+  }
+
+  /**
+   * Combine this event with a later event on the same entity, as if both
+   * changes had happened at once.
+   *
+   * @return the combined event, or null if the two changes cancel out
+   */
+  SchematicEvent coalesce(SchematicEvent later) {
+    Value newest = later.getNewValue();
+    if (kind == ChangeKind.ADD) {
+      // added then removed: nothing happened; added then replaced: a
+      // different entity was added
+      return newest == null ? null : new SchematicEvent(ChangeKind.ADD,
+          section, name, null, newest);
+    }
+    if (newest == null) {
+      return new SchematicEvent(ChangeKind.REMOVE, section, name, oldValue,
+          null);
+    }
+    if (newest == oldValue) {
+      return null;
+    }
+    return new SchematicEvent(ChangeKind.REPLACE, section, name, oldValue,
+        newest);
+  }
+
+  @Override
+  public String toString() {
+    return kind + " " + section + " '" + name + "'";
+  }
+}
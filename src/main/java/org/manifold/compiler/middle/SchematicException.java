@@ -9,4 +9,17 @@ package org.manifold.compiler.middle;
 public abstract class SchematicException extends Exception {
   private static final long serialVersionUID = 5949898605273073499L;
 
+  public SchematicException() {
+    super();
+  }
+
+  /**
+   * Exceptions that are thrown on routine misses (e.g. looking up a name
+   * that is not declared) may pass false to skip filling in the stack
+   * trace, which is the expensive part of throwing.
+   */
+  protected SchematicException(boolean writableStackTrace) {
+    super(null, null, false, writableStackTrace);
+  }
+
 }
@@ -0,0 +1,21 @@
+package org.manifold.compiler.middle;
+
+import java.util.List;
+
+/**
+ * Receives the changes made to a Schematic, so that derived structures can
+ * be updated incrementally instead of being rebuilt.
+ *
+ * Outside of a batch (see {@link Schematic#beginBatch()}) every change is
+ * delivered on its own, as soon as it is made. Within a batch, changes are
+ * buffered and delivered together when the outermost batch ends; repeated
+ * changes to the same entity are coalesced into one event, and changes that
+ * cancel out (e.g. an entity added and removed again) are dropped.
+ *
+ * A batch lists its removals first, from constraints back to types, and
+ * then its additions and replacements from types to constraints, so that
+ * an entity is never delivered while something it refers to is missing.
+ */
+public interface SchematicListener {
+  void schematicChanged(Schematic schematic, List<SchematicEvent> events);
+}
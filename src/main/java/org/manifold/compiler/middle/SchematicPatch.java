@@ -0,0 +1,439 @@
+package org.manifold.compiler.middle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintType;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.DanglingReferenceException;
+import org.manifold.compiler.MultipleAssignmentException;
+import org.manifold.compiler.MultipleDefinitionException;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.UndeclaredIdentifierException;
+import org.manifold.compiler.UndefinedBehaviourError;
+import org.manifold.compiler.UserDefinedTypeValue;
+import org.manifold.compiler.Value;
+
+/**
+ * An ordered list of edits to apply to an already-loaded Schematic.
+ *
+ * Instances (nodes, connections, constraints) can be added, removed, or
+ * replaced under the same name; type definitions can only be added. A node
+ * can only be removed or replaced once every connection attached to it has
+ * been removed or replaced earlier in the same patch.
+ *
+ * {@link #applyTo(Schematic)} validates the whole patch against the
+ * schematic before changing anything, looking only at the entities the patch
+ * touches, so the cost of applying a patch depends on the size of the patch
+ * rather than the size of the schematic.
+ */
+public class SchematicPatch {
+
+  public static class Operation {
+    private final ChangeKind kind;
+    private final SchematicSection section;
+    private final String name;
+    private final Value value;
+
+    private Operation(ChangeKind kind, SchematicSection section, String name,
+        Value value) {
+      this.kind = kind;
+      this.section = section;
+      this.name = checkNotNull(name);
+      this.value = value;
+    }
+
+    public ChangeKind getKind() {
+      return kind;
+    }
+
+    public SchematicSection getSection() {
+      return section;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the entity being added or the replacement entity; null for
+     * removals
+     */
+    public Value getValue() {
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return kind + " " + section + " '" + name + "'";
+    }
+  }
+
+  private final List<Operation> operations = new ArrayList<>();
+
+  public List<Operation> getOperations() {
+    return Collections.unmodifiableList(operations);
+  }
+
+  public boolean isEmpty() {
+    return operations.isEmpty();
+  }
+
+  private SchematicPatch add(ChangeKind kind, SchematicSection section,
+      String name, Value value) {
+    if (kind != ChangeKind.REMOVE) {
+      checkNotNull(value);
+    }
+    operations.add(new Operation(kind, section, name, value));
+    return this;
+  }
+
+  public SchematicPatch addUserDefinedType(UserDefinedTypeValue td) {
+    return add(ChangeKind.ADD, SchematicSection.USER_DEFINED_TYPES,
+        td.getName(), td);
+  }
+
+  public SchematicPatch addPortType(String typename, PortTypeValue portType) {
+    return add(ChangeKind.ADD, SchematicSection.PORT_TYPES, typename,
+        portType);
+  }
+
+  public SchematicPatch addNodeType(String typename, NodeTypeValue nd) {
+    return add(ChangeKind.ADD, SchematicSection.NODE_TYPES, typename, nd);
+  }
+
+  public SchematicPatch addConstraintType(String typename,
+      ConstraintType cd) {
+    return add(ChangeKind.ADD, SchematicSection.CONSTRAINT_TYPES, typename,
+        cd);
+  }
+
+  public SchematicPatch addNode(String instanceName, NodeValue node) {
+    return add(ChangeKind.ADD, SchematicSection.NODES, instanceName, node);
+  }
+
+  public SchematicPatch removeNode(String instanceName) {
+    return add(ChangeKind.REMOVE, SchematicSection.NODES, instanceName, null);
+  }
+
+  public SchematicPatch replaceNode(String instanceName, NodeValue node) {
+    return add(ChangeKind.REPLACE, SchematicSection.NODES, instanceName,
+        node);
+  }
+
+  public SchematicPatch addConnection(String instanceName,
+      ConnectionValue conn) {
+    return add(ChangeKind.ADD, SchematicSection.CONNECTIONS, instanceName,
+        conn);
+  }
+
+  public SchematicPatch removeConnection(String instanceName) {
+    return add(ChangeKind.REMOVE, SchematicSection.CONNECTIONS, instanceName,
+        null);
+  }
+
+  public SchematicPatch replaceConnection(String instanceName,
+      ConnectionValue conn) {
+    return add(ChangeKind.REPLACE, SchematicSection.CONNECTIONS,
+        instanceName, conn);
+  }
+
+  public SchematicPatch addConstraint(String instanceName,
+      ConstraintValue constraint) {
+    return add(ChangeKind.ADD, SchematicSection.CONSTRAINTS, instanceName,
+        constraint);
+  }
+
+  public SchematicPatch removeConstraint(String instanceName) {
+    return add(ChangeKind.REMOVE, SchematicSection.CONSTRAINTS, instanceName,
+        null);
+  }
+
+  public SchematicPatch replaceConstraint(String instanceName,
+      ConstraintValue constraint) {
+    return add(ChangeKind.REPLACE, SchematicSection.CONSTRAINTS,
+        instanceName, constraint);
+  }
+
+  /**
+   * Apply every operation of this patch, in order, to the given schematic.
+   * An instance can only be removed or replaced once no other instance
+   * refers to it any more.
+   * If any operation is invalid, an exception is thrown and the schematic is
+   * left unchanged.
+   */
+  public void applyTo(Schematic sch) throws SchematicException {
+    new Validator(sch).validate();
+    sch.beginBatch();
+    try {
+      for (Operation op : operations) {
+        apply(sch, op);
+      }
+    } finally {
+      sch.endBatch();
+    }
+  }
+
+  private static void apply(Schematic sch, Operation op)
+      throws SchematicException {
+    switch (op.getSection()) {
+    case USER_DEFINED_TYPES:
+      sch.addUserDefinedType((UserDefinedTypeValue) op.getValue());
+      break;
+    case PORT_TYPES:
+      sch.addPortType(op.getName(), (PortTypeValue) op.getValue());
+      break;
+    case NODE_TYPES:
+      sch.addNodeType(op.getName(), (NodeTypeValue) op.getValue());
+      break;
+    case CONSTRAINT_TYPES:
+      sch.addConstraintType(op.getName(), (ConstraintType) op.getValue());
+      break;
+    case NODES:
+      if (op.getKind() == ChangeKind.ADD) {
+        sch.addNode(op.getName(), (NodeValue) op.getValue());
+      } else if (op.getKind() == ChangeKind.REMOVE) {
+        sch.removeNode(op.getName());
+      } else {
+        sch.replaceNode(op.getName(), (NodeValue) op.getValue());
+      }
+      break;
+    case CONNECTIONS:
+      if (op.getKind() == ChangeKind.ADD) {
+        sch.addConnection(op.getName(), (ConnectionValue) op.getValue());
+      } else if (op.getKind() == ChangeKind.REMOVE) {
+        sch.removeConnection(op.getName());
+      } else {
+        sch.replaceConnection(op.getName(), (ConnectionValue) op.getValue());
+      }
+      break;
+    case CONSTRAINTS:
+      if (op.getKind() == ChangeKind.ADD) {
+        sch.addConstraint(op.getName(), (ConstraintValue) op.getValue());
+      } else if (op.getKind() == ChangeKind.REMOVE) {
+        sch.removeConstraint(op.getName());
+      } else {
+        sch.replaceConstraint(op.getName(), (ConstraintValue) op.getValue());
+      }
+      break;
+    default:
+      throw new UndefinedBehaviourError("unknown schematic section "
+          + op.getSection());
+    }
+  }
+
+  private static String kindName(SchematicSection section) {
+    switch (section) {
+    case USER_DEFINED_TYPES:
+      return "user-defined-type-definition";
+    case PORT_TYPES:
+      return "port-definition";
+    case NODE_TYPES:
+      return "node-definition";
+    case CONSTRAINT_TYPES:
+      return "constraint-definition";
+    case NODES:
+      return "node";
+    case CONNECTIONS:
+      return "connection";
+    default:
+      return "constraint";
+    }
+  }
+
+  /*
+   * Replays the patch against an overlay of the schematic, so that each
+   * operation is checked against the state left by the operations before it
+   * without modifying the schematic itself.
+   */
+  private static final SchematicSection[] INSTANCE_SECTIONS = {
+    SchematicSection.NODES, SchematicSection.CONNECTIONS,
+    SchematicSection.CONSTRAINTS
+  };
+
+  private class Validator {
+    private final Schematic sch;
+    // names bound (or, with a null value, unbound) by the patch so far
+    private final Map<SchematicSection, Map<String, Value>> names =
+        new EnumMap<>(SchematicSection.class);
+    // nodes bound (true) or unbound (false) by the patch so far
+    private final Map<NodeValue, Boolean> boundNodes = new HashMap<>();
+    // change in the number of attached connections for each node
+    private final Map<NodeValue, Integer> attachedDelta = new HashMap<>();
+
+    Validator(Schematic sch) {
+      this.sch = sch;
+      for (SchematicSection section : SchematicSection.values()) {
+        names.put(section, new HashMap<>());
+      }
+    }
+
+    private Value lookup(SchematicSection section, String name) {
+      Map<String, Value> overlay = names.get(section);
+      if (overlay.containsKey(name)) {
+        return overlay.get(name);
+      }
+      return sch.getSectionMap(section).get(name);
+    }
+
+    private boolean isBound(NodeValue node) {
+      Boolean bound = boundNodes.get(node);
+      if (bound != null) {
+        return bound;
+      }
+      return sch.isBound(node);
+    }
+
+    private int attachedCount(NodeValue node) {
+      return sch.getAttachedConnections(node).size()
+          + attachedDelta.getOrDefault(node, 0);
+    }
+
+    private String findAttachedConnection(NodeValue node) {
+      for (ConnectionValue conn : sch.getAttachedConnections(node)) {
+        String name = sch.getConnectionName(conn);
+        if (lookup(SchematicSection.CONNECTIONS, name) == conn) {
+          return name;
+        }
+      }
+      // attached by an earlier operation of this patch
+      for (Map.Entry<String, Value> entry
+          : names.get(SchematicSection.CONNECTIONS).entrySet()) {
+        ConnectionValue conn = (ConnectionValue) entry.getValue();
+        if (conn != null && (conn.getFrom().getParent() == node
+            || conn.getTo().getParent() == node)) {
+          return entry.getKey();
+        }
+      }
+      throw new UndefinedBehaviourError("no connection attached to node");
+    }
+
+    private void adjustAttached(ConnectionValue conn, int delta) {
+      NodeValue from = conn.getFrom().getParent();
+      NodeValue to = conn.getTo().getParent();
+      attachedDelta.merge(from, delta, Integer::sum);
+      if (to != from) {
+        attachedDelta.merge(to, delta, Integer::sum);
+      }
+    }
+
+    private void checkEndpoints(ConnectionValue conn)
+        throws UndeclaredIdentifierException {
+      if (!isBound(conn.getFrom().getParent())) {
+        throw new UndeclaredIdentifierException("source node of connection");
+      }
+      if (!isBound(conn.getTo().getParent())) {
+        throw new UndeclaredIdentifierException("target node of connection");
+      }
+    }
+
+    void validate() throws SchematicException {
+      for (Operation op : operations) {
+        SchematicSection section = op.getSection();
+        String name = op.getName();
+        Value existing = lookup(section, name);
+
+        if (op.getKind() == ChangeKind.ADD) {
+          if (existing != null) {
+            if (section.isTypeSection()) {
+              throw new MultipleDefinitionException(kindName(section), name);
+            }
+            throw new MultipleAssignmentException(kindName(section), name);
+          }
+        } else if (section.isTypeSection()) {
+          throw new UndefinedBehaviourError(
+              "type definitions can only be added, not " + op);
+        } else if (existing == null) {
+          throw new UndeclaredIdentifierException(name);
+        }
+
+        if (existing != null && existing != op.getValue()) {
+          checkUnreferenced(name, existing, op.getValue());
+        }
+        if (section == SchematicSection.NODES) {
+          validateNode(op, (NodeValue) existing);
+        } else if (section == SchematicSection.CONNECTIONS) {
+          validateConnection(op, (ConnectionValue) existing);
+        }
+        names.get(section).put(name, op.getValue());
+      }
+    }
+
+    // an instance may not leave while an instance that stays refers to it
+    private void checkUnreferenced(String name, Value existing,
+        Value replacement) throws DanglingReferenceException {
+      for (Value referrer : sch.getReferrers(existing)) {
+        if (referrer == existing) {
+          continue;
+        }
+        String referrerName = sch.getSymbolTable().getName(referrer);
+        if (lookup(Schematic.sectionOf(referrer), referrerName) == referrer) {
+          throw new DanglingReferenceException(name, referrerName);
+        }
+      }
+      // instances added by earlier operations of this patch
+      for (SchematicSection section : INSTANCE_SECTIONS) {
+        for (Map.Entry<String, Value> entry : names.get(section).entrySet()) {
+          if (entry.getValue() != null && entry.getValue() != existing
+              && refersTo(entry.getValue(), existing)) {
+            throw new DanglingReferenceException(name, entry.getKey());
+          }
+        }
+      }
+      if (replacement != null && refersTo(replacement, existing)) {
+        throw new DanglingReferenceException(name, name);
+      }
+    }
+
+    private boolean refersTo(Value referrer, Value target) {
+      boolean[] found = {false};
+      ReferenceIndex.forEachReference(referrer, v -> {
+          found[0] = found[0] || v == target;
+        });
+      return found[0];
+    }
+
+    private void validateNode(Operation op, NodeValue existing)
+        throws SchematicException {
+      NodeValue node = (NodeValue) op.getValue();
+      if (existing != null && existing != node) {
+        if (attachedCount(existing) > 0) {
+          throw new DanglingReferenceException(op.getName(),
+              findAttachedConnection(existing));
+        }
+        boundNodes.put(existing, false);
+      }
+      if (node != null && node != existing) {
+        if (isBound(node)) {
+          throw new MultipleAssignmentException("node", op.getName());
+        }
+        boundNodes.put(node, true);
+      }
+    }
+
+    private void validateConnection(Operation op, ConnectionValue existing)
+        throws SchematicException {
+      ConnectionValue conn = (ConnectionValue) op.getValue();
+      if (existing == conn) {
+        return;
+      }
+      if (existing != null) {
+        adjustAttached(existing, -1);
+      }
+      if (conn != null) {
+        checkEndpoints(conn);
+        adjustAttached(conn, 1);
+      }
+    }
+  }
+
+}
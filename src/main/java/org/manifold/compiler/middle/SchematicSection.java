@@ -0,0 +1,20 @@
+package org.manifold.compiler.middle;
+
+/**
+ * The named tables that make up a Schematic. Each section maps a (string)
+ * name to a single definition or instance.
+ */
+public enum SchematicSection {
+  USER_DEFINED_TYPES,
+  PORT_TYPES,
+  NODE_TYPES,
+  CONSTRAINT_TYPES,
+  NODES,
+  CONNECTIONS,
+  CONSTRAINTS;
+
+  public boolean isTypeSection() {
+    return this == USER_DEFINED_TYPES || this == PORT_TYPES
+        || this == NODE_TYPES || this == CONSTRAINT_TYPES;
+  }
+}
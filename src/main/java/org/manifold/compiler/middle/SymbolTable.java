@@ -0,0 +1,214 @@
+package org.manifold.compiler.middle;
+
+import java.util.Map;
+
+import org.manifold.compiler.ConnectionTypeValue;
+import org.manifold.compiler.ConstraintType;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.TypeTypeValue;
+import org.manifold.compiler.TypeValue;
+import org.manifold.compiler.Value;
+
+/**
+ * The names of everything declared in a Schematic, kept by the schematic
+ * itself so that the serializer and deserializer do not have to build
+ * their own copies of its name/object mappings.
+ *
+ * Names live in three namespaces: types, instances (nodes, connections
+ * and constraints) and ports, whose names are only unique within their
+ * node. Types and instances are looked up in the schematic's own tables,
+ * one per section, so a node type and a port type may share a name. A
+ * port is found by its type and name, as the port of that type and name on
+ * the most recently declared node that has one.
+ *
+ * Values are looked up by identity; none of the declared kinds of value
+ * override equals().
+ */
+public class SymbolTable {
+
+  private final Schematic schematic;
+
+  // the name of every declared type, node, connection and constraint
+  private final HashTrieMap<Value, String> names;
+  // the declared nodes of each node type; ports are found through the
+  // types of these nodes, so that neither the ports nor an entry per port
+  // need be created
+  private final HashTrieMap<NodeTypeValue, NodesOfType> nodesByType;
+  // the number of nodes declared so far, to order them by
+  private long declaredNodes;
+
+  private static final class NodesOfType {
+    private final HashTrieMap<NodeValue, Boolean> nodes;
+    // the most recently declared of these nodes, and when it was declared
+    private NodeValue latest;
+    private long declared;
+
+    NodesOfType() {
+      this.nodes = new HashTrieMap<>();
+    }
+
+    NodesOfType(NodesOfType source) {
+      this.nodes = source.nodes.snapshot();
+      this.latest = source.latest;
+      this.declared = source.declared;
+    }
+  }
+
+  SymbolTable(Schematic schematic) {
+    this.schematic = schematic;
+    this.names = new HashTrieMap<>();
+    this.nodesByType = new HashTrieMap<>();
+    this.declaredNodes = 0;
+  }
+
+  SymbolTable(Schematic schematic, SymbolTable source) {
+    this.schematic = schematic;
+    this.names = source.names.snapshot();
+    // the entries are changed in place, so each table needs its own; there
+    // is one per node type, not per node
+    this.nodesByType = new HashTrieMap<>();
+    source.nodesByType.forEach(
+        (type, nodes) -> nodesByType.put(type, new NodesOfType(nodes)));
+    this.declaredNodes = source.declaredNodes;
+  }
+
+  void declareType(String name, TypeValue type) {
+    names.put(type, name);
+  }
+
+  /*
+   * Name one of the primitive types that the default user-defined types
+   * wrap, so that it can be referred to although it is never declared.
+   */
+  void nameBuiltinType(String name, TypeValue type) {
+    names.put(type, name);
+  }
+
+  void declareInstance(String name, Value instance) {
+    names.put(instance, name);
+  }
+
+  void declareNode(String name, NodeValue node) {
+    names.put(node, name);
+    NodeTypeValue type = (NodeTypeValue) node.getType();
+    NodesOfType ofType = nodesByType.get(type);
+    if (ofType == null) {
+      ofType = new NodesOfType();
+      nodesByType.put(type, ofType);
+    }
+    ofType.nodes.put(node, Boolean.TRUE);
+    ofType.latest = node;
+    ofType.declared = declaredNodes++;
+  }
+
+  void undeclareInstance(Value instance) {
+    names.remove(instance);
+  }
+
+  void undeclareNode(NodeValue node) {
+    names.remove(node);
+    NodeTypeValue type = (NodeTypeValue) node.getType();
+    NodesOfType ofType = nodesByType.get(type);
+    if (ofType == null || ofType.nodes.remove(node) == null) {
+      return;
+    }
+    if (ofType.nodes.isEmpty()) {
+      nodesByType.remove(type);
+    } else if (ofType.latest == node) {
+      // any other node of the type has the same ports
+      ofType.latest = ofType.nodes.keySet().iterator().next();
+    }
+  }
+
+  /**
+   * @return the name of the given type, node, connection or constraint, or
+   * the name of the given port on its node; null if the value has not been
+   * declared in the schematic
+   */
+  public String getName(Value value) {
+    if (value instanceof PortValue) {
+      PortValue port = (PortValue) value;
+      if (!names.containsKey(port.getParent())) {
+        return null;
+      }
+      return port.getParent().getPortName(port);
+    }
+    return names.get(value);
+  }
+
+  public boolean contains(Value value) {
+    return getName(value) != null;
+  }
+
+  /**
+   * @return the type declared with the given name, or null; a user-defined
+   * type is preferred to a port type, a port type to a node type and a
+   * node type to a constraint type of the same name
+   */
+  public TypeValue findType(String name) {
+    TypeValue type = schematic.findUserDefinedType(name);
+    if (type == null) {
+      type = schematic.findPortType(name);
+    }
+    if (type == null) {
+      type = schematic.findNodeType(name);
+    }
+    if (type == null) {
+      type = schematic.findConstraintType(name);
+    }
+    return type;
+  }
+
+  /**
+   * @return the port with the given type and name on the most recently
+   * declared node that has one, or null
+   */
+  public PortValue findPort(PortTypeValue type, String name) {
+    NodesOfType found = null;
+    for (Map.Entry<NodeTypeValue, NodesOfType> entry
+        : nodesByType.entrySet()) {
+      NodeTypeValue nodeType = entry.getKey();
+      int slot = nodeType.getPortSlot(name);
+      if (slot < 0 || nodeType.getPortType(slot) != type) {
+        continue;
+      }
+      NodesOfType ofType = entry.getValue();
+      if (found == null || ofType.declared > found.declared) {
+        found = ofType;
+      }
+    }
+    return found == null ? null : found.latest.findPort(name);
+  }
+
+  /**
+   * Resolve a reference to a declared value of the given type: a type if
+   * the given type is the type of types, a port if it is a port type, and
+   * an instance otherwise.
+   *
+   * @return the value, or null if nothing of that type has the given name
+   */
+  public Value resolve(TypeValue type, String name) {
+    Value value;
+    if (type instanceof TypeTypeValue) {
+      value = findType(name);
+    } else if (type instanceof PortTypeValue) {
+      value = findPort((PortTypeValue) type, name);
+    } else if (type instanceof NodeTypeValue) {
+      value = schematic.findNode(name);
+    } else if (type instanceof ConstraintType) {
+      value = schematic.findConstraint(name);
+    } else if (type instanceof ConnectionTypeValue) {
+      value = schematic.findConnection(name);
+    } else {
+      return null;
+    }
+    if (value == null || value.getType() != type) {
+      return null;
+    }
+    return value;
+  }
+
+}
@@ -0,0 +1,39 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.manifold.compiler.ConstraintValue;
+
+/**
+ * One connected component of a schematic: a set of nodes that are joined to
+ * each other, and to nothing else, by connections. Besides the nodes and
+ * connections, a component carries the constraints that refer only to its
+ * own nodes, ports and connections.
+ */
+public class Component extends SubgraphView {
+
+  private final int index;
+  private final List<ConstraintValue> constraints;
+
+  Component(SchematicGraph graph, int[] labels, int index, int[] nodeIds,
+      int[] connectionIds, List<ConstraintValue> constraints) {
+    super(graph, labels, index, nodeIds, connectionIds);
+    this.index = index;
+    this.constraints = Collections.unmodifiableList(constraints);
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public List<ConstraintValue> getConstraints() {
+    return constraints;
+  }
+
+  @Override
+  public String toString() {
+    return "component " + index + " (" + getNodeCount() + " nodes)";
+  }
+
+}
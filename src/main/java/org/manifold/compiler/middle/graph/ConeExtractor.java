@@ -0,0 +1,327 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.manifold.compiler.ArrayValue;
+import org.manifold.compiler.Attributes;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintType;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.DanglingReferenceException;
+import org.manifold.compiler.InferredValue;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.TypeValue;
+import org.manifold.compiler.UndeclaredIdentifierException;
+import org.manifold.compiler.UserDefinedTypeValue;
+import org.manifold.compiler.Value;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.graph.GraphTraversal.Direction;
+
+/**
+ * Extracts the transitive fan-in (BACKWARD) or fan-out (FORWARD) cone of a
+ * set of nodes or ports into a new, standalone Schematic, which keeps the
+ * names of the extracted instances and holds every type definition they
+ * need, so that it can be serialized on its own.
+ *
+ * The cone is found by following the schematic's index of the connections
+ * attached to each node (see {@link Schematic#getAttachedConnections}),
+ * which the schematic keeps up to date as it changes, so the work done is
+ * proportional to the size of the cone rather than that of the schematic.
+ * The cone can be bounded by depth, and by node types at which it stops:
+ * nodes of those types are included, but not looked through.
+ *
+ * Connections between two nodes of the cone are extracted; connections
+ * leading out of it are not. Constraints are only extracted on request,
+ * since finding them means looking at every constraint of the schematic;
+ * a constraint is extracted if every instance it refers to is. A node or
+ * connection of the cone whose attributes refer to an instance outside of
+ * it cannot be extracted on its own, and fails the extraction with a
+ * DanglingReferenceException.
+ */
+public class ConeExtractor {
+
+  private final Schematic schematic;
+  private Direction direction = Direction.BACKWARD;
+  private int maxDepth = Integer.MAX_VALUE;
+  private Set<NodeTypeValue> boundaryTypes = Collections.emptySet();
+  private boolean includeConstraints = false;
+
+  public ConeExtractor(Schematic schematic) {
+    this.schematic = schematic;
+  }
+
+  /**
+   * BACKWARD (the default) extracts the fan-in cone, FORWARD the fan-out
+   * cone, and BOTH everything connected within the depth limit.
+   */
+  public ConeExtractor setDirection(Direction direction) {
+    this.direction = direction;
+    return this;
+  }
+
+  public ConeExtractor setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  /**
+   * Stop at nodes of the given types (e.g. registers): they are part of the
+   * cone, but the nodes behind them are not, unless reached otherwise.
+   */
+  public ConeExtractor setBoundaryTypes(Collection<NodeTypeValue> types) {
+    this.boundaryTypes = new HashSet<>(types);
+    return this;
+  }
+
+  public ConeExtractor setIncludeConstraints(boolean includeConstraints) {
+    this.includeConstraints = includeConstraints;
+    return this;
+  }
+
+  /**
+   * Extract the cone of the given nodes, starting from all of their ports.
+   */
+  public Schematic extractFromNodes(String name, Collection<NodeValue> nodes)
+      throws SchematicException {
+    Cone cone = new Cone();
+    for (NodeValue node : nodes) {
+      cone.start(node, null);
+    }
+    return cone.extract(name);
+  }
+
+  /**
+   * Extract the cone of the given ports: only the connections attached to
+   * the ports themselves are followed out of their nodes.
+   */
+  public Schematic extractFromPorts(String name, Collection<PortValue> ports)
+      throws SchematicException {
+    Cone cone = new Cone();
+    for (PortValue port : ports) {
+      cone.start(port.getParent(), port);
+    }
+    return cone.extract(name);
+  }
+
+  private class Cone {
+    // nodes of the cone, in the order they were reached, with their depth
+    private final Map<NodeValue, Integer> depths = new LinkedHashMap<>();
+    private final List<NodeValue> queue = new ArrayList<>();
+    // start nodes that are only to be left through certain ports
+    private final Map<NodeValue, Set<PortValue>> startPorts =
+        new HashMap<>();
+
+    void start(NodeValue node, PortValue port)
+        throws UndeclaredIdentifierException {
+      // fail early on nodes from elsewhere
+      nameOf(node);
+      if (!depths.containsKey(node)) {
+        depths.put(node, 0);
+        queue.add(node);
+        if (port != null) {
+          startPorts.put(node, new HashSet<>());
+        }
+      }
+      if (port == null) {
+        startPorts.remove(node);
+      } else if (startPorts.containsKey(node)) {
+        startPorts.get(node).add(port);
+      }
+    }
+
+    private String nameOf(NodeValue node)
+        throws UndeclaredIdentifierException {
+      String name = schematic.findNodeName(node);
+      if (name == null) {
+        throw new UndeclaredIdentifierException("node in cone");
+      }
+      return name;
+    }
+
+    private void search() {
+      for (int head = 0; head < queue.size(); ++head) {
+        NodeValue v = queue.get(head);
+        int depth = depths.get(v);
+        if (depth >= maxDepth
+            || (depth > 0 && boundaryTypes.contains(v.getType()))) {
+          continue;
+        }
+        Set<PortValue> ports = startPorts.get(v);
+        for (ConnectionValue conn : schematic.getAttachedConnections(v)) {
+          if (direction != Direction.BACKWARD
+              && conn.getFrom().getParent() == v
+              && (ports == null || ports.contains(conn.getFrom()))) {
+            reach(conn.getTo().getParent(), depth + 1);
+          }
+          if (direction != Direction.FORWARD
+              && conn.getTo().getParent() == v
+              && (ports == null || ports.contains(conn.getTo()))) {
+            reach(conn.getFrom().getParent(), depth + 1);
+          }
+        }
+      }
+    }
+
+    private void reach(NodeValue node, int depth) {
+      // connections may lead to nodes that are not in the schematic
+      if (!depths.containsKey(node)
+          && schematic.findNodeName(node) != null) {
+        depths.put(node, depth);
+        queue.add(node);
+      }
+    }
+
+    Schematic extract(String name) throws SchematicException {
+      search();
+      Schematic cone = new Schematic(name);
+      copyTypes(cone);
+
+      // each connection is attached to two nodes (or one, twice)
+      Set<ConnectionValue> added = new LinkedHashSet<>();
+      for (NodeValue node : depths.keySet()) {
+        for (ConnectionValue conn : schematic.getAttachedConnections(node)) {
+          if (depths.containsKey(conn.getFrom().getParent())
+              && depths.containsKey(conn.getTo().getParent())) {
+            added.add(conn);
+          }
+        }
+      }
+
+      for (NodeValue node : depths.keySet()) {
+        String nodeName = schematic.getNodeName(node);
+        checkInside(nodeName, node.getAttributes(), added);
+        for (int slot = 0; slot < node.getPortCount(); ++slot) {
+          checkInside(nodeName, node.getPortAttributes(slot), added);
+        }
+        cone.addNode(nodeName, node);
+      }
+      for (ConnectionValue conn : added) {
+        String connName = schematic.getConnectionName(conn);
+        checkInside(connName, conn.getAttributes(), added);
+        cone.addConnection(connName, conn);
+      }
+      if (includeConstraints) {
+        copyConstraints(cone, added);
+      }
+      return cone;
+    }
+
+    // copy the definitions of the types used by the nodes of the cone
+    private void copyTypes(Schematic cone) throws SchematicException {
+      Map<String, UserDefinedTypeValue> existing =
+          cone.getUserDefinedTypes();
+      for (Map.Entry<String, UserDefinedTypeValue> entry
+          : schematic.getUserDefinedTypes().entrySet()) {
+        if (!existing.containsKey(entry.getKey())) {
+          cone.addUserDefinedType(entry.getValue());
+        }
+      }
+
+      Set<TypeValue> copied = new HashSet<>();
+      for (NodeValue node : depths.keySet()) {
+        TypeValue type = node.getType();
+        while (type instanceof NodeTypeValue && copied.add(type)) {
+          NodeTypeValue nodeType = (NodeTypeValue) type;
+          cone.addNodeType(typeName(nodeType), nodeType);
+          for (PortTypeValue portType : nodeType.getPorts().values()) {
+            TypeValue t = portType;
+            while (t instanceof PortTypeValue && copied.add(t)) {
+              cone.addPortType(typeName(t), (PortTypeValue) t);
+              t = t.getSupertype();
+            }
+          }
+          type = type.getSupertype();
+        }
+      }
+    }
+
+    private void copyConstraints(Schematic cone,
+        Set<ConnectionValue> connections) throws SchematicException {
+      Set<TypeValue> copied = new HashSet<>();
+      for (Map.Entry<String, ConstraintValue> entry
+          : schematic.getConstraints().entrySet()) {
+        ConstraintValue constraint = entry.getValue();
+        boolean inside = true;
+        for (Value value : constraint.getAttributes().getAll().values()) {
+          inside = inside && isInside(value, connections);
+        }
+        if (!inside) {
+          continue;
+        }
+        TypeValue type = constraint.getType();
+        while (type instanceof ConstraintType && copied.add(type)) {
+          cone.addConstraintType(typeName(type), (ConstraintType) type);
+          type = type.getSupertype();
+        }
+        cone.addConstraint(entry.getKey(), constraint);
+      }
+    }
+
+    private void checkInside(String referrerName, Attributes attributes,
+        Set<ConnectionValue> connections)
+        throws DanglingReferenceException {
+      for (Value value : attributes.getAll().values()) {
+        Value outside = outsideReference(value, connections);
+        if (outside != null) {
+          throw new DanglingReferenceException(
+              schematic.getSymbolTable().getName(outside), referrerName);
+        }
+      }
+    }
+
+    private boolean isInside(Value value, Set<ConnectionValue> connections) {
+      return outsideReference(value, connections) == null;
+    }
+
+    // the instance outside of the cone that the value refers to, if any; a
+    // port stands for its node
+    private Value outsideReference(Value value,
+        Set<ConnectionValue> connections) {
+      if (value instanceof NodeValue) {
+        return depths.containsKey(value) ? null : value;
+      } else if (value instanceof PortValue) {
+        return outsideReference(((PortValue) value).getParent(), connections);
+      } else if (value instanceof ConnectionValue) {
+        return connections.contains(value) ? null : value;
+      } else if (value instanceof ConstraintValue) {
+        return value;
+      } else if (value != null && value.getClass() == ArrayValue.class) {
+        // only generic arrays can hold instances
+        ArrayValue array = (ArrayValue) value;
+        for (int i = 0; i < array.length(); ++i) {
+          Value outside = outsideReference(array.get(i), connections);
+          if (outside != null) {
+            return outside;
+          }
+        }
+      } else if (value instanceof InferredValue) {
+        Value element = ((InferredValue) value).get();
+        return element == null ? null : outsideReference(element, connections);
+      }
+      return null;
+    }
+
+    private String typeName(TypeValue type)
+        throws UndeclaredIdentifierException {
+      String name = schematic.getSymbolTable().getName(type);
+      if (name == null) {
+        throw new UndeclaredIdentifierException(type.toString());
+      }
+      return name;
+    }
+  }
+
+}
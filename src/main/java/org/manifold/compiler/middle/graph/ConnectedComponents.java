@@ -0,0 +1,214 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.manifold.compiler.ArrayValue;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.InferredValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.Value;
+import org.manifold.compiler.middle.Schematic;
+
+/**
+ * The connected components of the node/connection graph of a schematic,
+ * ignoring the direction of connections. Components that share no
+ * connections can be processed completely independently of each other.
+ *
+ * Components are found with a union-find pass over the connections, in
+ * (almost) linear time, and are numbered in the order of their first node
+ * in the graph. Each constraint belongs to the component of the entities it
+ * refers to; constraints that refer to no node, port or connection, or to
+ * entities in more than one component, are global.
+ */
+public class ConnectedComponents {
+
+  private static final int NO_COMPONENT = -1;
+  private static final int MANY_COMPONENTS = -2;
+
+  private final SchematicGraph graph;
+  private final int[] componentOf;
+  private final List<Component> components;
+  private final List<ConstraintValue> globalConstraints;
+
+  public ConnectedComponents(Schematic schematic) {
+    this(new SchematicGraph(schematic));
+  }
+
+  public ConnectedComponents(SchematicGraph graph) {
+    this.graph = graph;
+    int nodeCount = graph.getNodeCount();
+
+    int[] parent = new int[nodeCount];
+    for (int v = 0; v < nodeCount; ++v) {
+      parent[v] = v;
+    }
+    for (int c = 0; c < graph.getConnectionCount(); ++c) {
+      int a = find(parent, graph.sources[c]);
+      int b = find(parent, graph.targets[c]);
+      if (a != b) {
+        // always keep the lower id as the root, so that roots are visited
+        // before the other members of their component below
+        if (a < b) {
+          parent[b] = a;
+        } else {
+          parent[a] = b;
+        }
+      }
+    }
+
+    componentOf = new int[nodeCount];
+    int componentCount = 0;
+    for (int v = 0; v < nodeCount; ++v) {
+      int root = find(parent, v);
+      componentOf[v] = root == v ? componentCount++ : componentOf[root];
+    }
+
+    int[][] nodeIds = new int[componentCount][];
+    int[] sizes = new int[componentCount];
+    for (int v = 0; v < nodeCount; ++v) {
+      ++sizes[componentOf[v]];
+    }
+    for (int i = 0; i < componentCount; ++i) {
+      nodeIds[i] = new int[sizes[i]];
+      sizes[i] = 0;
+    }
+    for (int v = 0; v < nodeCount; ++v) {
+      int i = componentOf[v];
+      nodeIds[i][sizes[i]++] = v;
+    }
+
+    int[][] connectionIds = new int[componentCount][];
+    for (int i = 0; i < componentCount; ++i) {
+      sizes[i] = 0;
+    }
+    for (int c = 0; c < graph.getConnectionCount(); ++c) {
+      ++sizes[componentOf[graph.sources[c]]];
+    }
+    for (int i = 0; i < componentCount; ++i) {
+      connectionIds[i] = new int[sizes[i]];
+      sizes[i] = 0;
+    }
+    for (int c = 0; c < graph.getConnectionCount(); ++c) {
+      int i = componentOf[graph.sources[c]];
+      connectionIds[i][sizes[i]++] = c;
+    }
+
+    List<List<ConstraintValue>> constraints = new ArrayList<>();
+    for (int i = 0; i < componentCount; ++i) {
+      constraints.add(new ArrayList<>());
+    }
+    List<ConstraintValue> global = new ArrayList<>();
+    for (ConstraintValue constraint
+        : graph.getSchematic().getConstraints().values()) {
+      int component = componentOfReferences(constraint,
+          NO_COMPONENT);
+      if (component < 0) {
+        global.add(constraint);
+      } else {
+        constraints.get(component).add(constraint);
+      }
+    }
+    this.globalConstraints = Collections.unmodifiableList(global);
+
+    List<Component> components = new ArrayList<>(componentCount);
+    for (int i = 0; i < componentCount; ++i) {
+      components.add(new Component(graph, componentOf, i, nodeIds[i],
+          connectionIds[i], constraints.get(i)));
+    }
+    this.components = Collections.unmodifiableList(components);
+  }
+
+  // root of v's set, halving the path on the way
+  private static int find(int[] parent, int v) {
+    while (parent[v] != v) {
+      parent[v] = parent[parent[v]];
+      v = parent[v];
+    }
+    return v;
+  }
+
+  /*
+   * Fold the components of the entities referred to by the constraint's
+   * attributes into `found', which is NO_COMPONENT if nothing has been found
+   * yet, MANY_COMPONENTS if references to different components have been
+   * found, or else the one component found so far.
+   */
+  private int componentOfReferences(ConstraintValue constraint, int found) {
+    for (Value value : constraint.getAttributes().getAll().values()) {
+      found = componentOfReferences(value, found);
+      if (found == MANY_COMPONENTS) {
+        break;
+      }
+    }
+    return found;
+  }
+
+  private int componentOfReferences(Value value, int found) {
+    NodeValue node = null;
+    if (value instanceof NodeValue) {
+      node = (NodeValue) value;
+    } else if (value instanceof PortValue) {
+      node = ((PortValue) value).getParent();
+    } else if (value instanceof ConnectionValue) {
+      node = ((ConnectionValue) value).getFrom().getParent();
+    } else if (value != null && value.getClass() == ArrayValue.class) {
+      // the specialized arrays only hold primitive values, and looking at
+      // a lazily decoded one would decode it
+      ArrayValue array = (ArrayValue) value;
+      for (int i = 0; i < array.length() && found != MANY_COMPONENTS; ++i) {
+        found = componentOfReferences(array.get(i), found);
+      }
+      return found;
+    } else if (value instanceof InferredValue) {
+      return componentOfReferences(((InferredValue) value).get(), found);
+    }
+    if (node == null) {
+      return found;
+    }
+    int id = graph.getNodeId(node);
+    if (id < 0) {
+      return found;
+    }
+    if (found == NO_COMPONENT || found == componentOf[id]) {
+      return componentOf[id];
+    }
+    return MANY_COMPONENTS;
+  }
+
+  public SchematicGraph getGraph() {
+    return graph;
+  }
+
+  public int getComponentCount() {
+    return components.size();
+  }
+
+  public Component getComponent(int index) {
+    return components.get(index);
+  }
+
+  public List<Component> getComponents() {
+    return components;
+  }
+
+  /**
+   * @return the component containing the given node, or null if the node
+   * is not part of the schematic
+   */
+  public Component getComponentOf(NodeValue node) {
+    int id = graph.getNodeId(node);
+    return id < 0 ? null : components.get(componentOf[id]);
+  }
+
+  /**
+   * @return the constraints that do not belong to any single component
+   */
+  public List<ConstraintValue> getGlobalConstraints() {
+    return globalConstraints;
+  }
+
+}
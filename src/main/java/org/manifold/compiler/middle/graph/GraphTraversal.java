@@ -0,0 +1,308 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntPredicate;
+
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortValue;
+
+/**
+ * Breadth- or depth-first walks over the nodes of a SchematicGraph, along
+ * connections in either or both directions. A walk yields node ids; each
+ * node is visited at most once.
+ *
+ * A traversal allocates its work queue and visited set once, sized for the
+ * whole graph, and reuses them for every walk, so walks do not allocate per
+ * node. As a consequence only one walk of a traversal can be in progress at
+ * a time: starting a walk ends the previous one.
+ */
+public class GraphTraversal {
+
+  public enum Direction {
+    // from the `from' port of connections to their `to' port
+    FORWARD,
+    BACKWARD,
+    BOTH
+  }
+
+  private final SchematicGraph graph;
+  private boolean depthFirst = false;
+  private Direction direction = Direction.FORWARD;
+  private int maxDepth = Integer.MAX_VALUE;
+  private IntPredicate nodeFilter = null;
+  private IntPredicate connectionFilter = null;
+
+  private final BitSet visited;
+  // every node visited by the current walk, so that it can be unmarked
+  private final int[] visitedNodes;
+  private int visitedCount = 0;
+  // breadth-first: queue of nodes and their depths; depth-first: stack of
+  // nodes and the next of their connections to follow (depth is the index)
+  private final int[] nodeBuffer;
+  private final int[] auxBuffer;
+
+  private Walk current = null;
+
+  public GraphTraversal(SchematicGraph graph) {
+    this.graph = graph;
+    int nodeCount = graph.getNodeCount();
+    this.visited = new BitSet(nodeCount);
+    this.visitedNodes = new int[nodeCount];
+    this.nodeBuffer = new int[nodeCount];
+    this.auxBuffer = new int[nodeCount];
+  }
+
+  public SchematicGraph getGraph() {
+    return graph;
+  }
+
+  public GraphTraversal breadthFirst() {
+    this.depthFirst = false;
+    return this;
+  }
+
+  public GraphTraversal depthFirst() {
+    this.depthFirst = true;
+    return this;
+  }
+
+  public GraphTraversal setDirection(Direction direction) {
+    this.direction = direction;
+    return this;
+  }
+
+  /**
+   * Do not visit nodes further than the given number of connections from
+   * the start of the walk.
+   */
+  public GraphTraversal setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  /**
+   * Only visit (and walk on from) nodes whose id is accepted by the given
+   * predicate; null accepts every node.
+   */
+  public GraphTraversal setNodeFilter(IntPredicate nodeFilter) {
+    this.nodeFilter = nodeFilter;
+    return this;
+  }
+
+  /**
+   * Only follow connections whose id is accepted by the given predicate;
+   * null accepts every connection.
+   */
+  public GraphTraversal setConnectionFilter(IntPredicate connectionFilter) {
+    this.connectionFilter = connectionFilter;
+    return this;
+  }
+
+  public Walk walk(int node) {
+    return start(node, null);
+  }
+
+  public Walk walk(NodeValue node) {
+    int id = graph.getNodeId(node);
+    if (id < 0) {
+      throw new NoSuchElementException();
+    }
+    return start(id, null);
+  }
+
+  /**
+   * Start a walk at the parent of the given port, leaving it only through
+   * the connections attached to that port.
+   */
+  public Walk walk(PortValue port) {
+    int id = graph.getNodeId(port.getParent());
+    if (id < 0) {
+      throw new NoSuchElementException();
+    }
+    return start(id, port);
+  }
+
+  private Walk start(int node, PortValue port) {
+    for (int i = 0; i < visitedCount; ++i) {
+      visited.clear(visitedNodes[i]);
+    }
+    visitedCount = 0;
+    current = new Walk(port);
+    if (nodeFilter == null || nodeFilter.test(node)) {
+      mark(node);
+      current.push(node, 0);
+    }
+    return current;
+  }
+
+  private void mark(int node) {
+    visited.set(node);
+    visitedNodes[visitedCount++] = node;
+  }
+
+  private int degree(int v) {
+    int degree = 0;
+    if (direction != Direction.BACKWARD) {
+      degree += graph.outOffsets[v + 1] - graph.outOffsets[v];
+    }
+    if (direction != Direction.FORWARD) {
+      degree += graph.inOffsets[v + 1] - graph.inOffsets[v];
+    }
+    return degree;
+  }
+
+  /*
+   * The node reached from v over its k-th connection (counting outgoing
+   * connections first), or -1 if the connection or that node is not to be
+   * walked over. If a start port is given, only connections attached to it
+   * are followed.
+   */
+  private int neighbour(int v, int k, PortValue startPort) {
+    int c;
+    int u;
+    boolean outgoing = false;
+    if (direction != Direction.BACKWARD) {
+      int outDegree = graph.outOffsets[v + 1] - graph.outOffsets[v];
+      outgoing = k < outDegree;
+      if (!outgoing) {
+        k -= outDegree;
+      }
+    }
+    if (outgoing) {
+      c = graph.outEdges[graph.outOffsets[v] + k];
+      u = graph.targets[c];
+      if (startPort != null
+          && graph.connections[c].getFrom() != startPort) {
+        return -1;
+      }
+    } else {
+      c = graph.inEdges[graph.inOffsets[v] + k];
+      u = graph.sources[c];
+      if (startPort != null && graph.connections[c].getTo() != startPort) {
+        return -1;
+      }
+    }
+    if (visited.get(u)) {
+      return -1;
+    }
+    if (connectionFilter != null && !connectionFilter.test(c)) {
+      return -1;
+    }
+    if (nodeFilter != null && !nodeFilter.test(u)) {
+      return -1;
+    }
+    return u;
+  }
+
+  /**
+   * One walk over the graph, yielding the ids of the visited nodes. The
+   * start node comes first, at depth 0.
+   */
+  public class Walk implements PrimitiveIterator.OfInt {
+    private final PortValue startPort;
+    // breadth-first: queue bounds; depth-first: stack size
+    private int head = 0;
+    private int tail = 0;
+    // the node most recently returned, and its depth
+    private int node = -1;
+    private int depth = -1;
+    // depth-first: the next node, found ahead of time by hasNext()
+    private int pending = -1;
+
+    private Walk(PortValue startPort) {
+      this.startPort = startPort;
+    }
+
+    private void push(int v, int vDepth) {
+      if (depthFirst) {
+        nodeBuffer[tail] = v;
+        auxBuffer[tail] = 0;
+        ++tail;
+        pending = v;
+      } else {
+        nodeBuffer[tail] = v;
+        auxBuffer[tail] = vDepth;
+        ++tail;
+      }
+    }
+
+    private void checkCurrent() {
+      if (current != this) {
+        throw new ConcurrentModificationException(
+            "another walk of this traversal has been started");
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      checkCurrent();
+      return depthFirst ? advanceDepthFirst() : head < tail;
+    }
+
+    @Override
+    public int nextInt() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (depthFirst) {
+        node = pending;
+        depth = tail - 1;
+        pending = -1;
+        return node;
+      }
+      node = nodeBuffer[head];
+      depth = auxBuffer[head];
+      ++head;
+      if (depth < maxDepth) {
+        PortValue port = depth == 0 ? startPort : null;
+        int degree = degree(node);
+        for (int k = 0; k < degree; ++k) {
+          int u = neighbour(node, k, port);
+          if (u >= 0) {
+            mark(u);
+            push(u, depth + 1);
+          }
+        }
+      }
+      return node;
+    }
+
+    // find the next node in depth-first (pre)order, and push it
+    private boolean advanceDepthFirst() {
+      while (pending < 0 && tail > 0) {
+        int top = tail - 1;
+        int v = nodeBuffer[top];
+        if (top >= maxDepth || auxBuffer[top] >= degree(v)) {
+          --tail;
+          continue;
+        }
+        int k = auxBuffer[top]++;
+        int u = neighbour(v, k, top == 0 ? startPort : null);
+        if (u >= 0) {
+          mark(u);
+          push(u, top + 1);
+        }
+      }
+      return pending >= 0;
+    }
+
+    /**
+     * @return the depth of the node most recently returned: the number of
+     * connections followed from the start node to reach it
+     */
+    public int getDepth() {
+      return depth;
+    }
+
+    /**
+     * @return the node most recently returned
+     */
+    public NodeValue getNode() {
+      return graph.nodes[node];
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.manifold.compiler.NodeValue;
+
+/**
+ * The topological levels of the nodes of a schematic, following connections
+ * from the node of their `from' port to the node of their `to' port. Nodes
+ * without incoming connections are at level 0, and every other node is one
+ * level above the highest of its predecessors, so that the nodes of one level
+ * depend only on nodes of lower levels and can be processed in parallel.
+ *
+ * Nodes on a cycle, or downstream of one, have no level; they are reported
+ * as level -1 and listed by {@link #getUnleveledNodes()}.
+ */
+public class Levelization {
+
+  private final SchematicGraph graph;
+  private final int[] levels;
+  // nodes of level l are levelNodes[levelOffsets[l]] up to (but not
+  // including) levelNodes[levelOffsets[l + 1]]; unleveled nodes follow
+  private final int[] levelOffsets;
+  private final int[] levelNodes;
+
+  public Levelization(SchematicGraph graph) {
+    this.graph = graph;
+    int nodeCount = graph.getNodeCount();
+    levels = new int[nodeCount];
+
+    // Kahn's algorithm; the queue holds nodes in order of their level
+    int[] remaining = new int[nodeCount];
+    int[] queue = new int[nodeCount];
+    int tail = 0;
+    for (int v = 0; v < nodeCount; ++v) {
+      remaining[v] = graph.getInDegree(v);
+      if (remaining[v] == 0) {
+        queue[tail++] = v;
+      }
+    }
+    int levelCount = 0;
+    for (int head = 0; head < tail; ++head) {
+      int v = queue[head];
+      levelCount = Math.max(levelCount, levels[v] + 1);
+      for (int i = graph.outOffsets[v]; i < graph.outOffsets[v + 1]; ++i) {
+        int u = graph.targets[graph.outEdges[i]];
+        levels[u] = Math.max(levels[u], levels[v] + 1);
+        if (--remaining[u] == 0) {
+          queue[tail++] = u;
+        }
+      }
+    }
+
+    levelOffsets = new int[levelCount + 1];
+    levelNodes = new int[nodeCount];
+    for (int v = 0; v < nodeCount; ++v) {
+      if (remaining[v] > 0) {
+        levels[v] = -1;
+      } else {
+        ++levelOffsets[levels[v] + 1];
+      }
+    }
+    for (int l = 1; l <= levelCount; ++l) {
+      levelOffsets[l] += levelOffsets[l - 1];
+    }
+    int[] next = levelOffsets.clone();
+    for (int v = 0; v < nodeCount; ++v) {
+      int l = levels[v] < 0 ? levelCount : levels[v];
+      levelNodes[next[l]++] = v;
+    }
+  }
+
+  public SchematicGraph getGraph() {
+    return graph;
+  }
+
+  public int getLevelCount() {
+    return levelOffsets.length - 1;
+  }
+
+  /**
+   * @return the level of the given node, or -1 if it is on or downstream
+   * of a cycle
+   * @throws NoSuchElementException if the node is not in the schematic
+   */
+  public int level(NodeValue node) {
+    int id = graph.getNodeId(node);
+    if (id < 0) {
+      throw new NoSuchElementException();
+    }
+    return levels[id];
+  }
+
+  public int getLevel(int node) {
+    return levels[node];
+  }
+
+  public int getLevelSize(int level) {
+    return levelOffsets[level + 1] - levelOffsets[level];
+  }
+
+  /**
+   * @return the graph id of the i-th node of the given level
+   */
+  public int getNodeId(int level, int i) {
+    return levelNodes[levelOffsets[level] + i];
+  }
+
+  public List<NodeValue> getNodes(int level) {
+    return nodeList(levelOffsets[level], levelOffsets[level + 1]);
+  }
+
+  public boolean isAcyclic() {
+    return levelOffsets[getLevelCount()] == levelNodes.length;
+  }
+
+  public List<NodeValue> getUnleveledNodes() {
+    return nodeList(levelOffsets[getLevelCount()], levelNodes.length);
+  }
+
+  private List<NodeValue> nodeList(int from, int to) {
+    return new AbstractList<NodeValue>() {
+      @Override
+      public NodeValue get(int i) {
+        if (i < 0 || i >= to - from) {
+          throw new IndexOutOfBoundsException(Integer.toString(i));
+        }
+        return graph.nodes[levelNodes[from + i]];
+      }
+
+      @Override
+      public int size() {
+        return to - from;
+      }
+    };
+  }
+
+}
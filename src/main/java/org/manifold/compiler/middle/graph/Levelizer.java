@@ -0,0 +1,40 @@
+package org.manifold.compiler.middle.graph;
+
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.middle.Schematic;
+
+/**
+ * Keeps the {@link Levelization} of a schematic, so that passes which need
+ * nodes in dependency order do not have to sort the graph each time. The
+ * levelization is computed on first use, and again only after the schematic
+ * has changed.
+ */
+public class Levelizer {
+
+  private final Schematic schematic;
+  private Levelization levelization = null;
+
+  public Levelizer(Schematic schematic) {
+    this.schematic = schematic;
+  }
+
+  public Schematic getSchematic() {
+    return schematic;
+  }
+
+  public Levelization getLevelization() {
+    if (levelization == null || !levelization.getGraph().isCurrent()) {
+      levelization = new Levelization(new SchematicGraph(schematic));
+    }
+    return levelization;
+  }
+
+  /**
+   * @return the level of the given node in the current schematic
+   * @see Levelization#level(NodeValue)
+   */
+  public int level(NodeValue node) {
+    return getLevelization().level(node);
+  }
+
+}
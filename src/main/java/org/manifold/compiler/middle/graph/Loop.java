@@ -0,0 +1,80 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.UndefinedBehaviourError;
+import org.manifold.compiler.middle.serialization.SerializationConsts.GlobalConsts;
+
+/**
+ * A non-trivial strongly connected component of a schematic: a set of nodes
+ * each of which can reach every other one (or, for a single node, itself)
+ * by following connections. The connections of the loop are those between
+ * its nodes.
+ */
+public class Loop extends SubgraphView {
+
+  private final int index;
+
+  Loop(SchematicGraph graph, int[] labels, int label, int index,
+      int[] nodeIds, int[] connectionIds) {
+    super(graph, labels, label, nodeIds, connectionIds);
+    this.index = index;
+  }
+
+  /**
+   * @return the position of this loop in
+   * {@link StronglyConnectedComponents#getLoops()}
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  public List<String> getNodeNames() {
+    List<String> names = new ArrayList<>(getNodeCount());
+    for (int i = 0; i < getNodeCount(); ++i) {
+      names.add(graph.nodeNames[getNodeId(i)]);
+    }
+    return names;
+  }
+
+  /**
+   * @return the ports at either end of each connection of the loop, named
+   * "node:port", in pairs of (from, to)
+   */
+  public List<String> getPortNames() {
+    List<String> names = new ArrayList<>(2 * getConnectionCount());
+    for (int i = 0; i < getConnectionCount(); ++i) {
+      int c = getConnectionId(i);
+      ConnectionValue conn = graph.connections[c];
+      names.add(portName(graph.sources[c], conn.getFrom()));
+      names.add(portName(graph.targets[c], conn.getTo()));
+    }
+    return names;
+  }
+
+  private String portName(int node, PortValue port) {
+    String portName = graph.nodes[node].getPortName(port);
+    if (portName == null) {
+      throw new UndefinedBehaviourError(
+          "port is not one of its parent's ports");
+    }
+    return graph.nodeNames[node] + GlobalConsts.NODE_PORT_DELIM + portName;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("loop through ");
+    List<String> ports = getPortNames();
+    for (int i = 0; i < ports.size(); i += 2) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(ports.get(i)).append(" -> ").append(ports.get(i + 1));
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,69 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.PortValue;
+
+/**
+ * One part of a {@link Partitioning}. Besides the nodes assigned to it and
+ * the connections between them, a partition knows its cut connections
+ * (those with only one endpoint inside it) and its boundary ports (the ports
+ * of its own nodes to which cut connections are attached), which is where
+ * the results of per-partition work have to be stitched together.
+ */
+public class Partition extends SubgraphView {
+
+  private final int index;
+  private final long weight;
+  private final int[] cutConnectionIds;
+  private final List<PortValue> boundaryPorts;
+
+  Partition(SchematicGraph graph, int[] labels, int index, long weight,
+      int[] nodeIds, int[] connectionIds, int[] cutConnectionIds,
+      List<PortValue> boundaryPorts) {
+    super(graph, labels, index, nodeIds, connectionIds);
+    this.index = index;
+    this.weight = weight;
+    this.cutConnectionIds = cutConnectionIds;
+    this.boundaryPorts = Collections.unmodifiableList(boundaryPorts);
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * @return the total weight of the nodes in this partition
+   */
+  public long getWeight() {
+    return weight;
+  }
+
+  public int getCutConnectionCount() {
+    return cutConnectionIds.length;
+  }
+
+  /**
+   * @return the graph id of the i-th cut connection of this partition
+   */
+  public int getCutConnectionId(int i) {
+    return cutConnectionIds[i];
+  }
+
+  public List<ConnectionValue> getCutConnections() {
+    return connectionList(graph, cutConnectionIds);
+  }
+
+  public List<PortValue> getBoundaryPorts() {
+    return boundaryPorts;
+  }
+
+  @Override
+  public String toString() {
+    return "partition " + index + " (" + getNodeCount() + " nodes, "
+        + cutConnectionIds.length + " cut connections)";
+  }
+
+}
@@ -0,0 +1,69 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+
+/**
+ * The result of partitioning a schematic: every node is assigned to exactly
+ * one of a fixed number of partitions.
+ */
+public class Partitioning {
+
+  private final SchematicGraph graph;
+  private final int[] partitionOf;
+  private final List<Partition> partitions;
+  private final int[] cutConnectionIds;
+
+  Partitioning(SchematicGraph graph, int[] partitionOf,
+      List<Partition> partitions, int[] cutConnectionIds) {
+    this.graph = graph;
+    this.partitionOf = partitionOf;
+    this.partitions = Collections.unmodifiableList(partitions);
+    this.cutConnectionIds = cutConnectionIds;
+  }
+
+  public SchematicGraph getGraph() {
+    return graph;
+  }
+
+  public int getPartitionCount() {
+    return partitions.size();
+  }
+
+  public Partition getPartition(int index) {
+    return partitions.get(index);
+  }
+
+  public List<Partition> getPartitions() {
+    return partitions;
+  }
+
+  /**
+   * @return the partition containing the given node, or null if the node
+   * is not part of the partitioned schematic
+   */
+  public Partition getPartitionOf(NodeValue node) {
+    int id = graph.getNodeId(node);
+    return id < 0 ? null : partitions.get(partitionOf[id]);
+  }
+
+  public Partition getPartitionOf(int node) {
+    return partitions.get(partitionOf[node]);
+  }
+
+  /**
+   * @return the number of connections between nodes in different
+   * partitions
+   */
+  public int getCutSize() {
+    return cutConnectionIds.length;
+  }
+
+  public List<ConnectionValue> getCutConnections() {
+    return SubgraphView.connectionList(graph, cutConnectionIds);
+  }
+
+}
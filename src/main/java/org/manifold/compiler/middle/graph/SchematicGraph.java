@@ -0,0 +1,196 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.middle.Schematic;
+
+/**
+ * A compact, read-only index of the node/connection graph of a Schematic.
+ * Nodes and connections are numbered from zero, and the connections leaving
+ * and entering each node are kept in flat arrays (compressed sparse rows),
+ * so that graph algorithms can work on ints instead of hash lookups.
+ *
+ * The graph reflects the schematic as it was when the graph was built; use
+ * {@link #isCurrent()} to tell whether it has changed since. Connections
+ * with an endpoint on a node that is not part of the schematic are not
+ * edges of the graph.
+ */
+public class SchematicGraph {
+
+  private final Schematic schematic;
+  private final long revision;
+
+  final NodeValue[] nodes;
+  final String[] nodeNames;
+  private final Map<NodeValue, Integer> nodeIds;
+
+  final ConnectionValue[] connections;
+  final String[] connectionNames;
+  // node ids of the endpoints of each connection
+  final int[] sources;
+  final int[] targets;
+
+  // connections leaving node n are outEdges[outOffsets[n]] up to (but not
+  // including) outEdges[outOffsets[n + 1]]; likewise for entering
+  final int[] outOffsets;
+  final int[] outEdges;
+  final int[] inOffsets;
+  final int[] inEdges;
+
+  public SchematicGraph(Schematic schematic) {
+    this.schematic = schematic;
+    this.revision = schematic.getRevision();
+
+    Map<String, NodeValue> nodeMap = schematic.getNodes();
+    int nodeCount = nodeMap.size();
+    nodes = new NodeValue[nodeCount];
+    nodeNames = new String[nodeCount];
+    nodeIds = new HashMap<>(nodeCount * 4 / 3 + 1);
+    int n = 0;
+    for (Map.Entry<String, NodeValue> entry : nodeMap.entrySet()) {
+      nodes[n] = entry.getValue();
+      nodeNames[n] = entry.getKey();
+      nodeIds.put(entry.getValue(), n);
+      ++n;
+    }
+
+    Map<String, ConnectionValue> connectionMap = schematic.getConnections();
+    int connectionCount = 0;
+    for (ConnectionValue conn : connectionMap.values()) {
+      if (isEdge(conn)) {
+        ++connectionCount;
+      }
+    }
+    connections = new ConnectionValue[connectionCount];
+    connectionNames = new String[connectionCount];
+    sources = new int[connectionCount];
+    targets = new int[connectionCount];
+    int c = 0;
+    for (Map.Entry<String, ConnectionValue> entry
+        : connectionMap.entrySet()) {
+      ConnectionValue conn = entry.getValue();
+      if (!isEdge(conn)) {
+        continue;
+      }
+      connections[c] = conn;
+      connectionNames[c] = entry.getKey();
+      sources[c] = getNodeId(conn.getFrom().getParent());
+      targets[c] = getNodeId(conn.getTo().getParent());
+      ++c;
+    }
+
+    outOffsets = new int[nodeCount + 1];
+    outEdges = new int[connectionCount];
+    fill(sources, outOffsets, outEdges);
+    inOffsets = new int[nodeCount + 1];
+    inEdges = new int[connectionCount];
+    fill(targets, inOffsets, inEdges);
+  }
+
+  private boolean isEdge(ConnectionValue conn) {
+    return getNodeId(conn.getFrom().getParent()) >= 0
+        && getNodeId(conn.getTo().getParent()) >= 0;
+  }
+
+  // counting sort of connection ids by endpoint
+  private static void fill(int[] endpoints, int[] offsets, int[] edges) {
+    for (int endpoint : endpoints) {
+      ++offsets[endpoint + 1];
+    }
+    for (int i = 1; i < offsets.length; ++i) {
+      offsets[i] += offsets[i - 1];
+    }
+    int[] next = new int[offsets.length - 1];
+    System.arraycopy(offsets, 0, next, 0, next.length);
+    for (int c = 0; c < endpoints.length; ++c) {
+      edges[next[endpoints[c]]++] = c;
+    }
+  }
+
+  public Schematic getSchematic() {
+    return schematic;
+  }
+
+  /**
+   * @return true if the schematic has not been changed since this graph
+   * was built
+   */
+  public boolean isCurrent() {
+    return schematic.getRevision() == revision;
+  }
+
+  public int getNodeCount() {
+    return nodes.length;
+  }
+
+  public NodeValue getNode(int node) {
+    return nodes[node];
+  }
+
+  public String getNodeName(int node) {
+    return nodeNames[node];
+  }
+
+  /**
+   * @return the id of the given node, or -1 if it is not part of the graph
+   */
+  public int getNodeId(NodeValue node) {
+    Integer id = nodeIds.get(node);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * @return the number of connections between nodes of the graph
+   */
+  public int getConnectionCount() {
+    return connections.length;
+  }
+
+  public ConnectionValue getConnection(int connection) {
+    return connections[connection];
+  }
+
+  public String getConnectionName(int connection) {
+    return connectionNames[connection];
+  }
+
+  /**
+   * @return the id of the node the given connection starts from
+   */
+  public int getSource(int connection) {
+    return sources[connection];
+  }
+
+  /**
+   * @return the id of the node the given connection goes to
+   */
+  public int getTarget(int connection) {
+    return targets[connection];
+  }
+
+  public int getOutDegree(int node) {
+    return outOffsets[node + 1] - outOffsets[node];
+  }
+
+  /**
+   * @return the id of the i-th connection leaving the given node
+   */
+  public int getOutConnection(int node, int i) {
+    return outEdges[outOffsets[node] + i];
+  }
+
+  public int getInDegree(int node) {
+    return inOffsets[node + 1] - inOffsets[node];
+  }
+
+  /**
+   * @return the id of the i-th connection entering the given node
+   */
+  public int getInConnection(int node, int i) {
+    return inEdges[inOffsets[node] + i];
+  }
+
+}
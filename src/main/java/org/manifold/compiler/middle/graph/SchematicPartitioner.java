@@ -0,0 +1,336 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.manifold.compiler.IntegerTypeValue;
+import org.manifold.compiler.IntegerValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.TypeMismatchException;
+import org.manifold.compiler.Value;
+import org.manifold.compiler.middle.Schematic;
+
+/**
+ * Divides the nodes of a schematic into a number of partitions of roughly
+ * equal weight, keeping the number of connections between partitions low,
+ * so that the partitions can be processed independently (e.g. on separate
+ * cores).
+ *
+ * Partitions are first grown one at a time by breadth-first search over the
+ * connection graph (ignoring direction), which keeps connected nodes
+ * together; then nodes on partition boundaries are greedily moved to the
+ * neighbouring partition holding most of their connections, as long as that
+ * reduces the cut without overfilling the partition. The result is not
+ * optimal, but it is found in time linear in the size of the schematic for
+ * each refinement pass.
+ *
+ * By default every node weighs 1. If a weight attribute is set, nodes that
+ * have that attribute weigh its (integer) value instead.
+ */
+public class SchematicPartitioner {
+
+  private final int partitionCount;
+  private String weightAttribute = null;
+  private double imbalance = 0.05;
+  private int maxPasses = 8;
+
+  public SchematicPartitioner(int partitionCount) {
+    if (partitionCount < 1) {
+      throw new IllegalArgumentException(
+          "cannot divide a schematic into " + partitionCount + " partitions");
+    }
+    this.partitionCount = partitionCount;
+  }
+
+  /**
+   * Take the weight of each node from the given integer attribute; nodes
+   * without the attribute weigh 1.
+   */
+  public SchematicPartitioner setWeightAttribute(String attrName) {
+    this.weightAttribute = attrName;
+    return this;
+  }
+
+  /**
+   * Allow partitions to weigh up to (1 + imbalance) times their share of
+   * the total weight. The default is 0.05.
+   */
+  public SchematicPartitioner setImbalance(double imbalance) {
+    if (imbalance < 0) {
+      throw new IllegalArgumentException("negative imbalance " + imbalance);
+    }
+    this.imbalance = imbalance;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of refinement passes over the nodes; zero
+   * disables refinement. The default is 8.
+   */
+  public SchematicPartitioner setMaxPasses(int maxPasses) {
+    this.maxPasses = maxPasses;
+    return this;
+  }
+
+  public Partitioning partition(Schematic schematic)
+      throws TypeMismatchException {
+    return partition(new SchematicGraph(schematic));
+  }
+
+  public Partitioning partition(SchematicGraph graph)
+      throws TypeMismatchException {
+    return new Run(graph).partition();
+  }
+
+  // the state of partitioning one graph
+  private class Run {
+    private final SchematicGraph graph;
+    private final int nodeCount;
+    private final int[] weights;
+    private final int[] part;
+    private final long[] partWeights = new long[partitionCount];
+    private final int[] partSizes = new int[partitionCount];
+    private long totalWeight = 0;
+    private int maxNodeWeight = 0;
+
+    Run(SchematicGraph graph) throws TypeMismatchException {
+      this.graph = graph;
+      this.nodeCount = graph.getNodeCount();
+      this.weights = new int[nodeCount];
+      this.part = new int[nodeCount];
+      for (int v = 0; v < nodeCount; ++v) {
+        weights[v] = weightOf(v);
+        totalWeight += weights[v];
+        maxNodeWeight = Math.max(maxNodeWeight, weights[v]);
+      }
+    }
+
+    private int weightOf(int v) throws TypeMismatchException {
+      if (weightAttribute == null) {
+        return 1;
+      }
+      Value value = graph.nodes[v].findAttribute(weightAttribute);
+      if (value == null) {
+        return 1;
+      }
+      if (!(value instanceof IntegerValue)) {
+        throw new TypeMismatchException(IntegerTypeValue.getInstance(),
+            value.getType());
+      }
+      int weight = ((IntegerValue) value).toInt();
+      if (weight < 0) {
+        throw new IllegalArgumentException("node '" + graph.nodeNames[v]
+            + "' has negative weight " + weight);
+      }
+      return weight;
+    }
+
+    // the other endpoint of connection c, seen from node v
+    private int opposite(int c, int v) {
+      int source = graph.sources[c];
+      return source == v ? graph.targets[c] : source;
+    }
+
+    Partitioning partition() {
+      grow();
+      refine();
+      return collect();
+    }
+
+    private void assign(int v, int p) {
+      part[v] = p;
+      partWeights[p] += weights[v];
+      ++partSizes[p];
+    }
+
+    private void grow() {
+      Arrays.fill(part, -1);
+      int[] queue = new int[nodeCount];
+      // queuedBy[v] is the partition whose search has queued v, if any
+      int[] queuedBy = new int[nodeCount];
+      Arrays.fill(queuedBy, -1);
+      int nextSeed = 0;
+      long assigned = 0;
+      for (int p = 0; p < partitionCount; ++p) {
+        // cumulative targets, so that rounding does not pile up at the end
+        long target = p == partitionCount - 1 ? totalWeight
+            : totalWeight * (p + 1) / partitionCount;
+        int head = 0;
+        int tail = 0;
+        while (assigned < target
+            || (p == partitionCount - 1 && nextSeed < nodeCount)) {
+          if (head == tail) {
+            while (nextSeed < nodeCount && part[nextSeed] != -1) {
+              ++nextSeed;
+            }
+            if (nextSeed == nodeCount) {
+              break;
+            }
+            queue[tail++] = nextSeed;
+            queuedBy[nextSeed] = p;
+          }
+          int v = queue[head++];
+          if (part[v] != -1) {
+            continue;
+          }
+          assign(v, p);
+          assigned += weights[v];
+          tail = enqueueNeighbours(v, p, queue, tail, queuedBy,
+              graph.outOffsets, graph.outEdges);
+          tail = enqueueNeighbours(v, p, queue, tail, queuedBy,
+              graph.inOffsets, graph.inEdges);
+        }
+      }
+    }
+
+    private int enqueueNeighbours(int v, int p, int[] queue, int tail,
+        int[] queuedBy, int[] offsets, int[] edges) {
+      for (int i = offsets[v]; i < offsets[v + 1]; ++i) {
+        int u = opposite(edges[i], v);
+        if (part[u] == -1 && queuedBy[u] != p) {
+          queuedBy[u] = p;
+          queue[tail++] = u;
+        }
+      }
+      return tail;
+    }
+
+    private void refine() {
+      long maxWeight = Math.max(maxNodeWeight, (long) Math.ceil(
+          (double) totalWeight / partitionCount * (1 + imbalance)));
+      // number of connections from the current node to each partition
+      int[] links = new int[partitionCount];
+      int[] touched = new int[partitionCount];
+      for (int pass = 0; pass < maxPasses; ++pass) {
+        int moves = 0;
+        for (int v = 0; v < nodeCount; ++v) {
+          int p = part[v];
+          if (partSizes[p] == 1) {
+            continue;
+          }
+          int touchedCount = 0;
+          touchedCount = countLinks(v, links, touched, touchedCount,
+              graph.outOffsets, graph.outEdges);
+          touchedCount = countLinks(v, links, touched, touchedCount,
+              graph.inOffsets, graph.inEdges);
+
+          int best = -1;
+          int bestGain = 0;
+          boolean overweight = partWeights[p] > maxWeight;
+          for (int i = 0; i < touchedCount; ++i) {
+            int q = touched[i];
+            if (q == p || partWeights[q] + weights[v] > maxWeight) {
+              continue;
+            }
+            int gain = links[q] - links[p];
+            boolean better;
+            if (best == -1) {
+              // a move that does not reduce the cut must at least leave
+              // the two partitions better balanced
+              better = gain > 0 || overweight || (gain == 0
+                  && partWeights[q] + weights[v] < partWeights[p]);
+            } else {
+              better = gain > bestGain || (gain == bestGain
+                  && partWeights[q] < partWeights[best]);
+            }
+            if (better) {
+              best = q;
+              bestGain = gain;
+            }
+          }
+          for (int i = 0; i < touchedCount; ++i) {
+            links[touched[i]] = 0;
+          }
+          if (best != -1) {
+            partWeights[p] -= weights[v];
+            --partSizes[p];
+            assign(v, best);
+            ++moves;
+          }
+        }
+        if (moves == 0) {
+          break;
+        }
+      }
+    }
+
+    private int countLinks(int v, int[] links, int[] touched,
+        int touchedCount, int[] offsets, int[] edges) {
+      for (int i = offsets[v]; i < offsets[v + 1]; ++i) {
+        int u = opposite(edges[i], v);
+        if (u == v) {
+          continue;
+        }
+        int q = part[u];
+        if (links[q]++ == 0) {
+          touched[touchedCount++] = q;
+        }
+      }
+      return touchedCount;
+    }
+
+    private Partitioning collect() {
+      int[][] nodeIds = new int[partitionCount][];
+      for (int p = 0; p < partitionCount; ++p) {
+        nodeIds[p] = new int[partSizes[p]];
+      }
+      int[] fill = new int[partitionCount];
+      for (int v = 0; v < nodeCount; ++v) {
+        nodeIds[part[v]][fill[part[v]]++] = v;
+      }
+
+      int connectionCount = graph.getConnectionCount();
+      int[] internalCounts = new int[partitionCount];
+      int[] cutCounts = new int[partitionCount];
+      int cutSize = 0;
+      for (int c = 0; c < connectionCount; ++c) {
+        int ps = part[graph.sources[c]];
+        int pt = part[graph.targets[c]];
+        if (ps == pt) {
+          ++internalCounts[ps];
+        } else {
+          ++cutCounts[ps];
+          ++cutCounts[pt];
+          ++cutSize;
+        }
+      }
+      int[][] internal = new int[partitionCount][];
+      int[][] cut = new int[partitionCount][];
+      List<Set<PortValue>> boundaryPorts = new ArrayList<>();
+      for (int p = 0; p < partitionCount; ++p) {
+        internal[p] = new int[internalCounts[p]];
+        cut[p] = new int[cutCounts[p]];
+        boundaryPorts.add(new LinkedHashSet<>());
+      }
+      int[] allCut = new int[cutSize];
+      Arrays.fill(internalCounts, 0);
+      Arrays.fill(cutCounts, 0);
+      cutSize = 0;
+      for (int c = 0; c < connectionCount; ++c) {
+        int ps = part[graph.sources[c]];
+        int pt = part[graph.targets[c]];
+        if (ps == pt) {
+          internal[ps][internalCounts[ps]++] = c;
+        } else {
+          cut[ps][cutCounts[ps]++] = c;
+          cut[pt][cutCounts[pt]++] = c;
+          allCut[cutSize++] = c;
+          boundaryPorts.get(ps).add(graph.connections[c].getFrom());
+          boundaryPorts.get(pt).add(graph.connections[c].getTo());
+        }
+      }
+
+      List<Partition> partitions = new ArrayList<>(partitionCount);
+      for (int p = 0; p < partitionCount; ++p) {
+        partitions.add(new Partition(graph, part, p, partWeights[p],
+            nodeIds[p], internal[p], cut[p],
+            new ArrayList<>(boundaryPorts.get(p))));
+      }
+      return new Partitioning(graph, part, partitions, allCut);
+    }
+  }
+
+}
@@ -0,0 +1,40 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.List;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+
+/**
+ * A read-only view of part of a schematic: a set of nodes, together with the
+ * connections that have both of their endpoints among those nodes. Views
+ * refer to their SchematicGraph by id and copy no entities, so it is cheap
+ * to have many of them.
+ */
+public interface SchematicView {
+
+  SchematicGraph getGraph();
+
+  int getNodeCount();
+
+  /**
+   * @return the graph id of the i-th node of this view
+   */
+  int getNodeId(int i);
+
+  List<NodeValue> getNodes();
+
+  boolean containsNode(NodeValue node);
+
+  boolean containsNodeId(int node);
+
+  int getConnectionCount();
+
+  /**
+   * @return the graph id of the i-th connection of this view
+   */
+  int getConnectionId(int i);
+
+  List<ConnectionValue> getConnections();
+
+}
@@ -0,0 +1,194 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.middle.Schematic;
+
+/**
+ * The strongly connected components of the (directed) connection graph of a
+ * schematic, found with Tarjan's algorithm in linear time. The search keeps
+ * its own stack in int arrays instead of recursing, so arbitrarily deep
+ * designs do not overflow the call stack.
+ *
+ * Components with more than one node, or consisting of a node connected to
+ * itself, are loops: in a combinational design, each of them is an error.
+ */
+public class StronglyConnectedComponents {
+
+  private final SchematicGraph graph;
+  private final int[] componentOf;
+  private final int componentCount;
+  private final List<Loop> loops;
+
+  public StronglyConnectedComponents(Schematic schematic) {
+    this(new SchematicGraph(schematic));
+  }
+
+  public StronglyConnectedComponents(SchematicGraph graph) {
+    this.graph = graph;
+    int nodeCount = graph.getNodeCount();
+    componentOf = new int[nodeCount];
+
+    // discovery order of each node (0 while undiscovered), and the lowest
+    // discovery order reachable from it through the search tree
+    int[] order = new int[nodeCount];
+    int[] low = new int[nodeCount];
+    // Tarjan's stack of nodes not yet assigned to a component
+    int[] stack = new int[nodeCount];
+    int stackSize = 0;
+    // the search path, with the next out-edge to try at each node on it
+    int[] path = new int[nodeCount];
+    int[] nextEdge = new int[nodeCount];
+    int pathSize = 0;
+    int counter = 0;
+    int components = 0;
+
+    for (int root = 0; root < nodeCount; ++root) {
+      if (order[root] != 0) {
+        continue;
+      }
+      order[root] = low[root] = ++counter;
+      stack[stackSize++] = root;
+      componentOf[root] = -1;
+      path[pathSize] = root;
+      nextEdge[pathSize] = graph.outOffsets[root];
+      ++pathSize;
+
+      while (pathSize > 0) {
+        int v = path[pathSize - 1];
+        int e = nextEdge[pathSize - 1];
+        if (e < graph.outOffsets[v + 1]) {
+          nextEdge[pathSize - 1] = e + 1;
+          int u = graph.targets[graph.outEdges[e]];
+          if (order[u] == 0) {
+            order[u] = low[u] = ++counter;
+            stack[stackSize++] = u;
+            componentOf[u] = -1;
+            path[pathSize] = u;
+            nextEdge[pathSize] = graph.outOffsets[u];
+            ++pathSize;
+          } else if (componentOf[u] == -1) {
+            // u is still on the stack
+            low[v] = Math.min(low[v], order[u]);
+          }
+          continue;
+        }
+        // all of v's successors are done
+        --pathSize;
+        if (pathSize > 0) {
+          int parent = path[pathSize - 1];
+          low[parent] = Math.min(low[parent], low[v]);
+        }
+        if (low[v] == order[v]) {
+          int u;
+          do {
+            u = stack[--stackSize];
+            componentOf[u] = components;
+          } while (u != v);
+          ++components;
+        }
+      }
+    }
+    this.componentCount = components;
+    this.loops = Collections.unmodifiableList(findLoops());
+  }
+
+  private List<Loop> findLoops() {
+    int nodeCount = graph.getNodeCount();
+    int[] sizes = new int[componentCount];
+    for (int v = 0; v < nodeCount; ++v) {
+      ++sizes[componentOf[v]];
+    }
+    int[] connectionCounts = new int[componentCount];
+    for (int c = 0; c < graph.getConnectionCount(); ++c) {
+      int component = componentOf[graph.sources[c]];
+      if (component == componentOf[graph.targets[c]]) {
+        ++connectionCounts[component];
+      }
+    }
+
+    // a loop is a component whose nodes are joined by a connection; for a
+    // single node, that is a connection to itself
+    int[] loopOf = new int[componentCount];
+    int loopCount = 0;
+    for (int i = 0; i < componentCount; ++i) {
+      loopOf[i] = connectionCounts[i] > 0 ? loopCount++ : -1;
+    }
+    if (loopCount == 0) {
+      return new ArrayList<>();
+    }
+
+    int[][] nodeIds = new int[loopCount][];
+    int[][] connectionIds = new int[loopCount][];
+    int[] fill = new int[loopCount];
+    for (int i = 0; i < componentCount; ++i) {
+      if (loopOf[i] >= 0) {
+        nodeIds[loopOf[i]] = new int[sizes[i]];
+        connectionIds[loopOf[i]] = new int[connectionCounts[i]];
+      }
+    }
+    for (int v = 0; v < nodeCount; ++v) {
+      int loop = loopOf[componentOf[v]];
+      if (loop >= 0) {
+        nodeIds[loop][fill[loop]++] = v;
+      }
+    }
+    Arrays.fill(fill, 0);
+    for (int c = 0; c < graph.getConnectionCount(); ++c) {
+      int component = componentOf[graph.sources[c]];
+      if (component == componentOf[graph.targets[c]]) {
+        int loop = loopOf[component];
+        connectionIds[loop][fill[loop]++] = c;
+      }
+    }
+
+    List<Loop> result = new ArrayList<>(loopCount);
+    for (int i = 0; i < componentCount; ++i) {
+      int loop = loopOf[i];
+      if (loop >= 0) {
+        result.add(new Loop(graph, componentOf, i, loop, nodeIds[loop],
+            connectionIds[loop]));
+      }
+    }
+    return result;
+  }
+
+  public SchematicGraph getGraph() {
+    return graph;
+  }
+
+  public int getComponentCount() {
+    return componentCount;
+  }
+
+  /**
+   * @return the index of the component of the given node; components are
+   * numbered in reverse topological order, so every connection between two
+   * components goes from a higher index to a lower one
+   */
+  public int getComponent(int node) {
+    return componentOf[node];
+  }
+
+  public int getComponent(NodeValue node) {
+    int id = graph.getNodeId(node);
+    if (id < 0) {
+      throw new NoSuchElementException();
+    }
+    return componentOf[id];
+  }
+
+  public boolean hasLoops() {
+    return !loops.isEmpty();
+  }
+
+  public List<Loop> getLoops() {
+    return loops;
+  }
+
+}
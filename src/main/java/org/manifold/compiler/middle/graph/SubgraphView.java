@@ -0,0 +1,102 @@
+package org.manifold.compiler.middle.graph;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+
+/*
+ * A view of the nodes to which some labelling of the graph (partitions,
+ * components, ...) gives the same label. The labels array is shared by all
+ * of the views of one labelling.
+ */
+class SubgraphView implements SchematicView {
+
+  protected final SchematicGraph graph;
+  private final int[] labels;
+  private final int label;
+  private final int[] nodeIds;
+  private final int[] connectionIds;
+
+  SubgraphView(SchematicGraph graph, int[] labels, int label, int[] nodeIds,
+      int[] connectionIds) {
+    this.graph = graph;
+    this.labels = labels;
+    this.label = label;
+    this.nodeIds = nodeIds;
+    this.connectionIds = connectionIds;
+  }
+
+  @Override
+  public SchematicGraph getGraph() {
+    return graph;
+  }
+
+  @Override
+  public int getNodeCount() {
+    return nodeIds.length;
+  }
+
+  @Override
+  public int getNodeId(int i) {
+    return nodeIds[i];
+  }
+
+  @Override
+  public List<NodeValue> getNodes() {
+    return new AbstractList<NodeValue>() {
+      @Override
+      public NodeValue get(int i) {
+        return graph.nodes[nodeIds[i]];
+      }
+
+      @Override
+      public int size() {
+        return nodeIds.length;
+      }
+    };
+  }
+
+  @Override
+  public boolean containsNode(NodeValue node) {
+    int id = graph.getNodeId(node);
+    return id >= 0 && labels[id] == label;
+  }
+
+  @Override
+  public boolean containsNodeId(int node) {
+    return labels[node] == label;
+  }
+
+  @Override
+  public int getConnectionCount() {
+    return connectionIds.length;
+  }
+
+  @Override
+  public int getConnectionId(int i) {
+    return connectionIds[i];
+  }
+
+  @Override
+  public List<ConnectionValue> getConnections() {
+    return connectionList(graph, connectionIds);
+  }
+
+  static List<ConnectionValue> connectionList(SchematicGraph graph,
+      int[] connectionIds) {
+    return new AbstractList<ConnectionValue>() {
+      @Override
+      public ConnectionValue get(int i) {
+        return graph.connections[connectionIds[i]];
+      }
+
+      @Override
+      public int size() {
+        return connectionIds.length;
+      }
+    };
+  }
+
+}
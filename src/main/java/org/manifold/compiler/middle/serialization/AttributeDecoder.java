@@ -0,0 +1,77 @@
+package org.manifold.compiler.middle.serialization;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.manifold.compiler.ConnectionTypeValue;
+import org.manifold.compiler.ConstraintType;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.TypeTypeValue;
+import org.manifold.compiler.TypeValue;
+import org.manifold.compiler.UndeclaredAttributeException;
+import org.manifold.compiler.Value;
+import org.manifold.compiler.middle.SymbolTable;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Decodes the attributes of the instances of one node, port or constraint
+ * type. What decoding each attribute takes -- its type, and whether its
+ * value may be the name of a declared value rather than a literal -- is
+ * worked out once, when the decoder is built for the type, instead of for
+ * every instance.
+ */
+class AttributeDecoder {
+
+  private static class Slot {
+    private final TypeValue type;
+    // whether a JSON string is first looked up as a reference
+    private final boolean byReference;
+
+    Slot(TypeValue type) {
+      this.type = type;
+      this.byReference = type instanceof TypeTypeValue
+          || type instanceof PortTypeValue
+          || type instanceof NodeTypeValue
+          || type instanceof ConstraintType
+          || type instanceof ConnectionTypeValue;
+    }
+  }
+
+  private final Map<String, Slot> slots = new HashMap<>();
+
+  AttributeDecoder(Map<String, TypeValue> attributeTypes) {
+    attributeTypes.forEach((name, type) -> slots.put(name, new Slot(type)));
+  }
+
+  /**
+   * @param json the object holding the attributes, or null if there are none
+   */
+  Map<String, Value> decode(SymbolTable symbols, JsonObject json)
+      throws UndeclaredAttributeException {
+    if (json == null) {
+      return new HashMap<>();
+    }
+    Map<String, Value> values = new HashMap<>();
+    for (Entry<String, JsonElement> entry : json.entrySet()) {
+      Slot slot = slots.get(entry.getKey());
+      if (slot == null) {
+        throw new UndeclaredAttributeException(entry.getKey());
+      }
+      JsonElement element = entry.getValue();
+      Value value = null;
+      if (slot.byReference && element.isJsonPrimitive()) {
+        value = symbols.resolve(slot.type, element.getAsString());
+      }
+      if (value == null) {
+        value = slot.type.instantiate(element);
+      }
+      values.put(entry.getKey(), value);
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,88 @@
+package org.manifold.compiler.middle.serialization;
+
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.UndeclaredIdentifierException;
+import org.manifold.compiler.middle.Schematic;
+
+/**
+ * Resolves the "node:port" references of connection endpoints without
+ * splitting them into strings. The node part is compared in place with
+ * the name of the node last resolved, which it usually is, as connections
+ * tend to be grouped by node; only a different node is looked up by name.
+ * The port part is matched in place against the port names of the node's
+ * type, of which there are few.
+ *
+ * References are taken as CharSequences, so that a streaming reader can
+ * pass a buffer it reuses for every token.
+ */
+class PortReferenceResolver {
+
+  private final Schematic schematic;
+  private final char delimiter;
+
+  private String lastNodeName = null;
+  private NodeValue lastNode = null;
+
+  PortReferenceResolver(Schematic schematic) {
+    this.schematic = schematic;
+    this.delimiter = SerializationConsts.GlobalConsts.NODE_PORT_DELIM
+        .charAt(0);
+  }
+
+  PortValue resolve(CharSequence ref) throws UndeclaredIdentifierException {
+    int delim = indexOf(ref, delimiter);
+    if (delim < 0) {
+      throw new UndeclaredIdentifierException(ref.toString());
+    }
+    NodeValue node = resolveNode(ref, delim);
+    NodeTypeValue type = (NodeTypeValue) node.getType();
+    for (int slot = 0; slot < type.getPortCount(); ++slot) {
+      if (regionEquals(ref, delim + 1, ref.length(),
+          type.getPortName(slot))) {
+        return node.getPort(slot);
+      }
+    }
+    throw new UndeclaredIdentifierException(
+        ref.subSequence(delim + 1, ref.length()).toString());
+  }
+
+  private NodeValue resolveNode(CharSequence ref, int end)
+      throws UndeclaredIdentifierException {
+    if (lastNode != null && regionEquals(ref, 0, end, lastNodeName)) {
+      return lastNode;
+    }
+    String nodeName = ref.subSequence(0, end).toString();
+    NodeValue node = schematic.findNode(nodeName);
+    if (node == null) {
+      throw new UndeclaredIdentifierException(nodeName);
+    }
+    lastNodeName = nodeName;
+    lastNode = node;
+    return node;
+  }
+
+  private static int indexOf(CharSequence s, char c) {
+    for (int i = 0; i < s.length(); ++i) {
+      if (s.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean regionEquals(CharSequence s, int start, int end,
+      String name) {
+    if (end - start != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); ++i) {
+      if (s.charAt(start + i) != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -10,8 +10,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import org.manifold.compiler.*;
 import org.manifold.compiler.middle.Schematic;
 import org.manifold.compiler.middle.SchematicException;
@@ -23,38 +21,25 @@ import com.google.gson.JsonSyntaxException;
 
 public class SchematicDeserializer implements SerializationConsts {
 
-  /**
-   * A map of all non-primitive components (node, port, connection, map)
-   * from their names in the schematic. This is done since schematic keeps
-   * them in separate maps with different methods, making it difficult
-   * to deserialize references to a previously defined value just by
-   * the reference string. This solves that, yay!
-   *
-   * Except for types, they all have the same TypeValue (TypeTypeValue)
-   * but are still kept in different tables. I'm just going to assume no
-   * collision and keep my sanity.
-   *
-   * Perhaps one day refactor Schematic to use this style of table so things
-   * can be handled more generically
-   */
-  private class ComponentTable {
-    private Table<TypeValue, String, Value> compTable = HashBasedTable.create();
-
-    public void put(String key, Value val) {
-      compTable.put(val.getType(), key, val);
-    }
-
-    public Value get(TypeValue type, String key) {
-      return compTable.get(type, key);
-    }
-
-    public boolean contains(TypeValue type, String key) {
-      return compTable.contains(type, key);
+  // shares the attributes of identical nodes, ports and constraints of the
+  // schematic being read; only kept while it is read, so that a reused
+  // deserializer does not hold on to the schematics it has read
+  private AttributesInterner attributesInterner = null;
+
+  // the attribute decoders of the node, port and constraint types of the
+  // schematic being read, built as the types are first used
+  private final Map<TypeValue, AttributeDecoder> attributeDecoders =
+      new HashMap<>();
+
+  private AttributeDecoder getAttributeDecoder(TypeValue type) {
+    AttributeDecoder decoder = attributeDecoders.get(type);
+    if (decoder == null) {
+      decoder = new AttributeDecoder(type.getAttributes());
+      attributeDecoders.put(type, decoder);
     }
+    return decoder;
   }
 
-  private ComponentTable compTable = new ComponentTable();
-
   private Map<String, TypeValue> getTypeDefAttributes(Schematic sch,
       JsonObject obj) throws UndeclaredIdentifierException {
     JsonObject attributeMapJson = obj.getAsJsonObject(GlobalConsts.ATTRIBUTES);
@@ -76,8 +61,7 @@ public class SchematicDeserializer implements SerializationConsts {
         typeValue = deserializeTypeValue(sch, elem);
       } else {
         String typeName = attrEntry.getValue().getAsString();
-        typeValue = (TypeValue) compTable.get(
-            TypeTypeValue.getInstance(), typeName);
+        typeValue = sch.getSymbolTable().findType(typeName);
       }
       attributeMap.put(attrEntry.getKey(), typeValue);
     }
@@ -86,39 +70,9 @@ public class SchematicDeserializer implements SerializationConsts {
   }
 
   private Map<String, Value> getValueAttributes(Schematic sch,
-      Map<String, TypeValue> expectedTypes, JsonObject obj)
-      throws UndeclaredIdentifierException, UndeclaredAttributeException {
-    JsonObject attributeMapJson = obj.getAsJsonObject(GlobalConsts.ATTRIBUTES);
-    HashMap<String, Value> attributeMap = new HashMap<>();
-
-    if (attributeMapJson == null) {
-      return attributeMap;
-    }
-
-    for (Entry<String, JsonElement> attrEntry : attributeMapJson.entrySet()) {
-      TypeValue type = expectedTypes.get(attrEntry.getKey());
-      JsonElement value = attrEntry.getValue();
-
-      if (type == null) {
-        throw new UndeclaredAttributeException(attrEntry.getKey());
-      }
-
-      Value attrValue;
-      if (value.isJsonPrimitive() && compTable.contains(type, value.getAsString())) {
-        attrValue = compTable.get(type, value.getAsString());
-      } else {
-        attrValue = type.instantiate(value);
-      }
-      attributeMap.put(attrEntry.getKey(), attrValue);
-    }
-    return attributeMap;
-  }
-
-  private PortValue getPortValue(Schematic sch, String ref)
-      throws UndeclaredIdentifierException {
-    int delim = ref.indexOf(GlobalConsts.NODE_PORT_DELIM);
-    NodeValue node = sch.getNode(ref.substring(0, delim));
-    return node.getPort(ref.substring(delim + 1));
+      TypeValue type, JsonObject obj) throws UndeclaredAttributeException {
+    return getAttributeDecoder(type).decode(sch.getSymbolTable(),
+        obj.getAsJsonObject(GlobalConsts.ATTRIBUTES));
   }
 
   private TypeValue deserializeTypeValue(Schematic sch, JsonElement el)
@@ -176,7 +130,6 @@ public class SchematicDeserializer implements SerializationConsts {
     for (Entry<String, JsonElement> entry : in.entrySet()) {
       TypeValue udt = deserializeTypeValue(sch, entry.getValue());
       UserDefinedTypeValue newType = new UserDefinedTypeValue(udt, entry.getKey());
-      compTable.put(entry.getKey(), newType);
       sch.addUserDefinedType(newType);
     }
   }
@@ -219,7 +172,6 @@ public class SchematicDeserializer implements SerializationConsts {
         portTypeValue = new PortTypeValue(signalType, attributeMap, supertype);
       }
 
-      compTable.put(entry.getKey(), portTypeValue);
       sch.addPortType(entry.getKey(), portTypeValue);
     }
   }
@@ -261,7 +213,6 @@ public class SchematicDeserializer implements SerializationConsts {
       } else {
         nodeTypeValue = new NodeTypeValue(attributeMap, portMap, supertype);
       }
-      compTable.put(entry.getKey(), nodeTypeValue);
       sch.addNodeType(entry.getKey(), nodeTypeValue);
     }
   }
@@ -291,7 +242,6 @@ public class SchematicDeserializer implements SerializationConsts {
       } else {
         constraintType = new ConstraintType(attributeMap, supertype);
       }
-      compTable.put(entry.getKey(), constraintType);
       sch.addConstraintType(entry.getKey(), constraintType);
     }
   }
@@ -327,29 +277,26 @@ public class SchematicDeserializer implements SerializationConsts {
 
       NodeTypeValue nodeType = sch
           .getNodeType(nodeDef.get(GlobalConsts.TYPE).getAsString());
-      Map<String, Value> attributeMap = getValueAttributes(sch, nodeType
-          .getAttributes(), nodeDef);
+      Map<String, Value> attributeMap = getValueAttributes(sch, nodeType,
+          nodeDef);
       Map<String, Map<String, Value>> portAttrMap = new HashMap<>();
 
       JsonObject portAttrJson = nodeDef.getAsJsonObject(NodeConsts.PORT_ATTRS);
 
       for (Entry<String, JsonElement> p : portAttrJson.entrySet()) {
-        if (!(nodeType.getPorts().containsKey(p.getKey()))) {
+        int slot = nodeType.getPortSlot(p.getKey());
+        if (slot < 0) {
           throw new UndeclaredIdentifierException(p.getKey());
         }
-        Map<String, TypeValue> expectedPortAttributes =
-            nodeType.getPorts().get(p.getKey()).getAttributes();
         portAttrMap.put(p.getKey(), getValueAttributes(
             sch,
             // here we want the port attribute map
-            expectedPortAttributes,
+            nodeType.getPortType(slot),
             p.getValue().getAsJsonObject()));
       }
 
-      NodeValue node = new NodeValue(nodeType, attributeMap, portAttrMap);
-      compTable.put(entry.getKey(), node);
-      node.getPorts()
-          .forEach((key, port) -> compTable.put(key, port));
+      NodeValue node = new NodeValue(nodeType, attributeMap, portAttrMap,
+          attributesInterner);
       sch.addNode(entry.getKey(), node);
     }
   }
@@ -377,17 +324,17 @@ public class SchematicDeserializer implements SerializationConsts {
       return;
     }
 
+    PortReferenceResolver ports = new PortReferenceResolver(sch);
     for (Entry<String, JsonElement> entry : in.entrySet()) {
       JsonObject obj = entry.getValue().getAsJsonObject();
 
       // TODO: read attributes; non-trivial since we no longer have their type
       Map<String, Value> attributeMap = new HashMap<>();
       ConnectionValue conVal = new ConnectionValue(
-          getPortValue(sch, obj.get(ConnectionConsts.FROM).getAsString()),
-          getPortValue(sch, obj.get(ConnectionConsts.TO).getAsString()),
+          ports.resolve(obj.get(ConnectionConsts.FROM).getAsString()),
+          ports.resolve(obj.get(ConnectionConsts.TO).getAsString()),
           attributeMap);
 
-      compTable.put(entry.getKey(), conVal);
       sch.addConnection(entry.getKey(), conVal);
     }
   }
@@ -418,12 +365,10 @@ public class SchematicDeserializer implements SerializationConsts {
 
       ConstraintType conType = sch.getConstraintType(obj.get(GlobalConsts.TYPE)
           .getAsString());
-      Map<String, Value> attributeMap = getValueAttributes(sch, conType
-          .getAttributes(), obj);
+      Map<String, Value> attributeMap = getValueAttributes(sch, conType, obj);
       ConstraintValue conVal = new ConstraintValue(conType,
-          attributeMap);
+          attributeMap, attributesInterner);
 
-      compTable.put(entry.getKey(), conVal);
       sch.addConstraint(entry.getKey(), conVal);
     }
   }
@@ -431,8 +376,7 @@ public class SchematicDeserializer implements SerializationConsts {
   public Schematic deserialize(JsonObject in) {
     Schematic sch = new Schematic(
         in.get(GlobalConsts.SCHEMATIC_NAME).getAsString());
-
-    sch.getUserDefinedTypes().forEach(compTable::put);
+    attributesInterner = new AttributesInterner();
 
     try {
       deserializeUserDefinedTypes(sch, in.getAsJsonObject(
@@ -448,6 +392,9 @@ public class SchematicDeserializer implements SerializationConsts {
           in.getAsJsonObject(SchematicConsts.CONSTRAINT_DEFS));
     } catch (Exception e) {
       Throwables.propagate(e);
+    } finally {
+      attributesInterner = null;
+      attributeDecoders.clear();
     }
 
     return sch;
@@ -20,7 +20,6 @@ import static org.manifold.compiler.middle.serialization.SerializationConsts.Sch
 import static org.manifold.compiler.middle.serialization.SerializationConsts.UDTConsts.ARRAY_ELEMENT_TYPE;
 import static org.manifold.compiler.middle.serialization.SerializationConsts.UDTConsts.INFERRED_TYPE;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.manifold.compiler.ArrayTypeValue;
@@ -40,6 +39,7 @@ import org.manifold.compiler.UndefinedBehaviourError;
 import org.manifold.compiler.UserDefinedTypeValue;
 import org.manifold.compiler.Value;
 import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SymbolTable;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -49,16 +49,14 @@ public class SchematicSerializer {
   private Schematic schematic;
   private JsonObject schJson;
 
-  // This is actually duplicated (though less generally) in schematic itself
-  // TODO: perhaps merge the 2?
-  // reverse maps of java obj -> name in schematics
-  private Map<Value, String> rValueMap;
+  // names of the schematic's types and instances, by object
+  private SymbolTable symbols;
 
   private SchematicSerializer(Schematic sch) {
     schematic = sch;
     schJson = new JsonObject();
     schJson.addProperty(SCHEMATIC_NAME, sch.getName());
-    rValueMap = new HashMap<>();
+    symbols = sch.getSymbolTable();
   }
 
   private JsonObject serializeTypeAttr(
@@ -74,10 +72,11 @@ public class SchematicSerializer {
           JsonObject inferredType = new JsonObject();
           inferredType.add(TYPE, new JsonPrimitive("Inferred"));
           inferredType.add(INFERRED_TYPE,
-              new JsonPrimitive(rValueMap.get(inferredVal.getInferredType())));
+              new JsonPrimitive(symbols.getName(
+                  inferredVal.getInferredType())));
           type = inferredType;
         } else {
-          type = new JsonPrimitive(rValueMap.get(val));
+          type = new JsonPrimitive(symbols.getName(val));
         }
         typeAttrJson.add(key, type);
       });
@@ -88,12 +87,12 @@ public class SchematicSerializer {
   private JsonObject serializeValueAttr(Map<String, Value> valueAttr) {
     JsonObject attrs = new JsonObject();
     // unlike types which are always back references, values come in 2 flavours
-    // if they exist in the rValueMap, then they are a reference
+    // if they are named in the symbol table, then they are a reference
     // otherwise they are a primitive and we call toString
     valueAttr.forEach((key, val) -> {
-        JsonElement elem = rValueMap.containsKey(val) ?
-            new JsonPrimitive(rValueMap.get(val)) :
-            val.toJson();
+        String name = symbols.getName(val);
+        JsonElement elem = name != null ? new JsonPrimitive(name)
+            : val.toJson();
         attrs.add(key, elem);
       });
     return attrs;
@@ -102,14 +101,7 @@ public class SchematicSerializer {
   // serializeAsAttr from/to ports in the form "nodeName:portName"
   private JsonPrimitive serializeConnectedPort(PortValue port) {
     String nodeName = schematic.getNodeName(port.getParent());
-    String portName = null;
-    for (Map.Entry<String, PortValue> entry
-        : port.getParent().getPorts().entrySet()) {
-      if (entry.getValue().equals(port)) {
-        portName = entry.getKey();
-        break;
-      }
-    }
+    String portName = port.getParent().getPortName(port);
     if (portName == null) {
       throw new UndefinedBehaviourError("node '" + nodeName
           + "' does not contain serialized port");
@@ -122,10 +114,7 @@ public class SchematicSerializer {
       Map<String, UserDefinedTypeValue> userDefTypes) {
     JsonObject collection = new JsonObject();
 
-    PRIMITIVE_TYPES.forEach((key, val) -> rValueMap.put(val, key));
-
     userDefTypes.forEach((key, val) -> {
-        rValueMap.put(val, key);
         // do not serializeAsAttr primitive types
         if (PRIMITIVE_TYPES.keySet().contains(key)) {
           return;
@@ -181,24 +170,21 @@ public class SchematicSerializer {
     JsonObject collection = new JsonObject();
 
     TypeDependencyTree typeDeps = new TypeDependencyTree();
-    portTypes.forEach((key, val) -> {
-        typeDeps.addType(val);
-        rValueMap.put(val, key);
-      });
+    portTypes.values().forEach(typeDeps::addType);
     // now add each PortTypeValue to the collection
     typeDeps.forEachDFS((t) -> {
         PortTypeValue val = (PortTypeValue) t;
-        String key = rValueMap.get(val);
+        String key = symbols.getName(val);
 
         JsonObject single = new JsonObject();
 
         TypeValue supertype = t.getSupertype();
         if (!(supertype.equals(TypeTypeValue.getInstance()))) {
-          single.addProperty(SUPERTYPE, rValueMap.get(supertype));
+          single.addProperty(SUPERTYPE, symbols.getName(supertype));
         }
 
         TypeValue signalType = val.getSignalType();
-        single.addProperty(SIGNAL_TYPE, rValueMap.get(signalType));
+        single.addProperty(SIGNAL_TYPE, symbols.getName(signalType));
 
         single.add(ATTRIBUTES, serializeTypeAttr(val.getAttributes()));
         collection.add(key, single);
@@ -212,26 +198,23 @@ public class SchematicSerializer {
     JsonObject collection = new JsonObject();
 
     TypeDependencyTree typeDeps = new TypeDependencyTree();
-    nodeTypes.forEach((key, val) -> {
-        typeDeps.addType(val);
-        rValueMap.put(val, key);
-      });
+    nodeTypes.values().forEach(typeDeps::addType);
     // now add each NodeTypeValue to the collection
     typeDeps.forEachDFS((t) -> {
         NodeTypeValue val = (NodeTypeValue) t;
-        String key = rValueMap.get(val);
+        String key = symbols.getName(val);
 
         JsonObject single = new JsonObject();
         single.add(ATTRIBUTES, serializeTypeAttr(val.getAttributes()));
 
         JsonObject ports = new JsonObject();
         val.getPorts().forEach((pkey, pval) -> {
-            ports.addProperty(pkey, rValueMap.get(pval));
+            ports.addProperty(pkey, symbols.getName(pval));
           });
 
         TypeValue supertype = t.getSupertype();
         if (!(supertype.equals(TypeTypeValue.getInstance()))) {
-          single.addProperty(SUPERTYPE, rValueMap.get(supertype));
+          single.addProperty(SUPERTYPE, symbols.getName(supertype));
         }
 
         single.add(PORT_MAP, ports);
@@ -245,21 +228,18 @@ public class SchematicSerializer {
     JsonObject collection = new JsonObject();
 
     TypeDependencyTree typeDeps = new TypeDependencyTree();
-    constraintTypes.forEach((key, val) -> {
-        typeDeps.addType(val);
-        rValueMap.put(val, key);
-      });
+    constraintTypes.values().forEach(typeDeps::addType);
     // now add each ConstraintType to the collection
     typeDeps.forEachDFS((t) -> {
         ConstraintType val = (ConstraintType) t;
-        String key = rValueMap.get(val);
+        String key = symbols.getName(val);
 
         JsonObject single = new JsonObject();
         single.add(ATTRIBUTES, serializeTypeAttr(val.getAttributes()));
 
         TypeValue supertype = t.getSupertype();
         if (!(supertype.equals(TypeTypeValue.getInstance()))) {
-          single.addProperty(SUPERTYPE, rValueMap.get(supertype));
+          single.addProperty(SUPERTYPE, symbols.getName(supertype));
         }
 
         collection.add(key, single);
@@ -272,17 +252,16 @@ public class SchematicSerializer {
     JsonObject collection = new JsonObject();
 
     nodes.forEach((key, val) -> {
-        rValueMap.put(val, key);
         JsonObject single = new JsonObject();
-        single.add(TYPE, new JsonPrimitive(rValueMap.get(val.getType())));
+        single.add(TYPE, new JsonPrimitive(symbols.getName(val.getType())));
         single.add(ATTRIBUTES, serializeValueAttr(
             val.getAttributes().getAll()));
         JsonObject portAttrs = new JsonObject();
-        val.getPorts().forEach((pkey, pval) -> {
-            rValueMap.put(pval, pkey);
-            portAttrs.add(
-                pkey, serializeValueAttr(pval.getAttributes().getAll()));
-          });
+        NodeTypeValue type = (NodeTypeValue) val.getType();
+        for (int slot = 0; slot < val.getPortCount(); ++slot) {
+          portAttrs.add(type.getPortName(slot), serializeValueAttr(
+              val.getPortAttributes(slot).getAll()));
+        }
         single.add(PORT_ATTRS, portAttrs);
         collection.add(key, single);
       });
@@ -294,7 +273,6 @@ public class SchematicSerializer {
     JsonObject collection = new JsonObject();
 
     connections.forEach((key, val) -> {
-        rValueMap.put(val, key);
         JsonObject single = new JsonObject();
         single.add(ATTRIBUTES, serializeValueAttr(
             val.getAttributes().getAll()));
@@ -309,9 +287,8 @@ public class SchematicSerializer {
   public void addConstraints(Map<String, ConstraintValue> constraints) {
     JsonObject collection = new JsonObject();
     constraints.forEach((key, val) -> {
-        rValueMap.put(val, key);
         JsonObject single = new JsonObject();
-        single.add(TYPE, new JsonPrimitive(rValueMap.get(
+        single.add(TYPE, new JsonPrimitive(symbols.getName(
             val.getType())));
         single.add(ATTRIBUTES, serializeValueAttr(
             val.getAttributes().getAll()));
@@ -0,0 +1,62 @@
+package org.manifold.compiler;
+
+import java.util.Map;
+
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Helpers for building small schematics out of nodes with a boolean
+ * attribute and one input and one output port, for the tests of the
+ * schematic's incremental structures (digest, diffs and patches,
+ * listeners, symbol table).
+ */
+final class SchematicFixtures {
+
+  static final TypeValue BOOL_TYPE = BooleanTypeValue.getInstance();
+
+  static final PortTypeValue PORT_TYPE = new PortTypeValue(BOOL_TYPE,
+      ImmutableMap.of());
+
+  static final NodeTypeValue NODE_TYPE = new NodeTypeValue(
+      ImmutableMap.of("v", BOOL_TYPE),
+      ImmutableMap.of("in", PORT_TYPE, "out", PORT_TYPE));
+
+  private static final Map<String, Map<String, Value>> PORT_ATTRS =
+      ImmutableMap.of("in", ImmutableMap.of(), "out", ImmutableMap.of());
+
+  private SchematicFixtures() {
+  }
+
+  /**
+   * @return an empty schematic that declares PORT_TYPE as "p" and
+   * NODE_TYPE as "n"
+   */
+  static Schematic newSchematic() throws SchematicException {
+    Schematic sch = new Schematic("test");
+    sch.addPortType("p", PORT_TYPE);
+    sch.addNodeType("n", NODE_TYPE);
+    return sch;
+  }
+
+  static NodeValue makeNode(boolean v) throws SchematicException {
+    return new NodeValue(NODE_TYPE,
+        ImmutableMap.of("v", BooleanValue.getInstance(v)), PORT_ATTRS);
+  }
+
+  static NodeValue makeNode() throws SchematicException {
+    return makeNode(false);
+  }
+
+  /**
+   * Connect the output of one node to the input of another.
+   */
+  static ConnectionValue connect(NodeValue from, NodeValue to)
+      throws SchematicException {
+    return new ConnectionValue(from.getPort("out"), to.getPort("in"),
+        ImmutableMap.of());
+  }
+
+}
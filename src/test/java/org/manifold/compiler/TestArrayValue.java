@@ -2,9 +2,11 @@ package org.manifold.compiler;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
@@ -12,6 +14,8 @@ import org.manifold.compiler.middle.SchematicException;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
 
 public class TestArrayValue {
   private static final IntegerTypeValue intType =
@@ -61,4 +65,169 @@ public class TestArrayValue {
     List<Value> boolList = ImmutableList.of(BooleanValue.getInstance(true));
     new ArrayValue(intArrayType, boolList);
   }
+
+  private static JsonArray jsonArray(String... values) {
+    JsonArray arr = new JsonArray();
+    for (String v : values) {
+      arr.add(new JsonPrimitive(v));
+    }
+    return arr;
+  }
+
+  private static JsonArray numberArray(Number... values) {
+    JsonArray arr = new JsonArray();
+    for (Number v : values) {
+      arr.add(new JsonPrimitive(v));
+    }
+    return arr;
+  }
+
+  @Test
+  public void testIntArrayCopiesCallersArray() throws TypeMismatchException {
+    int[] values = {3, 14};
+    IntArrayValue arr = new IntArrayValue(intArrayType, values);
+    values[0] = 15;
+    assertEquals(3, arr.getInt(0));
+  }
+
+  @Test
+  public void testInstantiateIntArrayIsUnboxed() {
+    Value v = intArrayType.instantiate(jsonArray("3", "14", "-15"));
+    assertTrue(v instanceof IntArrayValue);
+    IntArrayValue arr = (IntArrayValue) v;
+    assertEquals(3, arr.length());
+    assertEquals(-15, arr.getInt(2));
+    assertEquals(14, ((IntegerValue) arr.get(1)).toInt());
+    assertTrue(arr.isElaborationtimeKnowable());
+    assertFalse(arr.isRuntimeKnowable());
+    assertEquals(numberArray(3, 14, -15), arr.toJson());
+  }
+
+  @Test
+  public void testInstantiateRealArrayIsUnboxed() {
+    ArrayTypeValue realArrayType =
+        new ArrayTypeValue(RealTypeValue.getInstance());
+    Value v = realArrayType.instantiate(jsonArray("0.5", "2.0"));
+    assertTrue(v instanceof RealArrayValue);
+    assertEquals(0.5, ((RealArrayValue) v).getDouble(0), 0.0);
+    assertEquals(numberArray(0.5, 2.0), v.toJson());
+  }
+
+  @Test
+  public void testInstantiateBoolArrayIsUnboxed() {
+    ArrayTypeValue boolArrayType =
+        new ArrayTypeValue(BooleanTypeValue.getInstance());
+    Value v = boolArrayType.instantiate(jsonArray("true", "false", "true"));
+    assertTrue(v instanceof BoolArrayValue);
+    BoolArrayValue arr = (BoolArrayValue) v;
+    assertEquals(3, arr.length());
+    assertTrue(arr.getBoolean(2));
+    assertSame(BooleanValue.getInstance(false), arr.get(1));
+    assertTrue(arr.isRuntimeKnowable());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testBoolArrayBounds() throws TypeMismatchException {
+    new BoolArrayValue(new ArrayTypeValue(BooleanTypeValue.getInstance()),
+        new boolean[] {true}).get(1);
+  }
+
+  @Test
+  public void testInstantiateStringArraySharesValues() {
+    ArrayTypeValue stringArrayType =
+        new ArrayTypeValue(StringTypeValue.getInstance());
+    Value v = stringArrayType.instantiate(jsonArray("a", "b", "a"));
+    assertTrue(v instanceof StringArrayValue);
+    StringArrayValue arr = (StringArrayValue) v;
+    assertEquals("b", arr.getString(1));
+    assertSame(arr.get(0), arr.get(2));
+    assertEquals(jsonArray("a", "b", "a"), arr.toJson());
+  }
+
+  @Test
+  public void testInstantiateAliasedElementType() {
+    UserDefinedTypeValue alias = new UserDefinedTypeValue(intType, "Word");
+    Value v = new ArrayTypeValue(alias).instantiate(jsonArray("1", "2"));
+    assertTrue(v instanceof IntArrayValue);
+    assertEquals(2, ((IntArrayValue) v).getInt(1));
+  }
+
+  @Test(expected = TypeMismatchException.class)
+  public void testInvalidPrimitiveElementType() throws TypeMismatchException {
+    new IntArrayValue(nodeArrayType, new int[] {1});
+  }
+
+  @Test
+  public void testLargeArrayIsDecodedLazily() {
+    Integer[] values = new Integer[ArrayTypeValue.LAZY_DECODE_THRESHOLD];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = i;
+    }
+    JsonArray json = numberArray(values);
+    Value v = intArrayType.instantiate(json);
+    assertTrue(v instanceof LazyArrayValue);
+    LazyArrayValue arr = (LazyArrayValue) v;
+    assertEquals(values.length, arr.length());
+    assertFalse(arr.isDecoded(7));
+    assertEquals(7, ((IntegerValue) arr.get(7)).toInt());
+    assertTrue(arr.isDecoded(7));
+    // only the element that was looked at
+    assertFalse(arr.isDecoded(8));
+    assertSame(arr.get(7), arr.get(7));
+  }
+
+  @Test
+  public void testLazyArrayJsonMatchesEagerArray() {
+    String[] values = new String[ArrayTypeValue.LAZY_DECODE_THRESHOLD];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = i % 3 == 0 ? "NaN" : Double.toString(i / 4.0);
+    }
+    ArrayTypeValue realArrayType =
+        new ArrayTypeValue(RealTypeValue.getInstance());
+    Value lazy = realArrayType.instantiate(jsonArray(values));
+    Value eager = realArrayType.instantiate(
+        jsonArray(Arrays.copyOf(values, values.length - 1)));
+    assertTrue(lazy instanceof LazyArrayValue);
+    assertTrue(eager instanceof RealArrayValue);
+    JsonArray lazyJson = (JsonArray) lazy.toJson();
+    JsonArray eagerJson = (JsonArray) eager.toJson();
+    for (int i = 0; i < eagerJson.size(); ++i) {
+      assertEquals(eagerJson.get(i), lazyJson.get(i));
+    }
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testLazyArrayReportsBadElementOnLoad() {
+    String[] values = new String[ArrayTypeValue.LAZY_DECODE_THRESHOLD];
+    Arrays.fill(values, "1");
+    values[values.length - 1] = "x";
+    intArrayType.instantiate(jsonArray(values));
+  }
+
+  @Test
+  public void testLazyArrayKnowabilityDoesNotDecode() {
+    String[] values = new String[ArrayTypeValue.LAZY_DECODE_THRESHOLD];
+    Arrays.fill(values, "1");
+    LazyArrayValue arr =
+        (LazyArrayValue) intArrayType.instantiate(jsonArray(values));
+    assertTrue(arr.isElaborationtimeKnowable());
+    assertFalse(arr.isRuntimeKnowable());
+    assertFalse(arr.isDecoded(0));
+  }
+
+  @Test
+  public void testSmallArrayIsDecodedCompactly() {
+    Value v = intArrayType.instantiate(numberArray(1, 2, 3));
+    assertTrue(v instanceof IntArrayValue);
+  }
+
+  @Test
+  public void testNestedArrayKnowability() throws SchematicException {
+    ArrayTypeValue nestedType = new ArrayTypeValue(nodeArrayType);
+    ArrayValue inner = new ArrayValue(nodeArrayType, ImmutableList.of(
+        new NodeValue(nodeType, ImmutableMap.of(), ImmutableMap.of())));
+    ArrayValue outer = new ArrayValue(nestedType, ImmutableList.of(inner));
+    assertFalse(outer.isElaborationtimeKnowable());
+    assertTrue(outer.isRuntimeKnowable());
+  }
 }
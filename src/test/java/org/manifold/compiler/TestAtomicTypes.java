@@ -3,9 +3,13 @@ package org.manifold.compiler;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
 public class TestAtomicTypes {
   
   @Test
@@ -31,4 +35,22 @@ public class TestAtomicTypes {
     assertFalse(p1.equals(null));
   }
 
+  @Test
+  public void testIntegerJson() {
+    IntegerTypeValue intType = IntegerTypeValue.getInstance();
+    JsonPrimitive json = (JsonPrimitive) new IntegerValue(-42).toJson();
+    assertTrue(json.isNumber());
+    assertEquals(-42, ((IntegerValue) intType.instantiate(json)).toInt());
+    // parsed numbers, and strings as written before
+    assertEquals(7, ((IntegerValue) intType.instantiate(
+        new JsonParser().parse("7"))).toInt());
+    assertEquals(7, ((IntegerValue) intType.instantiate(
+        new JsonPrimitive("7"))).toInt());
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testIntegerJsonRejectsFractions() {
+    IntegerTypeValue.getInstance().instantiate(new JsonParser().parse("1.5"));
+  }
+
 }
@@ -0,0 +1,131 @@
+package org.manifold.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.manifold.compiler.middle.SchematicException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestAttributesInterner {
+
+  private static final TypeValue intType = IntegerTypeValue.getInstance();
+  private static final TypeValue stringType = StringTypeValue.getInstance();
+  private static final Map<String, TypeValue> types =
+      ImmutableMap.of("width", intType, "name", stringType);
+
+  private Attributes make(int width, String name) throws SchematicException {
+    return new Attributes(types, ImmutableMap.of(
+        "width", new IntegerValue(width),
+        "name", new StringValue(stringType, name)));
+  }
+
+  @Test
+  public void testEqualAttributesAreShared() throws SchematicException {
+    AttributesInterner interner = new AttributesInterner();
+    Attributes first = interner.intern(make(8, "ram"));
+    assertSame(first, interner.intern(make(8, "ram")));
+    assertNotSame(first, interner.intern(make(16, "ram")));
+    assertNotSame(first, interner.intern(make(8, "rom")));
+    assertEquals(3, interner.size());
+  }
+
+  @Test
+  public void testArraysAreComparedByContent() throws SchematicException {
+    ArrayTypeValue arrayType = new ArrayTypeValue(intType);
+    Map<String, TypeValue> arrayTypes = ImmutableMap.of("init", arrayType);
+    AttributesInterner interner = new AttributesInterner();
+    Attributes a = interner.intern(new Attributes(arrayTypes,
+        ImmutableMap.of("init", new ArrayValue(arrayType, ImmutableList.of(
+            new IntegerValue(1), new IntegerValue(2))))));
+    Attributes b = interner.intern(new Attributes(arrayTypes,
+        ImmutableMap.of("init", new ArrayValue(arrayType, ImmutableList.of(
+            new IntegerValue(1), new IntegerValue(2))))));
+    assertSame(a, b);
+  }
+
+  private static Attributes init(ArrayValue array)
+      throws SchematicException {
+    return new Attributes(ImmutableMap.of("init", array.getType()),
+        ImmutableMap.of("init", array));
+  }
+
+  private static void assertInternedByContent(ArrayValue unboxed,
+      ArrayValue sameUnboxed, ArrayValue sameBoxed, ArrayValue different)
+      throws SchematicException {
+    AttributesInterner interner = new AttributesInterner();
+    Attributes first = interner.intern(init(unboxed));
+    assertSame(first, interner.intern(init(sameUnboxed)));
+    // however the elements are stored
+    assertSame(first, interner.intern(init(sameBoxed)));
+    assertNotSame(first, interner.intern(init(different)));
+  }
+
+  @Test
+  public void testPrimitiveArraysAreComparedByContent()
+      throws SchematicException {
+    ArrayTypeValue intArray = new ArrayTypeValue(intType);
+    assertInternedByContent(
+        new IntArrayValue(intArray, new int[] {1, 2}),
+        new IntArrayValue(intArray, new int[] {1, 2}),
+        new ArrayValue(intArray, ImmutableList.of(
+            new IntegerValue(1), new IntegerValue(2))),
+        new IntArrayValue(intArray, new int[] {2, 1}));
+
+    ArrayTypeValue realArray = new ArrayTypeValue(
+        RealTypeValue.getInstance());
+    assertInternedByContent(
+        new RealArrayValue(realArray, new double[] {0.5, -0.0}),
+        new RealArrayValue(realArray, new double[] {0.5, -0.0}),
+        new ArrayValue(realArray, ImmutableList.of(
+            new RealValue(0.5), new RealValue(-0.0))),
+        new RealArrayValue(realArray, new double[] {0.5, 0.0}));
+
+    ArrayTypeValue boolArray = new ArrayTypeValue(
+        BooleanTypeValue.getInstance());
+    assertInternedByContent(
+        new BoolArrayValue(boolArray, new boolean[] {true, false}),
+        new BoolArrayValue(boolArray, new boolean[] {true, false}),
+        new ArrayValue(boolArray, ImmutableList.of(
+            BooleanValue.getInstance(true), BooleanValue.getInstance(false))),
+        new BoolArrayValue(boolArray, new boolean[] {true, false, false}));
+
+    ArrayTypeValue stringArray = new ArrayTypeValue(stringType);
+    assertInternedByContent(
+        new StringArrayValue(stringArray, new String[] {"a", "b", "a"}),
+        new StringArrayValue(stringArray, new String[] {"a", "b", "a"}),
+        new ArrayValue(stringArray, ImmutableList.of(
+            new StringValue(stringType, "a"),
+            new StringValue(stringType, "b"),
+            new StringValue(stringType, "a"))),
+        new StringArrayValue(stringArray, new String[] {"a", "c", "a"}));
+  }
+
+  @Test
+  public void testNodesShareAttributes() throws SchematicException {
+    PortTypeValue portType = new PortTypeValue(
+        BooleanTypeValue.getInstance(), ImmutableMap.of("drive", intType));
+    NodeTypeValue nodeType = new NodeTypeValue(types,
+        ImmutableMap.of("out", portType));
+    Map<String, Value> attrs = ImmutableMap.of(
+        "width", new IntegerValue(4),
+        "name", new StringValue(stringType, "cell"));
+    Map<String, Map<String, Value>> portAttrs = ImmutableMap.of(
+        "out", ImmutableMap.of("drive", new IntegerValue(2)));
+    Map<String, Map<String, Value>> otherPortAttrs = ImmutableMap.of(
+        "out", ImmutableMap.of("drive", new IntegerValue(2)));
+
+    AttributesInterner interner = new AttributesInterner();
+    NodeValue n0 = new NodeValue(nodeType, attrs, portAttrs, interner);
+    NodeValue n1 = new NodeValue(nodeType, attrs, otherPortAttrs, interner);
+    assertSame(n0.getAttributes(), n1.getAttributes());
+    assertSame(n0.getPort("out").getAttributes(),
+        n1.getPort("out").getAttributes());
+  }
+
+}
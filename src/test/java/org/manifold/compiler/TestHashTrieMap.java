@@ -0,0 +1,174 @@
+package org.manifold.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.manifold.compiler.middle.HashTrieMap;
+
+public class TestHashTrieMap {
+
+  // a key whose hash code is chosen by the test, to force collisions
+  private static class Key {
+    private final int id;
+    private final int hash;
+
+    Key(int id, int hash) {
+      this.id = id;
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).id == id;
+    }
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    HashTrieMap<String, Integer> map = new HashTrieMap<>();
+    assertNull(map.put("a", 1));
+    assertNull(map.put("b", 2));
+    assertEquals(Integer.valueOf(1), map.put("a", 3));
+    assertEquals(2, map.size());
+    assertEquals(Integer.valueOf(3), map.get("a"));
+    assertTrue(map.containsKey("b"));
+    assertEquals(Integer.valueOf(2), map.remove("b"));
+    assertNull(map.remove("b"));
+    assertFalse(map.containsKey("b"));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testMatchesHashMap() {
+    Random random = new Random(42);
+    HashTrieMap<Key, Integer> map = new HashTrieMap<>();
+    Map<Key, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 20000; ++i) {
+      int id = random.nextInt(2000);
+      // few distinct hashes, so that many keys collide completely
+      Key key = new Key(id, id % 3 == 0 ? id % 7 : id * 31);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), map.remove(key));
+      } else {
+        assertEquals(expected.put(key, i), map.put(key, i));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    assertEquals(expected, map);
+    assertEquals(expected, new HashMap<>(map));
+  }
+
+  @Test
+  public void testSnapshotIsIndependent() {
+    HashTrieMap<Integer, Integer> map = new HashTrieMap<>();
+    for (int i = 0; i < 1000; ++i) {
+      map.put(i, i);
+    }
+    HashTrieMap<Integer, Integer> copy = map.snapshot();
+    for (int i = 0; i < 500; ++i) {
+      map.remove(i);
+      copy.put(i, -i);
+    }
+    map.put(5000, 5000);
+    assertEquals(501, map.size());
+    assertEquals(1000, copy.size());
+    assertNull(map.get(10));
+    assertEquals(Integer.valueOf(-10), copy.get(10));
+    assertFalse(copy.containsKey(5000));
+    for (int i = 500; i < 1000; ++i) {
+      assertEquals(Integer.valueOf(i), map.get(i));
+      assertEquals(Integer.valueOf(i), copy.get(i));
+    }
+  }
+
+  @Test
+  public void testPlusAndMinusLeaveOriginalUnchanged() {
+    HashTrieMap<String, Integer> map = new HashTrieMap<>();
+    map.put("a", 1);
+    HashTrieMap<String, Integer> plus = map.plus("b", 2);
+    HashTrieMap<String, Integer> minus = map.minus("a");
+    assertEquals(1, map.size());
+    assertFalse(map.containsKey("b"));
+    assertEquals(2, plus.size());
+    assertTrue(minus.isEmpty());
+  }
+
+  @Test
+  public void testPlusAndMinusSurviveChangesToOriginal() {
+    HashTrieMap<Integer, Integer> map = new HashTrieMap<>();
+    for (int i = 0; i < 100; ++i) {
+      map.put(i, i);
+    }
+    HashTrieMap<Integer, Integer> plus = map.plus(1000, 1000);
+    HashTrieMap<Integer, Integer> minus = map.minus(0);
+    for (int i = 100; i < 200; ++i) {
+      map.put(i, i);
+    }
+    map.put(1, -1);
+    map.remove(2);
+    assertEquals(101, plus.size());
+    assertEquals(99, minus.size());
+    for (int i = 0; i < 100; ++i) {
+      assertEquals(Integer.valueOf(i), plus.get(i));
+    }
+    for (int i = 100; i < 200; ++i) {
+      assertFalse(plus.containsKey(i));
+      assertFalse(minus.containsKey(i));
+    }
+    assertEquals(Integer.valueOf(1), minus.get(1));
+    assertEquals(Integer.valueOf(2), minus.get(2));
+  }
+
+  @Test
+  public void testRemovalCollapsesDeepEntries() {
+    // hashes that agree in their low bits (and two that collide), so that
+    // their entries sit deep in the trie
+    HashTrieMap<Key, Integer> map = new HashTrieMap<>();
+    Map<Key, Integer> expected = new HashMap<>();
+    Key[] keys = new Key[40];
+    for (int i = 0; i < keys.length; ++i) {
+      keys[i] = new Key(i, i < 2 ? 0x7fff0000 : (i << 25) | 0x1ffffff);
+      map.put(keys[i], i);
+      expected.put(keys[i], i);
+    }
+    HashTrieMap<Key, Integer> before = map.snapshot();
+    for (int i = 0; i < keys.length; i += 2) {
+      map.remove(keys[i]);
+      expected.remove(keys[i]);
+      assertEquals(expected, map);
+    }
+    for (Key key : keys) {
+      assertEquals(Integer.valueOf(key.id), before.get(key));
+    }
+    for (int i = 1; i < keys.length; i += 2) {
+      map.remove(keys[i]);
+    }
+    assertTrue(map.isEmpty());
+    assertEquals(keys.length, before.size());
+  }
+
+  @Test(expected = java.util.ConcurrentModificationException.class)
+  public void testIteratorFailsFast() {
+    HashTrieMap<Integer, Integer> map = new HashTrieMap<>();
+    map.put(1, 1);
+    map.put(2, 2);
+    Iterator<Integer> it = map.keySet().iterator();
+    it.next();
+    map.put(3, 3);
+    it.next();
+  }
+
+}
@@ -1,8 +1,13 @@
 package org.manifold.compiler;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
+import org.manifold.compiler.middle.SchematicException;
+
+import com.google.common.collect.ImmutableMap;
 
 import com.google.gson.JsonNull;
 import com.google.gson.JsonPrimitive;
@@ -46,4 +51,15 @@ public class TestInferredType {
     Value withinV = ((InferredValue) v).get();
     assertEquals(BooleanValue.getInstance(false), withinV);
   }
+
+  @Test
+  public void testUnsetValueIsShared() throws SchematicException {
+    assertSame(inferredBoolType.getUnsetValue(),
+        inferredBoolType.instantiate(JsonNull.INSTANCE));
+    // missing inferred attributes get the same value
+    Attributes attrs = new Attributes(
+        ImmutableMap.of("v", inferredBoolType), ImmutableMap.of());
+    assertSame(inferredBoolType.getUnsetValue(), attrs.get("v"));
+    assertFalse(inferredBoolType.getUnsetValue().isSet());
+  }
 }
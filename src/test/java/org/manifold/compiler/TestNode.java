@@ -1,6 +1,8 @@
 package org.manifold.compiler;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -80,6 +82,35 @@ public class TestNode {
     n.getPort("bogus");
   }
 
+  @Test
+  public void testFindPort() throws SchematicException {
+    NodeValue n = new NodeValue(hasNoAttrs, new HashMap<>(), PORT_ATTRS);
+    assertSame(n.getPort(PORT_NAME), n.findPort(PORT_NAME));
+    assertNull(n.findPort("bogus"));
+    assertNull(n.findAttribute("bogus"));
+  }
+
+  @Test
+  public void testGetPortBySlot() throws SchematicException {
+    NodeValue n = new NodeValue(hasNoAttrs, new HashMap<>(), PORT_ATTRS);
+    int slot = hasNoAttrs.getPortSlot(PORT_NAME);
+    assertEquals(1, n.getPortCount());
+    assertSame(n.getPort(PORT_NAME), n.getPort(slot));
+    assertEquals(PORT_NAME, n.getPortName(n.getPort(slot)));
+  }
+
+  @Test
+  public void testAttributelessPortIsStable() throws SchematicException {
+    NodeValue n = new NodeValue(hasNoAttrs, new HashMap<>(), PORT_ATTRS);
+    int slot = hasNoAttrs.getPortSlot(PORT_NAME);
+    assertSame(Attributes.empty(), n.getPortAttributes(slot));
+    PortValue port = n.getPort(slot);
+    assertSame(port, n.getPort(PORT_NAME));
+    assertSame(port, n.getPorts().get(PORT_NAME));
+    assertSame(n, port.getParent());
+    assertSame(Attributes.empty(), port.getAttributes());
+  }
+
   @Test
   public void testPortsWithValidAttributes() throws SchematicException {
     PortTypeValue portTypeWithAttr =
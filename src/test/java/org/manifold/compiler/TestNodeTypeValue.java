@@ -50,4 +50,24 @@ public class TestNodeTypeValue {
     assertTrue(nDerived.getPorts().containsKey("q"));
   }
 
+  @Test
+  public void testPortSlots() {
+    PortTypeValue pType = new PortTypeValue(boolType, noAttributes);
+    PortTypeValue qType = new PortTypeValue(intType, noAttributes);
+    NodeTypeValue nBase = new NodeTypeValue(noAttributes,
+        ImmutableMap.of("z", pType, "a", pType));
+    NodeTypeValue nDerived = new NodeTypeValue(noAttributes,
+        ImmutableMap.of("b", pType, "z", qType), nBase);
+    assertEquals(2, nBase.getPortCount());
+    assertEquals("a", nBase.getPortName(0));
+    assertEquals("z", nBase.getPortName(1));
+    // inherited ports keep their slots, even when redefined
+    assertEquals(3, nDerived.getPortCount());
+    assertEquals(0, nDerived.getPortSlot("a"));
+    assertEquals(1, nDerived.getPortSlot("z"));
+    assertEquals(2, nDerived.getPortSlot("b"));
+    assertEquals(qType, nDerived.getPortType(1));
+    assertEquals(-1, nDerived.getPortSlot("bogus"));
+  }
+
 }
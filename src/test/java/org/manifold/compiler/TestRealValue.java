@@ -41,8 +41,26 @@ public class TestRealValue {
     RealTypeValue realType = RealTypeValue.getInstance();
 
     RealValue realCopy = (RealValue) realType.instantiate(o);
-    assertTrue("should serialize real numbers as strings in the intermediate",
-        o.isString());
+    assertTrue("should serialize real numbers as numbers in the intermediate",
+        o.isNumber());
     assertEquals(realCopy.toDouble(), real.toDouble(), 0);
   }
+
+  @Test
+  public void testInstantiateFromString() {
+    RealValue v = (RealValue) RealTypeValue.getInstance().instantiate(
+        new JsonPrimitive("2.5"));
+    assertEquals(2.5, v.toDouble(), 0);
+  }
+
+  @Test
+  public void testNonFiniteRoundTrip() {
+    RealTypeValue realType = RealTypeValue.getInstance();
+    for (double d : new double[] {Double.NaN, Double.POSITIVE_INFINITY}) {
+      JsonPrimitive o = (JsonPrimitive) new RealValue(d).toJson();
+      assertTrue(o.isString());
+      RealValue copy = (RealValue) realType.instantiate(o);
+      assertEquals(d, copy.toDouble(), 0);
+    }
+  }
 }
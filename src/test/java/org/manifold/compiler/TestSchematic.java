@@ -1,18 +1,28 @@
 package org.manifold.compiler;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicEvent;
 import org.manifold.compiler.middle.SchematicException;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
 public class TestSchematic {
   Map<String, TypeValue> attributes;
   Map<String, TypeValue> portAttributes;
@@ -73,6 +83,35 @@ public class TestSchematic {
     ConstraintValue cv = sch.getConstraint("bogus");
   }
 
+  @Test
+  public void testFind_Undeclared_ReturnsNull() {
+    Schematic sch = new Schematic("test");
+    assertNull(sch.findUserDefinedType("bogus"));
+    assertNull(sch.findPortType("bogus"));
+    assertNull(sch.findNodeType("bogus"));
+    assertNull(sch.findConstraintType("bogus"));
+    assertNull(sch.findNode("bogus"));
+    assertNull(sch.findConnection("bogus"));
+    assertNull(sch.findConstraint("bogus"));
+  }
+
+  @Test
+  public void testFindNode() throws SchematicException {
+    Schematic sch = new Schematic("test");
+    NodeTypeValue nodeType = new NodeTypeValue(attributes,
+        new HashMap<>());
+    sch.addNodeType("n", nodeType);
+    NodeValue node = new NodeValue(nodeType, new HashMap<>(),
+        new HashMap<>());
+    sch.addNode("n1", node);
+    assertSame(nodeType, sch.findNodeType("n"));
+    assertSame(node, sch.findNode("n1"));
+    assertEquals("n1", sch.findNodeName(node));
+    NodeValue other = new NodeValue(nodeType, new HashMap<>(),
+        new HashMap<>());
+    assertNull(sch.findNodeName(other));
+  }
+
   @Test
   public void testGetNodes_InitiallyEmpty() {
     Schematic sch = new Schematic("test");
@@ -495,4 +534,393 @@ public class TestSchematic {
     sch.addConstraint(cxtName, cxt2);
   }
 
+  private Schematic makeChain(NodeTypeValue nodeType, int length)
+      throws SchematicException {
+    Schematic sch = new Schematic("test");
+    Map<String, Map<String, Value>> nodePortAttrs = ImmutableMap.of(
+        "in", new HashMap<>(), "out", new HashMap<>());
+    for (int i = 0; i < length; ++i) {
+      sch.addNode("n" + i, new NodeValue(nodeType, new HashMap<>(),
+          nodePortAttrs));
+    }
+    for (int i = 1; i < length; ++i) {
+      sch.addConnection("c" + i, new ConnectionValue(
+          sch.getNode("n" + (i - 1)).getPort("out"),
+          sch.getNode("n" + i).getPort("in"), new HashMap<>()));
+    }
+    return sch;
+  }
+
+  private NodeTypeValue makeInOutNodeType() {
+    PortTypeValue portType = new PortTypeValue(
+        BooleanTypeValue.getInstance(), portAttributes);
+    return new NodeTypeValue(attributes,
+        ImmutableMap.of("in", portType, "out", portType));
+  }
+
+  @Test
+  public void testRemoveNode_RemovesAttachedConnections()
+      throws SchematicException {
+    Schematic sch = makeChain(makeInOutNodeType(), 3);
+    NodeValue n1 = sch.getNode("n1");
+    sch.removeNode("n1");
+    assertFalse(sch.getNodes().containsKey("n1"));
+    assertTrue(sch.getConnections().isEmpty());
+    try {
+      sch.getNodeName(n1);
+      fail("removed node is still named");
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testAttachedConnectionsFollowSnapshots()
+      throws SchematicException {
+    NodeTypeValue nodeType = makeInOutNodeType();
+    Schematic sch = makeChain(nodeType, 2);
+    NodeValue n1 = sch.getNode("n1");
+    Schematic copy = sch.snapshot();
+    sch.addConnection("loop", new ConnectionValue(n1.getPort("out"),
+        n1.getPort("in"), new HashMap<>()));
+    copy.removeConnection("c1");
+    assertEquals(2, sch.getAttachedConnections(n1).size());
+    assertTrue(copy.getAttachedConnections(n1).isEmpty());
+  }
+
+  private ConstraintValue makeReference(TypeValue targetType, Value target)
+      throws SchematicException {
+    return new ConstraintValue(
+        new ConstraintType(ImmutableMap.of("target", targetType)),
+        ImmutableMap.of("target", target));
+  }
+
+  @Test
+  public void testRemoveNode_Referenced_ThrowsException()
+      throws SchematicException {
+    NodeTypeValue nodeType = makeInOutNodeType();
+    Schematic sch = makeChain(nodeType, 2);
+    NodeValue n1 = sch.getNode("n1");
+    sch.addConstraint("ref", makeReference(nodeType, n1));
+    try {
+      sch.removeNode("n1");
+      fail("removed a node that a constraint refers to");
+    } catch (DanglingReferenceException e) {
+      assertEquals("n1", e.getInstanceName());
+      assertEquals("ref", e.getReferrerName());
+    }
+    assertSame(n1, sch.getNode("n1"));
+    assertEquals(1, sch.getConnections().size());
+    sch.removeConstraint("ref");
+    sch.removeNode("n1");
+    assertTrue(sch.getConnections().isEmpty());
+  }
+
+  @Test
+  public void testRemoveNode_PortReferencedByAttribute_ThrowsException()
+      throws SchematicException {
+    NodeTypeValue nodeType = makeInOutNodeType();
+    Schematic sch = makeChain(nodeType, 2);
+    PortValue in = sch.getNode("n1").getPort("in");
+    NodeTypeValue probeType = new NodeTypeValue(
+        ImmutableMap.of("probe", in.getType()), ImmutableMap.of());
+    sch.addNode("probe", new NodeValue(probeType,
+        ImmutableMap.of("probe", in), ImmutableMap.of()));
+    try {
+      sch.removeNode("n1");
+      fail("removed a node whose port is referred to");
+    } catch (DanglingReferenceException e) {
+      assertEquals("probe", e.getReferrerName());
+    }
+  }
+
+  @Test(expected = DanglingReferenceException.class)
+  public void testRemoveNode_ConnectionReferenced_ThrowsException()
+      throws SchematicException {
+    NodeTypeValue nodeType = makeInOutNodeType();
+    Schematic sch = makeChain(nodeType, 2);
+    ConnectionValue c1 = sch.getConnection("c1");
+    sch.addConstraint("ref", makeReference(c1.getType(), c1));
+    // removing the node would take the connection with it
+    sch.removeNode("n0");
+  }
+
+  @Test
+  public void testRemoveNode_ReferencedOnlyByItsConnections()
+      throws SchematicException {
+    NodeTypeValue nodeType = makeInOutNodeType();
+    Schematic sch = makeChain(nodeType, 1);
+    NodeValue n0 = sch.getNode("n0");
+    sch.addConnection("loop", new ConnectionValue(n0.getPort("out"),
+        n0.getPort("in"), ImmutableMap.of("owner", n0)));
+    sch.removeNode("n0");
+    assertTrue(sch.getNodes().isEmpty());
+    assertTrue(sch.getConnections().isEmpty());
+  }
+
+  @Test
+  public void testDigest_ReferrerAddedBeforeTarget()
+      throws SchematicException {
+    NodeTypeValue nodeType = makeInOutNodeType();
+    Schematic sch = makeChain(nodeType, 1);
+    NodeValue late = new NodeValue(nodeType, new HashMap<>(),
+        ImmutableMap.of("in", new HashMap<>(), "out", new HashMap<>()));
+    ConstraintValue ref = makeReference(nodeType, late);
+    // materialize the digest, then add the referrer before its target
+    sch.getDigest().getDigest();
+    sch.addConstraint("ref", ref);
+    sch.addNode("late", late);
+
+    Schematic fresh = makeChain(nodeType, 1);
+    fresh.addNode("late", late);
+    fresh.addConstraint("ref", ref);
+    assertEquals(fresh.getDigest().getDigest(), sch.getDigest().getDigest());
+  }
+
+  @Test(expected = UndeclaredIdentifierException.class)
+  public void testRemoveNode_Undeclared_ThrowsException()
+      throws SchematicException {
+    Schematic sch = new Schematic("test");
+    sch.removeNode("bogus");
+  }
+
+  @Test
+  public void testRemoveConnectionAndConstraint() throws SchematicException {
+    Schematic sch = makeChain(makeInOutNodeType(), 2);
+    ConstraintValue cxt = new ConstraintValue(
+        new ConstraintType(attributes), new HashMap<>());
+    sch.addConstraint("cxt", cxt);
+    sch.removeConnection("c1");
+    sch.removeConstraint("cxt");
+    assertTrue(sch.getConnections().isEmpty());
+    assertTrue(sch.getConstraints().isEmpty());
+    // the names can be reused
+    sch.addConstraint("cxt", cxt);
+    assertEquals("cxt", sch.getConstraintName(cxt));
+  }
+
+  @Test
+  public void testReplaceNode_RewiresConnections()
+      throws SchematicException {
+    NodeTypeValue nodeType = makeInOutNodeType();
+    Schematic sch = makeChain(nodeType, 3);
+    NodeValue replacement = new NodeValue(nodeType, new HashMap<>(),
+        ImmutableMap.of("in", new HashMap<>(), "out", new HashMap<>()));
+    sch.replaceNode("n1", replacement);
+    assertSame(replacement, sch.getNode("n1"));
+    assertEquals("n1", sch.getNodeName(replacement));
+    assertSame(replacement.getPort("in"), sch.getConnection("c1").getTo());
+    assertSame(replacement.getPort("out"),
+        sch.getConnection("c2").getFrom());
+    assertEquals("c1", sch.getConnectionName(sch.getConnection("c1")));
+  }
+
+  @Test
+  public void testReplaceNode_MissingPort_LeavesSchematicUnchanged()
+      throws SchematicException {
+    Schematic sch = makeChain(makeInOutNodeType(), 2);
+    NodeValue n1 = sch.getNode("n1");
+    ConnectionValue c1 = sch.getConnection("c1");
+    NodeTypeValue outOnly = new NodeTypeValue(attributes, ImmutableMap.of(
+        "out", new PortTypeValue(BooleanTypeValue.getInstance(),
+            portAttributes)));
+    NodeValue replacement = new NodeValue(outOnly, new HashMap<>(),
+        ImmutableMap.of("out", new HashMap<>()));
+    try {
+      sch.replaceNode("n1", replacement);
+      fail("replaced a node with one lacking a connected port");
+    } catch (UndeclaredIdentifierException e) {
+      // expected
+    }
+    assertSame(n1, sch.getNode("n1"));
+    assertSame(c1, sch.getConnection("c1"));
+  }
+
+  @Test(expected = MultipleAssignmentException.class)
+  public void testReplaceNode_AlreadyBound_ThrowsException()
+      throws SchematicException {
+    Schematic sch = makeChain(makeInOutNodeType(), 2);
+    sch.replaceNode("n0", sch.getNode("n1"));
+  }
+
+  @Test
+  public void testMassRemoval() throws SchematicException {
+    Schematic sch = makeChain(makeInOutNodeType(), 3000);
+    long digest = sch.getDigest().getDigest();
+    for (int i = 0; i < 2990; ++i) {
+      sch.removeNode("n" + i);
+    }
+    assertEquals(10, sch.getNodes().size());
+    assertEquals(9, sch.getConnections().size());
+    assertEquals(sch.getNode("n2999"), sch.getConnection("c2999").getTo()
+        .getParent());
+    assertEquals(makeChainTail(sch).getDigest().getDigest(),
+        sch.getDigest().getDigest());
+    assertTrue(digest != sch.getDigest().getDigest());
+  }
+
+  @Test
+  public void testSnapshotIsIndependent() throws SchematicException {
+    Schematic sch = makeChain(makeInOutNodeType(), 100);
+    long digest = sch.getDigest().getDigest();
+    Schematic copy = sch.snapshot();
+    assertEquals(digest, copy.getDigest().getDigest());
+
+    copy.removeNode("n50");
+    sch.removeNode("n10");
+    assertEquals(99, sch.getNodes().size());
+    assertEquals(99, copy.getNodes().size());
+    assertTrue(sch.getNodes().containsKey("n50"));
+    assertTrue(copy.getNodes().containsKey("n10"));
+    assertTrue(sch.getConnections().containsKey("c50"));
+    assertFalse(copy.getConnections().containsKey("c50"));
+    assertEquals("n50", sch.getNodeName(sch.getNode("n50")));
+
+    // each digest matches that of a schematic built from scratch
+    assertEquals(makeChainTail(copy).getDigest().getDigest(),
+        copy.getDigest().getDigest());
+    assertEquals(makeChainTail(sch).getDigest().getDigest(),
+        sch.getDigest().getDigest());
+  }
+
+  @Test
+  public void testSnapshotHasNoListeners() throws SchematicException {
+    Schematic sch = new Schematic("test");
+    List<SchematicEvent> events = new ArrayList<>();
+    sch.addListener((s, e) -> events.addAll(e));
+    Schematic copy = sch.snapshot();
+    copy.addNode("n", new NodeValue(makeInOutNodeType(), new HashMap<>(),
+        ImmutableMap.of("in", new HashMap<>(), "out", new HashMap<>())));
+    assertTrue(events.isEmpty());
+    assertFalse(sch.getNodes().containsKey("n"));
+  }
+
+  @Test
+  public void testAddNodesAndConnectionsInBulk() throws SchematicException {
+    Schematic chain = makeChain(makeInOutNodeType(), 50);
+    Schematic sch = new Schematic("test");
+    List<SchematicEvent> events = new ArrayList<>();
+    sch.addListener((s, e) -> events.addAll(e));
+    sch.addNodes(chain.getNodes());
+    sch.addConnections(chain.getConnections());
+    assertEquals(50, sch.getNodes().size());
+    assertEquals(49, sch.getConnections().size());
+    assertEquals("n7", sch.getNodeName(chain.getNode("n7")));
+    assertEquals(99, events.size());
+    assertEquals(chain.getDigest().getDigest(), sch.getDigest().getDigest());
+  }
+
+  @Test
+  public void testAddNodesInBulk_Duplicate_AddsNothing()
+      throws SchematicException {
+    Schematic chain = makeChain(makeInOutNodeType(), 10);
+    Schematic sch = new Schematic("test");
+    sch.addNode("n3", chain.getNode("n3"));
+    try {
+      sch.addNodes(chain.getNodes());
+      fail("added a node twice");
+    } catch (MultipleAssignmentException e) {
+      // expected
+    }
+    assertEquals(1, sch.getNodes().size());
+  }
+
+  @Test(expected = MultipleAssignmentException.class)
+  public void testAddNodesInBulk_SameNodeTwice_ThrowsException()
+      throws SchematicException {
+    Schematic chain = makeChain(makeInOutNodeType(), 1);
+    NodeValue n0 = chain.getNode("n0");
+    new Schematic("test").addNodes(ImmutableMap.of("a", n0, "b", n0));
+  }
+
+  @Test(expected = MultipleAssignmentException.class)
+  public void testAddConnection_AlreadyBound_ThrowsException()
+      throws SchematicException {
+    Schematic sch = makeChain(makeInOutNodeType(), 2);
+    sch.addConnection("again", sch.getConnection("c1"));
+  }
+
+  @Test
+  public void testAddConnectionsInBulk_SameConnectionTwice_AddsNothing()
+      throws SchematicException {
+    Schematic chain = makeChain(makeInOutNodeType(), 2);
+    Schematic sch = new Schematic("test");
+    sch.addNodes(chain.getNodes());
+    ConnectionValue c1 = chain.getConnection("c1");
+    try {
+      sch.addConnections(ImmutableMap.of("a", c1, "b", c1));
+      fail("added a connection twice");
+    } catch (MultipleAssignmentException e) {
+      // expected
+    }
+    assertTrue(sch.getConnections().isEmpty());
+  }
+
+  @Test
+  public void testAddConstraints_AlreadyBound_ThrowsException()
+      throws SchematicException {
+    Schematic sch = new Schematic("test");
+    ConstraintValue cxt = new ConstraintValue(
+        new ConstraintType(new HashMap<>()), new HashMap<>());
+    sch.addConstraint("a", cxt);
+    try {
+      sch.addConstraint("b", cxt);
+      fail("added a constraint twice");
+    } catch (MultipleAssignmentException e) {
+      // expected
+    }
+    try {
+      sch.addConstraints(ImmutableMap.of("b", cxt));
+      fail("added a constraint twice");
+    } catch (MultipleAssignmentException e) {
+      // expected
+    }
+    assertEquals(1, sch.getConstraints().size());
+  }
+
+  private Schematic makeChainTail(Schematic sch) throws SchematicException {
+    Schematic tail = new Schematic("test");
+    for (Map.Entry<String, NodeValue> node : sch.getNodes().entrySet()) {
+      tail.addNode(node.getKey(), node.getValue());
+    }
+    for (Map.Entry<String, ConnectionValue> conn
+        : sch.getConnections().entrySet()) {
+      tail.addConnection(conn.getKey(), conn.getValue());
+    }
+    return tail;
+  }
+
+
+  @Test
+  public void testNonRuntimeKnowableAttributes() throws SchematicException {
+    TypeValue intType = IntegerTypeValue.getInstance();
+    TypeValue boolType = BooleanTypeValue.getInstance();
+    PortTypeValue portType = new PortTypeValue(boolType,
+        ImmutableMap.of("drive", intType));
+    NodeTypeValue nodeType = new NodeTypeValue(
+        ImmutableMap.of("width", intType, "en", boolType),
+        ImmutableMap.of("in", portType, "out", portType));
+    Map<String, Value> attrs = ImmutableMap.of(
+        "width", new IntegerValue(8), "en", BooleanValue.getInstance(true));
+    Map<String, Map<String, Value>> portAttrs = ImmutableMap.of(
+        "in", ImmutableMap.of("drive", new IntegerValue(1)),
+        "out", ImmutableMap.of("drive", new IntegerValue(2)));
+    Schematic sch = new Schematic("test");
+    NodeValue n0 = new NodeValue(nodeType, attrs, portAttrs);
+    NodeValue n1 = new NodeValue(nodeType, attrs, portAttrs);
+    sch.addNode("n0", n0);
+    sch.addNode("n1", n1);
+    sch.addConnection("c", new ConnectionValue(n0.getPort("out"),
+        n1.getPort("in"), ImmutableMap.of(
+            "delay", new IntegerValue(3),
+            "live", BooleanValue.getInstance(false))));
+
+    assertEquals(7, sch.countNonRuntimeKnowableAttributes());
+    List<String> found = new ArrayList<>(
+        sch.findNonRuntimeKnowableAttributes());
+    Collections.sort(found);
+    assertEquals(ImmutableList.of("c.delay",
+        "n0.width", "n0:in.drive", "n0:out.drive",
+        "n1.width", "n1:in.drive", "n1:out.drive"), found);
+  }
 }
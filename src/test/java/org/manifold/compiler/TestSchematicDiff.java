@@ -0,0 +1,154 @@
+package org.manifold.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.manifold.compiler.SchematicFixtures.BOOL_TYPE;
+import static org.manifold.compiler.SchematicFixtures.connect;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicDiff;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.SchematicSection;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class TestSchematicDiff {
+
+  private static final TypeValue intType = IntegerTypeValue.getInstance();
+
+  // ports with an attribute, so that port attribute changes can be seen
+  private PortTypeValue portType;
+  private NodeTypeValue nodeType;
+
+  @Before
+  public void setup() {
+    portType = new PortTypeValue(BOOL_TYPE,
+        ImmutableMap.of("delay", intType));
+    nodeType = new NodeTypeValue(ImmutableMap.of("v", BOOL_TYPE),
+        ImmutableMap.of("in", portType, "out", portType));
+  }
+
+  private NodeValue makeNode(boolean v, int delay) throws SchematicException {
+    Map<String, Map<String, Value>> portAttrs = ImmutableMap.of(
+        "in", ImmutableMap.of("delay", new IntegerValue(delay)),
+        "out", ImmutableMap.of("delay", new IntegerValue(0)));
+    return new NodeValue(nodeType,
+        ImmutableMap.of("v", BooleanValue.getInstance(v)), portAttrs);
+  }
+
+  private Schematic makeSchematic() throws SchematicException {
+    Schematic sch = new Schematic("test");
+    sch.addPortType("p", portType);
+    sch.addNodeType("n", nodeType);
+    sch.addNode("a", makeNode(true, 1));
+    sch.addNode("b", makeNode(false, 1));
+    sch.addConnection("ab", connect(sch.getNode("a"), sch.getNode("b")));
+    return sch;
+  }
+
+  @Test
+  public void testIdenticalSchematics() throws SchematicException {
+    SchematicDiff diff = SchematicDiff.compare(makeSchematic(),
+        makeSchematic());
+    assertTrue(diff.toString(), diff.isEmpty());
+  }
+
+  @Test
+  public void testAddedAndRemovedNodes() throws SchematicException {
+    Schematic before = makeSchematic();
+    before.addNode("gone", makeNode(true, 0));
+    Schematic after = makeSchematic();
+    after.addNode("new", makeNode(true, 0));
+
+    SchematicDiff diff = SchematicDiff.compare(before, after);
+    assertEquals(ImmutableSet.of("new"), diff.getAdded(SchematicSection.NODES));
+    assertEquals(ImmutableSet.of("gone"),
+        diff.getRemoved(SchematicSection.NODES));
+    assertTrue(diff.getChanged(SchematicSection.NODES).isEmpty());
+    assertTrue(diff.isEmpty(SchematicSection.CONNECTIONS));
+    assertTrue(diff.isEmpty(SchematicSection.NODE_TYPES));
+  }
+
+  @Test
+  public void testChangedAttributes() throws SchematicException {
+    Schematic before = makeSchematic();
+    before.addNode("c", makeNode(true, 1));
+    Schematic after = makeSchematic();
+    after.addNode("c", makeNode(false, 2));
+
+    SchematicDiff diff = SchematicDiff.compare(before, after);
+    Map<String, SchematicDiff.EntityChange> changed =
+        diff.getChanged(SchematicSection.NODES);
+    assertEquals(ImmutableSet.of("c"), changed.keySet());
+    SchematicDiff.EntityChange change = changed.get("c");
+    assertFalse(change.isTypeChanged());
+    assertEquals(ImmutableSet.of("v"), change.getChangedAttributes());
+    assertEquals(ImmutableMap.of("in", ImmutableSet.of("delay")),
+        change.getChangedPorts());
+  }
+
+  @Test
+  public void testChangedConnectionEndpoint() throws SchematicException {
+    Schematic before = makeSchematic();
+    Schematic after = new Schematic("test");
+    after.addPortType("p", portType);
+    after.addNodeType("n", nodeType);
+    after.addNode("a", makeNode(true, 1));
+    after.addNode("b", makeNode(false, 1));
+    after.addConnection("ab",
+        connect(after.getNode("b"), after.getNode("a")));
+
+    SchematicDiff diff = SchematicDiff.compare(before, after);
+    assertTrue(diff.isEmpty(SchematicSection.NODES));
+    SchematicDiff.EntityChange change =
+        diff.getChanged(SchematicSection.CONNECTIONS).get("ab");
+    assertTrue(change.isEndpointChanged());
+    assertTrue(change.getChangedAttributes().isEmpty());
+  }
+
+  @Test
+  public void testPortsOfChangedNodeType() throws SchematicException {
+    NodeTypeValue otherType = new NodeTypeValue(
+        ImmutableMap.of("v", BOOL_TYPE),
+        ImmutableMap.of("in", portType, "extra", portType));
+    Schematic before = makeSchematic();
+    before.addNode("c", makeNode(true, 1));
+    Schematic after = makeSchematic();
+    after.addNodeType("other", otherType);
+    after.addNode("c", new NodeValue(otherType,
+        ImmutableMap.of("v", BooleanValue.getInstance(true)),
+        ImmutableMap.of("in", ImmutableMap.of("delay", new IntegerValue(2)),
+            "extra", ImmutableMap.of("delay", new IntegerValue(0)))));
+
+    SchematicDiff diff = SchematicDiff.compare(before, after);
+    SchematicDiff.EntityChange change =
+        diff.getChanged(SchematicSection.NODES).get("c");
+    assertTrue(change.isTypeChanged());
+    assertEquals(ImmutableMap.of("in", ImmutableSet.of("delay"),
+        "out", ImmutableSet.of(), "extra", ImmutableSet.of()),
+        change.getChangedPorts());
+  }
+
+  @Test
+  public void testChangedNodeType() throws SchematicException {
+    Schematic before = new Schematic("test");
+    before.addNodeType("n", nodeType);
+    Schematic after = new Schematic("test");
+    after.addNodeType("n", new NodeTypeValue(
+        ImmutableMap.of("v", intType),
+        ImmutableMap.of("in", portType)));
+
+    SchematicDiff diff = SchematicDiff.compare(before, after);
+    SchematicDiff.EntityChange change =
+        diff.getChanged(SchematicSection.NODE_TYPES).get("n");
+    assertEquals(ImmutableSet.of("v"), change.getChangedAttributes());
+    assertEquals(ImmutableSet.of("out"), change.getChangedPorts().keySet());
+    assertFalse(change.isTypeChanged());
+  }
+}
@@ -0,0 +1,101 @@
+package org.manifold.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.manifold.compiler.SchematicFixtures.BOOL_TYPE;
+import static org.manifold.compiler.SchematicFixtures.NODE_TYPE;
+import static org.manifold.compiler.SchematicFixtures.PORT_TYPE;
+import static org.manifold.compiler.SchematicFixtures.connect;
+import static org.manifold.compiler.SchematicFixtures.makeNode;
+import static org.manifold.compiler.SchematicFixtures.newSchematic;
+
+import org.junit.Test;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.SchematicSection;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestSchematicDigest {
+
+  private Schematic makeSchematic(boolean... values)
+      throws SchematicException {
+    Schematic sch = newSchematic();
+    for (int i = 0; i < values.length; ++i) {
+      sch.addNode("n" + i, makeNode(values[i]));
+    }
+    for (int i = 1; i < values.length; ++i) {
+      sch.addConnection("c" + i,
+          connect(sch.getNode("n" + (i - 1)), sch.getNode("n" + i)));
+    }
+    return sch;
+  }
+
+  @Test
+  public void testIdenticalSchematicsHaveEqualDigests()
+      throws SchematicException {
+    Schematic a = makeSchematic(true, false, true);
+    Schematic b = makeSchematic(true, false, true);
+    assertEquals(a.getDigest().getDigest(), b.getDigest().getDigest());
+  }
+
+  @Test
+  public void testStructurallyEqualTypesHashEqual() {
+    Schematic sch = new Schematic("test");
+    NodeTypeValue copy = new NodeTypeValue(ImmutableMap.of("v", BOOL_TYPE),
+        ImmutableMap.of("in", PORT_TYPE, "out", PORT_TYPE));
+    assertEquals(sch.getDigest().getHasher().hashType(NODE_TYPE),
+        sch.getDigest().getHasher().hashType(copy));
+  }
+
+  @Test
+  public void testAttributeChangeOnlyAffectsNodeSection()
+      throws SchematicException {
+    Schematic a = makeSchematic(true, false, true);
+    Schematic b = makeSchematic(true, true, true);
+    assertNotEquals(a.getDigest().getDigest(), b.getDigest().getDigest());
+    assertNotEquals(
+        a.getDigest().getSectionDigest(SchematicSection.NODES),
+        b.getDigest().getSectionDigest(SchematicSection.NODES));
+    assertEquals(
+        a.getDigest().getSectionDigest(SchematicSection.NODE_TYPES),
+        b.getDigest().getSectionDigest(SchematicSection.NODE_TYPES));
+    assertEquals(
+        a.getDigest().getSectionDigest(SchematicSection.CONNECTIONS),
+        b.getDigest().getSectionDigest(SchematicSection.CONNECTIONS));
+    assertEquals(a.getDigest().getEntityHash(SchematicSection.NODES, "n0"),
+        b.getDigest().getEntityHash(SchematicSection.NODES, "n0"));
+    assertNotEquals(a.getDigest().getEntityHash(SchematicSection.NODES, "n1"),
+        b.getDigest().getEntityHash(SchematicSection.NODES, "n1"));
+  }
+
+  @Test
+  public void testDigestMaintainedIncrementally() throws SchematicException {
+    Schematic sch = makeSchematic(true, false);
+    // materialize every section before the schematic grows
+    sch.getDigest().getDigest();
+    sch.addNode("n2", makeNode(true));
+    sch.addConnection("c2", connect(sch.getNode("n1"), sch.getNode("n2")));
+
+    Schematic expected = makeSchematic(true, false, true);
+    assertEquals(expected.getDigest().getDigest(),
+        sch.getDigest().getDigest());
+  }
+
+  @Test
+  public void testRenamedNodeChangesDigest() throws SchematicException {
+    Schematic a = new Schematic("test");
+    a.addNode("x", makeNode(true));
+    Schematic b = new Schematic("test");
+    b.addNode("y", makeNode(true));
+    assertEquals(a.getDigest().getEntityHash(SchematicSection.NODES, "x"),
+        b.getDigest().getEntityHash(SchematicSection.NODES, "y"));
+    assertNotEquals(a.getDigest().getDigest(), b.getDigest().getDigest());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEntityHash_Undeclared_ThrowsException() {
+    Schematic sch = new Schematic("test");
+    sch.getDigest().getEntityHash(SchematicSection.NODES, "bogus");
+  }
+}
@@ -42,6 +42,14 @@ public class TestSchematicExceptions {
     validateException(e, "identifier name", "undeclared identifier");
   }
 
+  @Test
+  public void testUndeclaredExceptionsHaveNoStackTrace() {
+    assertEquals(0,
+        new UndeclaredIdentifierException("bogus").getStackTrace().length);
+    assertEquals(0,
+        new UndeclaredAttributeException("bogus").getStackTrace().length);
+  }
+
   @Test
   public void testTypeMismatchException() {
     TypeMismatchException e = new TypeMismatchException(boolType, intType);
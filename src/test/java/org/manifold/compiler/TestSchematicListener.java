@@ -0,0 +1,149 @@
+package org.manifold.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.manifold.compiler.SchematicFixtures.NODE_TYPE;
+import static org.manifold.compiler.SchematicFixtures.connect;
+import static org.manifold.compiler.SchematicFixtures.makeNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.manifold.compiler.middle.ChangeKind;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicEvent;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.SchematicListener;
+import org.manifold.compiler.middle.SchematicPatch;
+import org.manifold.compiler.middle.SchematicSection;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestSchematicListener {
+
+  private static class RecordingListener implements SchematicListener {
+    private final List<List<SchematicEvent>> batches = new ArrayList<>();
+
+    @Override
+    public void schematicChanged(Schematic schematic,
+        List<SchematicEvent> events) {
+      batches.add(events);
+    }
+  }
+
+  private Schematic sch;
+  private RecordingListener listener;
+
+  @Before
+  public void setup() {
+    sch = new Schematic("test");
+    listener = new RecordingListener();
+    sch.addListener(listener);
+  }
+
+  @Test
+  public void testUnbatchedEventsAreDeliveredImmediately()
+      throws SchematicException {
+    NodeValue a = makeNode();
+    sch.addNodeType("n", NODE_TYPE);
+    sch.addNode("a", a);
+    assertEquals(2, listener.batches.size());
+    SchematicEvent event = listener.batches.get(1).get(0);
+    assertEquals(ChangeKind.ADD, event.getKind());
+    assertEquals(SchematicSection.NODES, event.getSection());
+    assertEquals("a", event.getName());
+    assertNull(event.getOldValue());
+    assertSame(a, event.getNewValue());
+  }
+
+  @Test
+  public void testBatchedEventsAreCoalesced() throws SchematicException {
+    NodeValue a = makeNode();
+    NodeValue b = makeNode();
+    NodeValue b2 = makeNode();
+    sch.addNode("b", b);
+    listener.batches.clear();
+
+    sch.beginBatch();
+    // added then replaced: a single add
+    new SchematicPatch().addNode("a", makeNode()).applyTo(sch);
+    new SchematicPatch().replaceNode("a", a).applyTo(sch);
+    // replaced, then replaced back: nothing
+    new SchematicPatch().replaceNode("b", b2).applyTo(sch);
+    new SchematicPatch().replaceNode("b", b).applyTo(sch);
+    // added then removed: nothing
+    sch.addConstraint("c", new ConstraintValue(
+        new ConstraintType(ImmutableMap.of()), ImmutableMap.of()));
+    new SchematicPatch().removeConstraint("c").applyTo(sch);
+    assertTrue(listener.batches.isEmpty());
+    sch.endBatch();
+
+    assertEquals(1, listener.batches.size());
+    List<SchematicEvent> events = listener.batches.get(0);
+    assertEquals(1, events.size());
+    assertEquals(ChangeKind.ADD, events.get(0).getKind());
+    assertEquals("a", events.get(0).getName());
+    assertSame(a, events.get(0).getNewValue());
+  }
+
+  @Test
+  public void testPatchIsDeliveredAsOneBatch() throws SchematicException {
+    NodeValue a = makeNode();
+    NodeValue b = makeNode();
+    new SchematicPatch()
+        .addNode("a", a)
+        .addNode("b", b)
+        .addConnection("ab", connect(a, b))
+        .applyTo(sch);
+    assertEquals(1, listener.batches.size());
+    assertEquals(3, listener.batches.get(0).size());
+    assertEquals(SchematicSection.CONNECTIONS,
+        listener.batches.get(0).get(2).getSection());
+  }
+
+  @Test
+  public void testBatchedRemovalsPrecedeAdditionsInReverseSectionOrder()
+      throws SchematicException {
+    NodeValue a = makeNode();
+    NodeValue b = makeNode();
+    sch.addNode("a", a);
+    sch.addNode("b", b);
+    sch.addConnection("ab", connect(a, b));
+    sch.addConstraint("c", new ConstraintValue(
+        new ConstraintType(ImmutableMap.of()), ImmutableMap.of()));
+    listener.batches.clear();
+
+    sch.beginBatch();
+    sch.addNode("d", makeNode());
+    sch.removeNode("a");
+    sch.removeConstraint("c");
+    sch.endBatch();
+
+    List<SchematicEvent> events = listener.batches.get(0);
+    assertEquals(4, events.size());
+    assertEquals(ChangeKind.REMOVE, events.get(0).getKind());
+    assertEquals(SchematicSection.CONSTRAINTS, events.get(0).getSection());
+    assertEquals(ChangeKind.REMOVE, events.get(1).getKind());
+    assertEquals(SchematicSection.CONNECTIONS, events.get(1).getSection());
+    assertEquals(ChangeKind.REMOVE, events.get(2).getKind());
+    assertEquals("a", events.get(2).getName());
+    assertEquals(ChangeKind.ADD, events.get(3).getKind());
+    assertEquals("d", events.get(3).getName());
+  }
+
+  @Test
+  public void testRemovedListenerIsNotNotified() throws SchematicException {
+    sch.removeListener(listener);
+    sch.addNode("a", makeNode());
+    assertTrue(listener.batches.isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnbalancedEndBatch() {
+    sch.endBatch();
+  }
+}
@@ -0,0 +1,166 @@
+package org.manifold.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.manifold.compiler.SchematicFixtures.NODE_TYPE;
+import static org.manifold.compiler.SchematicFixtures.connect;
+import static org.manifold.compiler.SchematicFixtures.makeNode;
+import static org.manifold.compiler.SchematicFixtures.newSchematic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicDiff;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.SchematicPatch;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestSchematicPatch {
+
+  private Schematic sch;
+
+  @Before
+  public void setup() throws SchematicException {
+    sch = newSchematic();
+    sch.addNode("a", makeNode(true));
+    sch.addNode("b", makeNode(false));
+    sch.addConnection("ab", connect(sch.getNode("a"), sch.getNode("b")));
+  }
+
+  @Test
+  public void testAddNodeAndConnection() throws SchematicException {
+    NodeValue c = makeNode(true);
+    new SchematicPatch()
+        .addNode("c", c)
+        .addConnection("bc", connect(sch.getNode("b"), c))
+        .applyTo(sch);
+    assertSame(c, sch.getNode("c"));
+    assertEquals("c", sch.getNodeName(c));
+    assertEquals(2, sch.getConnections().size());
+  }
+
+  @Test
+  public void testRemoveNodeWithItsConnections() throws SchematicException {
+    NodeValue b = sch.getNode("b");
+    new SchematicPatch()
+        .removeConnection("ab")
+        .removeNode("b")
+        .applyTo(sch);
+    assertFalse(sch.getNodes().containsKey("b"));
+    assertTrue(sch.getConnections().isEmpty());
+    try {
+      sch.getNodeName(b);
+      fail("removed node is still named");
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRemoveConnectedNodeIsRejected() throws SchematicException {
+    Map<String, NodeValue> nodesBefore = new HashMap<>(sch.getNodes());
+    try {
+      new SchematicPatch()
+          .addNode("c", makeNode(true))
+          .removeNode("b")
+          .applyTo(sch);
+      fail("removed a node that is still connected");
+    } catch (DanglingReferenceException e) {
+      assertEquals("ab", e.getReferrerName());
+    }
+    // nothing was applied
+    assertEquals(nodesBefore, sch.getNodes());
+  }
+
+  @Test
+  public void testRemoveNodeReferredToByConstraintIsRejected()
+      throws SchematicException {
+    ConstraintType refType = new ConstraintType(
+        ImmutableMap.of("target", NODE_TYPE));
+    sch.addConstraint("ref", new ConstraintValue(refType,
+        ImmutableMap.of("target", sch.getNode("a"))));
+    try {
+      new SchematicPatch()
+          .removeConnection("ab")
+          .removeNode("a")
+          .applyTo(sch);
+      fail("removed a node that a constraint refers to");
+    } catch (DanglingReferenceException e) {
+      assertEquals("a", e.getInstanceName());
+      assertEquals("ref", e.getReferrerName());
+    }
+    assertEquals(1, sch.getConnections().size());
+
+    // removing the constraint in the same patch makes it legal
+    new SchematicPatch()
+        .removeConstraint("ref")
+        .removeConnection("ab")
+        .removeNode("a")
+        .applyTo(sch);
+    assertFalse(sch.getNodes().containsKey("a"));
+  }
+
+  @Test
+  public void testReplaceNodeAndRewire() throws SchematicException {
+    NodeValue b2 = makeNode(true);
+    new SchematicPatch()
+        .removeConnection("ab")
+        .replaceNode("b", b2)
+        .addConnection("ab", connect(sch.getNode("a"), b2))
+        .applyTo(sch);
+    assertSame(b2, sch.getNode("b"));
+    assertSame(b2, sch.getConnection("ab").getTo().getParent());
+  }
+
+  @Test(expected = MultipleAssignmentException.class)
+  public void testAddExistingNameIsRejected() throws SchematicException {
+    new SchematicPatch().addNode("a", makeNode(true)).applyTo(sch);
+  }
+
+  @Test(expected = UndeclaredIdentifierException.class)
+  public void testRemoveUndeclaredIsRejected() throws SchematicException {
+    new SchematicPatch().removeConstraint("bogus").applyTo(sch);
+  }
+
+  @Test(expected = UndeclaredIdentifierException.class)
+  public void testConnectToRemovedNodeIsRejected() throws SchematicException {
+    NodeValue a = sch.getNode("a");
+    NodeValue c = makeNode(true);
+    new SchematicPatch()
+        .removeConnection("ab")
+        .removeNode("a")
+        .addNode("c", c)
+        .addConnection("ac", connect(a, c))
+        .applyTo(sch);
+  }
+
+  @Test
+  public void testPatchedDigestMatchesFreshSchematic()
+      throws SchematicException {
+    // materialize the digest so that it is maintained incrementally
+    sch.getDigest().getDigest();
+    NodeValue b2 = makeNode(true);
+    new SchematicPatch()
+        .removeConnection("ab")
+        .replaceNode("b", b2)
+        .addConnection("ab", connect(sch.getNode("a"), b2))
+        .applyTo(sch);
+
+    Schematic expected = newSchematic();
+    expected.addNode("a", makeNode(true));
+    expected.addNode("b", makeNode(true));
+    expected.addConnection("ab",
+        connect(expected.getNode("a"), expected.getNode("b")));
+    assertTrue(SchematicDiff.compare(expected, sch).isEmpty());
+    assertEquals(expected.getDigest().getDigest(),
+        sch.getDigest().getDigest());
+  }
+}
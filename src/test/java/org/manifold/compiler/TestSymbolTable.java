@@ -0,0 +1,153 @@
+package org.manifold.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.manifold.compiler.SchematicFixtures.BOOL_TYPE;
+import static org.manifold.compiler.SchematicFixtures.NODE_TYPE;
+import static org.manifold.compiler.SchematicFixtures.PORT_TYPE;
+import static org.manifold.compiler.SchematicFixtures.connect;
+import static org.manifold.compiler.SchematicFixtures.makeNode;
+import static org.manifold.compiler.SchematicFixtures.newSchematic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.SymbolTable;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestSymbolTable {
+
+  private Schematic sch;
+
+  @Before
+  public void setup() throws SchematicException {
+    sch = newSchematic();
+  }
+
+  @Test
+  public void testNamesOfTypesAndInstances() throws SchematicException {
+    NodeValue n0 = makeNode();
+    NodeValue n1 = makeNode();
+    sch.addNode("n0", n0);
+    sch.addNode("n1", n1);
+    ConnectionValue c = connect(n0, n1);
+    sch.addConnection("c", c);
+
+    SymbolTable symbols = sch.getSymbolTable();
+    assertEquals("p", symbols.getName(PORT_TYPE));
+    assertEquals("n", symbols.getName(NODE_TYPE));
+    assertEquals("Bool", symbols.getName(BOOL_TYPE));
+    assertEquals("Bool", symbols.getName(sch.getUserDefinedType("Bool")));
+    assertEquals("n1", symbols.getName(n1));
+    assertEquals("c", symbols.getName(c));
+    assertEquals("out", symbols.getName(n0.getPort("out")));
+    assertNull(symbols.getName(makeNode()));
+    assertNull(symbols.getName(makeNode().getPort("in")));
+  }
+
+  @Test
+  public void testResolve() throws SchematicException {
+    NodeValue n0 = makeNode();
+    sch.addNode("n0", n0);
+    SymbolTable symbols = sch.getSymbolTable();
+    assertSame(NODE_TYPE, symbols.findType("n"));
+    assertSame(NODE_TYPE,
+        symbols.resolve(TypeTypeValue.getInstance(), "n"));
+    assertSame(n0, symbols.resolve(NODE_TYPE, "n0"));
+    assertSame(n0.getPort("in"), symbols.resolve(PORT_TYPE, "in"));
+    // wrong type
+    NodeTypeValue otherType = new NodeTypeValue(ImmutableMap.of(),
+        ImmutableMap.of());
+    assertNull(symbols.resolve(otherType, "n0"));
+    assertNull(symbols.resolve(NODE_TYPE, "bogus"));
+  }
+
+  @Test
+  public void testResolvePortShadowedByOtherPortType()
+      throws SchematicException {
+    NodeValue n0 = makeNode();
+    sch.addNode("n0", n0);
+    // a later node with an "in" port of another type
+    PortTypeValue otherPortType = new PortTypeValue(BOOL_TYPE,
+        ImmutableMap.of());
+    NodeTypeValue otherNodeType = new NodeTypeValue(ImmutableMap.of(),
+        ImmutableMap.of("in", otherPortType));
+    NodeValue other = new NodeValue(otherNodeType, ImmutableMap.of(),
+        ImmutableMap.of("in", ImmutableMap.of()));
+    sch.addNode("other", other);
+
+    SymbolTable symbols = sch.getSymbolTable();
+    assertSame(n0.getPort("in"), symbols.resolve(PORT_TYPE, "in"));
+    assertSame(other.getPort("in"), symbols.resolve(otherPortType, "in"));
+  }
+
+  @Test
+  public void testRemovedNodeIsForgotten() throws SchematicException {
+    NodeValue n0 = makeNode();
+    sch.addNode("n0", n0);
+    sch.removeNode("n0");
+    SymbolTable symbols = sch.getSymbolTable();
+    assertFalse(symbols.contains(n0));
+    assertNull(symbols.findPort(PORT_TYPE, "in"));
+    assertNull(symbols.getName(n0.getPort("in")));
+  }
+
+  @Test
+  public void testPortOutlivesRemovalOfOneNode() throws SchematicException {
+    NodeValue n0 = makeNode();
+    NodeValue n1 = makeNode();
+    sch.addNode("n0", n0);
+    sch.addNode("n1", n1);
+    SymbolTable symbols = sch.getSymbolTable();
+    assertSame(n1.getPort("in"), symbols.findPort(PORT_TYPE, "in"));
+    sch.removeNode("n1");
+    assertSame(n0.getPort("in"), symbols.findPort(PORT_TYPE, "in"));
+    sch.removeNode("n0");
+    assertNull(symbols.findPort(PORT_TYPE, "in"));
+  }
+
+  @Test
+  public void testTypeSectionsHaveOwnNames() throws SchematicException {
+    // a constraint type named like the node type does not replace it
+    ConstraintType constraintType = new ConstraintType(ImmutableMap.of());
+    sch.addConstraintType("n", constraintType);
+    SymbolTable symbols = sch.getSymbolTable();
+    assertSame(NODE_TYPE, symbols.findType("n"));
+    assertSame(NODE_TYPE, sch.getNodeType("n"));
+    assertEquals("n", symbols.getName(constraintType));
+  }
+
+  @Test
+  public void testSnapshotHasOwnPorts() throws SchematicException {
+    NodeValue n0 = makeNode();
+    sch.addNode("n0", n0);
+    Schematic copy = sch.snapshot();
+    NodeValue n1 = makeNode();
+    copy.addNode("n1", n1);
+    sch.removeNode("n0");
+    assertNull(sch.getSymbolTable().findPort(PORT_TYPE, "in"));
+    assertSame(n1.getPort("in"),
+        copy.getSymbolTable().findPort(PORT_TYPE, "in"));
+    copy.removeNode("n1");
+    assertSame(n0.getPort("in"),
+        copy.getSymbolTable().findPort(PORT_TYPE, "in"));
+  }
+
+  @Test
+  public void testSnapshotHasOwnTable() throws SchematicException {
+    NodeValue n0 = makeNode();
+    sch.addNode("n0", n0);
+    Schematic copy = sch.snapshot();
+    NodeValue n1 = makeNode();
+    copy.addNode("n1", n1);
+    sch.removeNode("n0");
+    assertNull(sch.getSymbolTable().getName(n1));
+    assertEquals("n0", copy.getSymbolTable().getName(n0));
+    assertEquals("n1", copy.getSymbolTable().getName(n1));
+  }
+
+}
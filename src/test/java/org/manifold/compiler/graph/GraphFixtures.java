@@ -0,0 +1,82 @@
+package org.manifold.compiler.graph;
+
+import java.util.Map;
+
+import org.manifold.compiler.BooleanTypeValue;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.IntegerTypeValue;
+import org.manifold.compiler.IntegerValue;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortTypeValue;
+import org.manifold.compiler.Value;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Helpers for building small schematics out of two-input, one-output
+ * nodes, for the graph analysis tests.
+ */
+final class GraphFixtures {
+
+  static final PortTypeValue PORT_TYPE = new PortTypeValue(
+      BooleanTypeValue.getInstance(), ImmutableMap.of());
+
+  static final NodeTypeValue GATE = new NodeTypeValue(ImmutableMap.of(),
+      ImmutableMap.of("in0", PORT_TYPE, "in1", PORT_TYPE, "out", PORT_TYPE));
+
+  static final NodeTypeValue WEIGHTED_GATE = new NodeTypeValue(
+      ImmutableMap.of("weight", IntegerTypeValue.getInstance()),
+      ImmutableMap.of("in0", PORT_TYPE, "in1", PORT_TYPE, "out", PORT_TYPE));
+
+  private static final Map<String, Map<String, Value>> PORT_ATTRS =
+      ImmutableMap.of("in0", ImmutableMap.of(), "in1", ImmutableMap.of(),
+          "out", ImmutableMap.of());
+
+  private GraphFixtures() {
+  }
+
+  static Schematic newSchematic() throws SchematicException {
+    Schematic sch = new Schematic("test");
+    sch.addPortType("port", PORT_TYPE);
+    sch.addNodeType("gate", GATE);
+    sch.addNodeType("weightedGate", WEIGHTED_GATE);
+    return sch;
+  }
+
+  static NodeValue addNode(Schematic sch, String name)
+      throws SchematicException {
+    NodeValue node = new NodeValue(GATE, ImmutableMap.of(), PORT_ATTRS);
+    sch.addNode(name, node);
+    return node;
+  }
+
+  static NodeValue addNode(Schematic sch, String name, int weight)
+      throws SchematicException {
+    NodeValue node = new NodeValue(WEIGHTED_GATE,
+        ImmutableMap.of("weight", new IntegerValue(weight)), PORT_ATTRS);
+    sch.addNode(name, node);
+    return node;
+  }
+
+  /**
+   * Connect the output of one node to the given input port of another,
+   * naming the connection after its endpoints.
+   */
+  static ConnectionValue connect(Schematic sch, String from, String to,
+      String toPort) throws SchematicException {
+    ConnectionValue conn = new ConnectionValue(
+        sch.getNode(from).getPort("out"), sch.getNode(to).getPort(toPort),
+        ImmutableMap.of());
+    sch.addConnection(from + "->" + to + "." + toPort, conn);
+    return conn;
+  }
+
+  static ConnectionValue connect(Schematic sch, String from, String to)
+      throws SchematicException {
+    return connect(sch, from, to, "in0");
+  }
+
+}
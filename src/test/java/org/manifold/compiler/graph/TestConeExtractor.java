@@ -0,0 +1,175 @@
+package org.manifold.compiler.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.manifold.compiler.graph.GraphFixtures.addNode;
+import static org.manifold.compiler.graph.GraphFixtures.connect;
+import static org.manifold.compiler.graph.GraphFixtures.newSchematic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintType;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.DanglingReferenceException;
+import org.manifold.compiler.NodeTypeValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.TypeValue;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.graph.ConeExtractor;
+import org.manifold.compiler.middle.graph.GraphTraversal.Direction;
+import org.manifold.compiler.middle.serialization.SchematicDeserializer;
+import org.manifold.compiler.middle.serialization.SchematicSerializer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonObject;
+
+public class TestConeExtractor {
+
+  private Schematic sch;
+
+  /*
+   *  a --> c --> e (weighted) --> f
+   *  b --/       d -----------/
+   *        g (unconnected)
+   */
+  @Before
+  public void setup() throws SchematicException {
+    sch = newSchematic();
+    for (String name : new String[] {"a", "b", "c", "d", "f", "g"}) {
+      addNode(sch, name);
+    }
+    addNode(sch, "e", 3);
+    connect(sch, "a", "c", "in0");
+    connect(sch, "b", "c", "in1");
+    connect(sch, "c", "e");
+    connect(sch, "e", "f", "in0");
+    connect(sch, "d", "f", "in1");
+  }
+
+  @Test
+  public void testFanInCone() throws SchematicException {
+    Schematic cone = new ConeExtractor(sch)
+        .extractFromNodes("cone", ImmutableList.of(sch.getNode("e")));
+    assertEquals(ImmutableSet.of("a", "b", "c", "e"),
+        cone.getNodes().keySet());
+    assertEquals(3, cone.getConnections().size());
+    // only the types that are used
+    assertEquals(ImmutableSet.of("gate", "weightedGate"),
+        cone.getNodeTypes().keySet());
+    assertEquals(ImmutableSet.of("port"), cone.getPortTypes().keySet());
+  }
+
+  @Test
+  public void testFanOutConeFromPort() throws SchematicException {
+    Schematic cone = new ConeExtractor(sch).setDirection(Direction.FORWARD)
+        .extractFromPorts("cone",
+            ImmutableList.of(sch.getNode("b").getPort("out")));
+    assertEquals(ImmutableSet.of("b", "c", "e", "f"),
+        cone.getNodes().keySet());
+    assertEquals(ImmutableSet.of("gate", "weightedGate"),
+        cone.getNodeTypes().keySet());
+  }
+
+  @Test
+  public void testPortRestrictsFirstStep() throws SchematicException {
+    Schematic cone = new ConeExtractor(sch).extractFromPorts("cone",
+        ImmutableList.of(sch.getNode("f").getPort("in1")));
+    assertEquals(ImmutableSet.of("d", "f"), cone.getNodes().keySet());
+    assertEquals(1, cone.getConnections().size());
+    assertFalse(cone.getNodeTypes().containsKey("weightedGate"));
+  }
+
+  @Test
+  public void testDepthAndTypeBounds() throws SchematicException {
+    Schematic shallow = new ConeExtractor(sch).setMaxDepth(1)
+        .extractFromNodes("cone", ImmutableList.of(sch.getNode("f")));
+    assertEquals(ImmutableSet.of("d", "e", "f"),
+        shallow.getNodes().keySet());
+
+    Schematic bounded = new ConeExtractor(sch)
+        .setBoundaryTypes(ImmutableList.of(GraphFixtures.WEIGHTED_GATE))
+        .extractFromNodes("cone", ImmutableList.of(sch.getNode("f")));
+    assertEquals(ImmutableSet.of("d", "e", "f"),
+        bounded.getNodes().keySet());
+  }
+
+  @Test
+  public void testConstraintsInsideTheCone() throws SchematicException {
+    ConstraintType pairType = new ConstraintType(
+        ImmutableMap.<String, TypeValue>of("a", GraphFixtures.GATE,
+            "b", GraphFixtures.GATE));
+    sch.addConstraintType("pair", pairType);
+    sch.addConstraint("inside", new ConstraintValue(pairType,
+        ImmutableMap.of("a", sch.getNode("a"), "b", sch.getNode("c"))));
+    sch.addConstraint("outside", new ConstraintValue(pairType,
+        ImmutableMap.of("a", sch.getNode("a"), "b", sch.getNode("g"))));
+
+    Schematic cone = new ConeExtractor(sch).setIncludeConstraints(true)
+        .extractFromNodes("cone", ImmutableList.of(sch.getNode("e")));
+    assertEquals(ImmutableSet.of("inside"), cone.getConstraints().keySet());
+    assertTrue(cone.getConstraintTypes().containsKey("pair"));
+  }
+
+  private void addProbe(String target) throws SchematicException {
+    NodeTypeValue probeType = new NodeTypeValue(
+        ImmutableMap.<String, TypeValue>of("target", GraphFixtures.GATE),
+        ImmutableMap.of("out", GraphFixtures.PORT_TYPE));
+    sch.addNodeType("probe", probeType);
+    sch.addNode("probe", new NodeValue(probeType,
+        ImmutableMap.of("target", sch.getNode(target)),
+        ImmutableMap.of("out", ImmutableMap.of())));
+    connect(sch, "probe", "e", "in1");
+  }
+
+  @Test
+  public void testNodeReferringInsideTheCone() throws SchematicException {
+    addProbe("a");
+    Schematic cone = new ConeExtractor(sch)
+        .extractFromNodes("cone", ImmutableList.of(sch.getNode("e")));
+    assertTrue(cone.getNodes().containsKey("probe"));
+  }
+
+  @Test
+  public void testNodeReferringOutsideTheConeFails()
+      throws SchematicException {
+    addProbe("g");
+    try {
+      new ConeExtractor(sch)
+          .extractFromNodes("cone", ImmutableList.of(sch.getNode("e")));
+      fail("extracted a node that refers outside of the cone");
+    } catch (DanglingReferenceException e) {
+      assertEquals("g", e.getInstanceName());
+      assertEquals("probe", e.getReferrerName());
+    }
+  }
+
+  @Test
+  public void testConnectionToUnboundNodeIsNotFollowed()
+      throws SchematicException {
+    NodeValue outside = addNode(newSchematic(), "outside");
+    sch.addConnection("dangling", new ConnectionValue(
+        outside.getPort("out"), sch.getNode("f").getPort("in0"),
+        ImmutableMap.of()));
+    Schematic cone = new ConeExtractor(sch).setMaxDepth(1)
+        .extractFromNodes("cone", ImmutableList.of(sch.getNode("f")));
+    assertEquals(ImmutableSet.of("d", "e", "f"), cone.getNodes().keySet());
+  }
+
+  @Test
+  public void testConeCanBeSerialized() throws Exception {
+    Schematic cone = new ConeExtractor(sch)
+        .extractFromNodes("cone", ImmutableList.of(sch.getNode("f")));
+    JsonObject json = SchematicSerializer.serialize(cone);
+    Schematic copy = new SchematicDeserializer().deserialize(json);
+    assertEquals(cone.getNodes().keySet(), copy.getNodes().keySet());
+    assertEquals(cone.getConnections().keySet(),
+        copy.getConnections().keySet());
+  }
+
+}
@@ -0,0 +1,139 @@
+package org.manifold.compiler.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.manifold.compiler.graph.GraphFixtures.addNode;
+import static org.manifold.compiler.graph.GraphFixtures.connect;
+import static org.manifold.compiler.graph.GraphFixtures.newSchematic;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.ConstraintType;
+import org.manifold.compiler.ConstraintValue;
+import org.manifold.compiler.InferredTypeValue;
+import org.manifold.compiler.InferredValue;
+import org.manifold.compiler.TypeValue;
+import org.manifold.compiler.Value;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.graph.Component;
+import org.manifold.compiler.middle.graph.ConnectedComponents;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestConnectedComponents {
+
+  private static final ConstraintType PAIR = new ConstraintType(
+      ImmutableMap.<String, TypeValue>of("a", GraphFixtures.GATE, "b",
+          GraphFixtures.GATE));
+
+  private static ConstraintValue pair(Schematic sch, String a, String b)
+      throws SchematicException {
+    Map<String, Value> attrs = ImmutableMap.of(
+        "a", sch.getNode(a), "b", sch.getNode(b));
+    return new ConstraintValue(PAIR, attrs);
+  }
+
+  @Test
+  public void testIndependentSubcircuits() throws SchematicException {
+    Schematic sch = newSchematic();
+    // a chain a0 -> a1 -> a2, a fork b0 -> b1, b0 -> b2, and a lone c
+    for (String name : new String[] {"a0", "a1", "a2", "b0", "b1", "b2",
+        "c"}) {
+      addNode(sch, name);
+    }
+    connect(sch, "a0", "a1");
+    connect(sch, "a1", "a2");
+    connect(sch, "b0", "b1");
+    connect(sch, "b0", "b2");
+    sch.addConstraint("inA", pair(sch, "a0", "a2"));
+    sch.addConstraint("inB", pair(sch, "b1", "b2"));
+    sch.addConstraint("across", pair(sch, "a0", "b0"));
+
+    ConnectedComponents cc = new ConnectedComponents(sch);
+    assertEquals(3, cc.getComponentCount());
+
+    Component a = cc.getComponentOf(sch.getNode("a0"));
+    Component b = cc.getComponentOf(sch.getNode("b0"));
+    Component c = cc.getComponentOf(sch.getNode("c"));
+    assertSame(a, cc.getComponentOf(sch.getNode("a2")));
+    assertSame(b, cc.getComponentOf(sch.getNode("b2")));
+    assertEquals(3, a.getNodeCount());
+    assertEquals(2, a.getConnectionCount());
+    assertEquals(3, b.getNodeCount());
+    assertEquals(1, c.getNodeCount());
+    assertEquals(0, c.getConnectionCount());
+
+    assertEquals(1, a.getConstraints().size());
+    assertSame(sch.getConstraint("inA"), a.getConstraints().get(0));
+    assertEquals(1, b.getConstraints().size());
+    assertTrue(c.getConstraints().isEmpty());
+    assertEquals(1, cc.getGlobalConstraints().size());
+    assertSame(sch.getConstraint("across"),
+        cc.getGlobalConstraints().get(0));
+
+    for (ConnectionValue conn : b.getConnections()) {
+      assertTrue(b.containsNode(conn.getFrom().getParent()));
+      assertTrue(b.containsNode(conn.getTo().getParent()));
+    }
+  }
+
+  @Test
+  public void testInferredReferenceIsFollowed() throws SchematicException {
+    Schematic sch = newSchematic();
+    addNode(sch, "a0");
+    addNode(sch, "a1");
+    addNode(sch, "b");
+    connect(sch, "a0", "a1");
+    InferredTypeValue inferredGate =
+        new InferredTypeValue(GraphFixtures.GATE);
+    ConstraintType inferredPair = new ConstraintType(
+        ImmutableMap.<String, TypeValue>of("a", inferredGate, "b",
+            inferredGate));
+    sch.addConstraint("inA", new ConstraintValue(inferredPair,
+        ImmutableMap.of(
+            "a", new InferredValue(inferredGate, sch.getNode("a0")),
+            "b", new InferredValue(inferredGate, sch.getNode("a1")))));
+    sch.addConstraint("unknown", new ConstraintValue(inferredPair,
+        ImmutableMap.of("a", new InferredValue(inferredGate),
+            "b", new InferredValue(inferredGate))));
+
+    ConnectedComponents cc = new ConnectedComponents(sch);
+    Component a = cc.getComponentOf(sch.getNode("a0"));
+    assertEquals(1, a.getConstraints().size());
+    assertSame(sch.getConstraint("inA"), a.getConstraints().get(0));
+    assertEquals(1, cc.getGlobalConstraints().size());
+    assertSame(sch.getConstraint("unknown"),
+        cc.getGlobalConstraints().get(0));
+  }
+
+  @Test
+  public void testLongChainIsOneComponent() throws SchematicException {
+    Schematic sch = newSchematic();
+    int size = 100000;
+    for (int i = 0; i < size; ++i) {
+      addNode(sch, "n" + i);
+    }
+    // join the two halves last, so that the union-find merges big sets
+    for (int i = 1; i < size; ++i) {
+      if (i != size / 2) {
+        connect(sch, "n" + (i - 1), "n" + i);
+      }
+    }
+    assertEquals(2, new ConnectedComponents(sch).getComponentCount());
+    connect(sch, "n" + (size / 2 - 1), "n" + (size / 2));
+    ConnectedComponents cc = new ConnectedComponents(sch);
+    assertEquals(1, cc.getComponentCount());
+    assertEquals(size, cc.getComponent(0).getNodeCount());
+  }
+
+  @Test
+  public void testEmptySchematic() throws SchematicException {
+    assertEquals(0,
+        new ConnectedComponents(newSchematic()).getComponentCount());
+  }
+
+}
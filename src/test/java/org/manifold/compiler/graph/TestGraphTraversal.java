@@ -0,0 +1,137 @@
+package org.manifold.compiler.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.manifold.compiler.graph.GraphFixtures.addNode;
+import static org.manifold.compiler.graph.GraphFixtures.connect;
+import static org.manifold.compiler.graph.GraphFixtures.newSchematic;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.graph.GraphTraversal;
+import org.manifold.compiler.middle.graph.GraphTraversal.Direction;
+import org.manifold.compiler.middle.graph.SchematicGraph;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+public class TestGraphTraversal {
+
+  private Schematic sch;
+  private SchematicGraph graph;
+
+  /*
+   *  a --> b --> d
+   *   \--> c --> e
+   */
+  @Before
+  public void setup() throws SchematicException {
+    sch = newSchematic();
+    for (String name : new String[] {"a", "b", "c", "d", "e"}) {
+      addNode(sch, name);
+    }
+    connect(sch, "a", "b");
+    connect(sch, "a", "c");
+    connect(sch, "b", "d");
+    connect(sch, "c", "e");
+    graph = new SchematicGraph(sch);
+  }
+
+  private List<String> names(GraphTraversal.Walk walk) {
+    List<String> names = new ArrayList<>();
+    while (walk.hasNext()) {
+      names.add(graph.getNodeName(walk.nextInt()));
+    }
+    return names;
+  }
+
+  private int id(String name) throws SchematicException {
+    return graph.getNodeId(sch.getNode(name));
+  }
+
+  @Test
+  public void testBreadthFirst() throws SchematicException {
+    List<String> order = names(new GraphTraversal(graph).walk(id("a")));
+    assertEquals(5, order.size());
+    assertEquals("a", order.get(0));
+    // both of a's successors come before any of theirs
+    assertEquals(ImmutableList.of("d", "e"),
+        Ordering.natural().sortedCopy(order.subList(3, 5)));
+  }
+
+  @Test
+  public void testDepthFirst() throws SchematicException {
+    List<String> order =
+        names(new GraphTraversal(graph).depthFirst().walk(id("a")));
+    assertEquals(5, order.size());
+    assertEquals("a", order.get(0));
+    // each successor is followed by its own successor
+    int b = order.indexOf("b");
+    int c = order.indexOf("c");
+    assertEquals("d", order.get(b + 1));
+    assertEquals("e", order.get(c + 1));
+  }
+
+  @Test
+  public void testBackwardWithDepths() throws SchematicException {
+    GraphTraversal.Walk walk = new GraphTraversal(graph)
+        .setDirection(Direction.BACKWARD).walk(id("e"));
+    List<String> order = new ArrayList<>();
+    List<Integer> depths = new ArrayList<>();
+    while (walk.hasNext()) {
+      int node = walk.nextInt();
+      assertSame(graph.getNode(node), walk.getNode());
+      order.add(graph.getNodeName(node));
+      depths.add(walk.getDepth());
+    }
+    assertEquals(ImmutableList.of("e", "c", "a"), order);
+    assertEquals(ImmutableList.of(0, 1, 2), depths);
+  }
+
+  @Test
+  public void testDepthLimitAndPruning() throws SchematicException {
+    GraphTraversal traversal = new GraphTraversal(graph)
+        .setDirection(Direction.BOTH).setMaxDepth(1);
+    assertEquals(ImmutableList.of("a", "b", "d"),
+        Ordering.natural().sortedCopy(names(traversal.walk(id("b")))));
+
+    int c = id("c");
+    traversal.setMaxDepth(Integer.MAX_VALUE).setNodeFilter((v) -> v != c);
+    assertEquals(ImmutableList.of("a", "b", "d"),
+        Ordering.natural().sortedCopy(names(traversal.walk(id("d")))));
+  }
+
+  @Test
+  public void testWalkFromPort() throws SchematicException {
+    // only the connections on e's input lead anywhere backwards from it
+    GraphTraversal traversal =
+        new GraphTraversal(graph).setDirection(Direction.BACKWARD);
+    assertEquals(ImmutableList.of("e", "c", "a"),
+        names(traversal.walk(sch.getNode("e").getPort("in0"))));
+    assertEquals(ImmutableList.of("e"),
+        names(traversal.walk(sch.getNode("e").getPort("in1"))));
+  }
+
+  @Test
+  public void testTraversalIsReusable() throws SchematicException {
+    GraphTraversal traversal = new GraphTraversal(graph);
+    assertEquals(5, names(traversal.walk(id("a"))).size());
+    assertEquals(ImmutableList.of("b", "d"), names(traversal.walk(id("b"))));
+  }
+
+  @Test(expected = ConcurrentModificationException.class)
+  public void testStartingAWalkEndsThePreviousOne() throws SchematicException {
+    GraphTraversal traversal = new GraphTraversal(graph);
+    GraphTraversal.Walk first = traversal.walk(id("a"));
+    traversal.walk(id("b"));
+    assertFalse(first.hasNext());
+  }
+
+}
@@ -0,0 +1,106 @@
+package org.manifold.compiler.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.manifold.compiler.graph.GraphFixtures.addNode;
+import static org.manifold.compiler.graph.GraphFixtures.connect;
+import static org.manifold.compiler.graph.GraphFixtures.newSchematic;
+
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.graph.Levelization;
+import org.manifold.compiler.middle.graph.Levelizer;
+
+import com.google.common.collect.ImmutableSet;
+
+public class TestLevelizer {
+
+  /*
+   *  a --> c --> d
+   *  b ---/     /
+   *  b --------/
+   */
+  private static Schematic makeDiamond() throws SchematicException {
+    Schematic sch = newSchematic();
+    for (String name : new String[] {"a", "b", "c", "d"}) {
+      addNode(sch, name);
+    }
+    connect(sch, "a", "c", "in0");
+    connect(sch, "b", "c", "in1");
+    connect(sch, "c", "d", "in0");
+    connect(sch, "b", "d", "in1");
+    return sch;
+  }
+
+  @Test
+  public void testLevels() throws SchematicException {
+    Schematic sch = makeDiamond();
+    Levelizer levelizer = new Levelizer(sch);
+    assertEquals(0, levelizer.level(sch.getNode("a")));
+    assertEquals(0, levelizer.level(sch.getNode("b")));
+    assertEquals(1, levelizer.level(sch.getNode("c")));
+    // one level above its highest predecessor
+    assertEquals(2, levelizer.level(sch.getNode("d")));
+
+    Levelization levels = levelizer.getLevelization();
+    assertEquals(3, levels.getLevelCount());
+    assertEquals(2, levels.getLevelSize(0));
+    assertEquals(ImmutableSet.of(sch.getNode("a"), sch.getNode("b")),
+        new HashSet<>(levels.getNodes(0)));
+    assertEquals(sch.getNode("d"), levels.getNodes(2).get(0));
+    assertTrue(levels.isAcyclic());
+  }
+
+  @Test
+  public void testLevelizationIsCachedUntilChange()
+      throws SchematicException {
+    Schematic sch = makeDiamond();
+    Levelizer levelizer = new Levelizer(sch);
+    Levelization first = levelizer.getLevelization();
+    assertSame(first, levelizer.getLevelization());
+
+    NodeValue e = addNode(sch, "e");
+    connect(sch, "d", "e");
+    Levelization second = levelizer.getLevelization();
+    assertNotSame(first, second);
+    assertEquals(3, second.level(e));
+    assertEquals(4, second.getLevelCount());
+  }
+
+  @Test
+  public void testCyclicNodesHaveNoLevel() throws SchematicException {
+    Schematic sch = newSchematic();
+    for (String name : new String[] {"src", "x", "y", "sink"}) {
+      addNode(sch, name);
+    }
+    connect(sch, "src", "x", "in0");
+    connect(sch, "x", "y");
+    connect(sch, "y", "x", "in1");
+    connect(sch, "y", "sink");
+
+    Levelization levels = new Levelizer(sch).getLevelization();
+    assertFalse(levels.isAcyclic());
+    assertEquals(0, levels.level(sch.getNode("src")));
+    assertEquals(-1, levels.level(sch.getNode("x")));
+    assertEquals(-1, levels.level(sch.getNode("y")));
+    assertEquals(-1, levels.level(sch.getNode("sink")));
+    assertEquals(3, levels.getUnleveledNodes().size());
+    assertEquals(1, levels.getLevelCount());
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testUnknownNode() throws SchematicException {
+    Schematic sch = makeDiamond();
+    Schematic other = newSchematic();
+    new Levelizer(sch).level(addNode(other, "z"));
+  }
+
+}
@@ -0,0 +1,158 @@
+package org.manifold.compiler.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.manifold.compiler.graph.GraphFixtures.addNode;
+import static org.manifold.compiler.graph.GraphFixtures.connect;
+import static org.manifold.compiler.graph.GraphFixtures.newSchematic;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.graph.Partition;
+import org.manifold.compiler.middle.graph.Partitioning;
+import org.manifold.compiler.middle.graph.SchematicPartitioner;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestSchematicPartitioner {
+
+  // a ring of `size` nodes
+  private static Schematic makeRing(int size) throws SchematicException {
+    Schematic sch = newSchematic();
+    for (int i = 0; i < size; ++i) {
+      addNode(sch, "n" + i);
+    }
+    for (int i = 0; i < size; ++i) {
+      connect(sch, "n" + i, "n" + ((i + 1) % size));
+    }
+    return sch;
+  }
+
+  @Test
+  public void testEveryNodeIsInExactlyOnePartition()
+      throws SchematicException {
+    Schematic sch = makeRing(1000);
+    Partitioning result = new SchematicPartitioner(4).partition(sch);
+    assertEquals(4, result.getPartitionCount());
+    Set<NodeValue> seen = new HashSet<>();
+    for (Partition p : result.getPartitions()) {
+      for (NodeValue node : p.getNodes()) {
+        assertTrue(seen.add(node));
+        assertSame(p, result.getPartitionOf(node));
+        assertTrue(p.containsNode(node));
+      }
+    }
+    assertEquals(1000, seen.size());
+  }
+
+  @Test
+  public void testRingIsCutIntoArcs() throws SchematicException {
+    Schematic sch = makeRing(1000);
+    Partitioning result = new SchematicPartitioner(4).partition(sch);
+    // each arc of a ring is joined to its neighbours by one connection
+    assertEquals(4, result.getCutSize());
+    int internal = 0;
+    for (Partition p : result.getPartitions()) {
+      assertTrue(p.getNodeCount() >= 240 && p.getNodeCount() <= 260);
+      assertEquals(2, p.getCutConnectionCount());
+      assertEquals(2, p.getBoundaryPorts().size());
+      internal += p.getConnectionCount();
+    }
+    assertEquals(996, internal);
+  }
+
+  @Test
+  public void testConnectionToUnboundNodeIsIgnored()
+      throws SchematicException {
+    Schematic sch = makeRing(100);
+    // a node that was never added to the schematic
+    NodeValue outside = addNode(newSchematic(), "outside");
+    sch.addConnection("dangling", new ConnectionValue(
+        sch.getNode("n0").getPort("out"), outside.getPort("in0"),
+        ImmutableMap.of()));
+    Partitioning result = new SchematicPartitioner(2).partition(sch);
+    int nodes = 0;
+    int internal = 0;
+    for (Partition p : result.getPartitions()) {
+      nodes += p.getNodeCount();
+      internal += p.getConnectionCount();
+    }
+    assertEquals(100, nodes);
+    assertEquals(100, internal + result.getCutSize());
+  }
+
+  @Test
+  public void testBoundaryPortsBelongToPartition() throws SchematicException {
+    Schematic sch = makeRing(100);
+    Partitioning result = new SchematicPartitioner(3).partition(sch);
+    for (Partition p : result.getPartitions()) {
+      for (PortValue port : p.getBoundaryPorts()) {
+        assertTrue(p.containsNode(port.getParent()));
+      }
+      for (ConnectionValue conn : p.getCutConnections()) {
+        assertTrue(p.containsNode(conn.getFrom().getParent())
+            != p.containsNode(conn.getTo().getParent()));
+      }
+      for (ConnectionValue conn : p.getConnections()) {
+        assertTrue(p.containsNode(conn.getFrom().getParent()));
+        assertTrue(p.containsNode(conn.getTo().getParent()));
+      }
+    }
+  }
+
+  @Test
+  public void testWeightsAreBalanced() throws SchematicException {
+    Schematic sch = newSchematic();
+    // one heavy node and many light ones
+    addNode(sch, "heavy", 100);
+    for (int i = 0; i < 100; ++i) {
+      addNode(sch, "n" + i, 1);
+      connect(sch, i == 0 ? "heavy" : "n" + (i - 1), "n" + i);
+    }
+    Partitioning result = new SchematicPartitioner(2)
+        .setWeightAttribute("weight").partition(sch);
+    Partition heavy = result.getPartitionOf(sch.getNode("heavy"));
+    assertEquals(100, heavy.getWeight());
+    assertEquals(1, heavy.getNodeCount());
+    assertEquals(1, result.getCutSize());
+  }
+
+  @Test
+  public void testDisconnectedSchematic() throws SchematicException {
+    Schematic sch = newSchematic();
+    for (int i = 0; i < 10; ++i) {
+      addNode(sch, "n" + i);
+    }
+    Partitioning result = new SchematicPartitioner(2).partition(sch);
+    assertEquals(0, result.getCutSize());
+    assertEquals(5, result.getPartition(0).getNodeCount());
+    assertEquals(5, result.getPartition(1).getNodeCount());
+  }
+
+  @Test
+  public void testMorePartitionsThanNodes() throws SchematicException {
+    Schematic sch = makeRing(2);
+    Partitioning result = new SchematicPartitioner(4).partition(sch);
+    int nonEmpty = 0;
+    for (Partition p : result.getPartitions()) {
+      if (p.getNodeCount() > 0) {
+        ++nonEmpty;
+      }
+    }
+    assertEquals(2, nonEmpty);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroPartitionsIsRejected() {
+    new SchematicPartitioner(0);
+  }
+
+}
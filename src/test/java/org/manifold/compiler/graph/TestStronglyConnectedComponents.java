@@ -0,0 +1,98 @@
+package org.manifold.compiler.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.manifold.compiler.graph.GraphFixtures.addNode;
+import static org.manifold.compiler.graph.GraphFixtures.connect;
+import static org.manifold.compiler.graph.GraphFixtures.newSchematic;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+import org.manifold.compiler.middle.graph.Loop;
+import org.manifold.compiler.middle.graph.StronglyConnectedComponents;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class TestStronglyConnectedComponents {
+
+  @Test
+  public void testAcyclicSchematicHasNoLoops() throws SchematicException {
+    Schematic sch = newSchematic();
+    addNode(sch, "a");
+    addNode(sch, "b");
+    addNode(sch, "c");
+    connect(sch, "a", "b");
+    connect(sch, "b", "c");
+    connect(sch, "a", "c", "in1");
+    StronglyConnectedComponents scc = new StronglyConnectedComponents(sch);
+    assertFalse(scc.hasLoops());
+    assertEquals(3, scc.getComponentCount());
+    // reverse topological order
+    assertTrue(scc.getComponent(sch.getNode("a"))
+        > scc.getComponent(sch.getNode("b")));
+    assertTrue(scc.getComponent(sch.getNode("b"))
+        > scc.getComponent(sch.getNode("c")));
+  }
+
+  @Test
+  public void testLoopsAreReportedWithNames() throws SchematicException {
+    Schematic sch = newSchematic();
+    for (String name : new String[] {"in", "x", "y", "z", "out", "s"}) {
+      addNode(sch, name);
+    }
+    connect(sch, "in", "x");
+    connect(sch, "x", "y");
+    connect(sch, "y", "z");
+    connect(sch, "z", "x", "in1");
+    connect(sch, "z", "out");
+    // a node feeding itself
+    connect(sch, "s", "s");
+
+    StronglyConnectedComponents scc = new StronglyConnectedComponents(sch);
+    assertEquals(2, scc.getLoops().size());
+    Loop xyz = null;
+    Loop s = null;
+    for (Loop loop : scc.getLoops()) {
+      if (loop.getNodeCount() == 3) {
+        xyz = loop;
+      } else {
+        s = loop;
+      }
+    }
+    assertEquals(ImmutableSet.of("x", "y", "z"),
+        new HashSet<>(xyz.getNodeNames()));
+    assertEquals(3, xyz.getConnectionCount());
+    assertTrue(xyz.getPortNames().contains("z:out"));
+    assertTrue(xyz.getPortNames().contains("x:in1"));
+    assertFalse(xyz.getPortNames().contains("out:in0"));
+    assertEquals(ImmutableList.of("s:out", "s:in0"), s.getPortNames());
+    assertEquals("loop through s:out -> s:in0", s.toString());
+  }
+
+  @Test
+  public void testDeepChainDoesNotOverflow() throws SchematicException {
+    Schematic sch = newSchematic();
+    int size = 200000;
+    for (int i = 0; i < size; ++i) {
+      addNode(sch, "n" + i);
+    }
+    for (int i = 1; i < size; ++i) {
+      connect(sch, "n" + (i - 1), "n" + i);
+    }
+    StronglyConnectedComponents scc = new StronglyConnectedComponents(sch);
+    assertFalse(scc.hasLoops());
+    assertEquals(size, scc.getComponentCount());
+
+    // closing the chain makes one big loop
+    connect(sch, "n" + (size - 1), "n0", "in1");
+    scc = new StronglyConnectedComponents(sch);
+    assertEquals(1, scc.getLoops().size());
+    assertEquals(size, scc.getLoops().get(0).getNodeCount());
+  }
+
+}
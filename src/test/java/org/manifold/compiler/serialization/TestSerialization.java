@@ -207,6 +207,74 @@ public class TestSerialization {
     assertEquals(andNode2.getPort("in2"), conVal.getTo());
   }
 
+  private JsonObject typesTestJsonWithConnection(String from, String to)
+      throws IOException {
+    URL url = Resources
+        .getResource("org/manifold/compiler/serialization/data/"
+            + "deserialization-types-test.json");
+    JsonObject json = new JsonParser().parse(
+        Resources.toString(url, Charsets.UTF_8)).getAsJsonObject();
+    JsonObject con = new JsonObject();
+    con.addProperty("type", "wire");
+    con.add("attributes", new JsonObject());
+    con.addProperty("from", from);
+    con.addProperty("to", to);
+    json.getAsJsonObject("connections").add("con2", con);
+    return json;
+  }
+
+  @Test
+  public void testDeserializeConnectionsOnOneNode() throws IOException,
+      UndeclaredIdentifierException {
+    // con1 leaves and_node too, so its node is reused for con2
+    Schematic sch = new SchematicDeserializer().deserialize(
+        typesTestJsonWithConnection("and_node:out1", "and_node:in1"));
+    NodeValue andNode = sch.getNode("and_node");
+    ConnectionValue conVal = sch.getConnection("con2");
+    assertEquals(andNode.getPort("out1"), conVal.getFrom());
+    assertEquals(andNode.getPort("in1"), conVal.getTo());
+  }
+
+  @Test
+  public void testDeserializeConnectionToUndeclaredPort() throws IOException {
+    try {
+      new SchematicDeserializer().deserialize(
+          typesTestJsonWithConnection("and_node:out1", "and_node:in"));
+      fail("deserialization failed to detect incorrect schematic");
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof UndeclaredIdentifierException) {
+        assertEquals("in",
+            ((UndeclaredIdentifierException) e.getCause()).identifier);
+      } else {
+        fail(e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void testDeserializerCanBeReused() throws IOException,
+      UndeclaredIdentifierException, UndeclaredAttributeException {
+    URL url = Resources
+        .getResource("org/manifold/compiler/serialization/data/"
+            + "deserialization-types-test.json");
+    JsonObject json = new JsonParser().parse(
+        Resources.toString(url, Charsets.UTF_8)).getAsJsonObject();
+    // the second schematic has types of its own, which must not be decoded
+    // as those of the first
+    SchematicDeserializer deserializer = new SchematicDeserializer();
+    Schematic first = deserializer.deserialize(json);
+    Schematic second = deserializer.deserialize(json);
+
+    NodeValue andNode = second.getNode("and_node2");
+    assertEquals(second.getNodeType("and"), andNode.getType());
+    assertTrue(((BooleanValue) andNode.getAttribute("is_awesome"))
+        .toBoolean());
+    assertFalse(first.getNodeType("and") == andNode.getType());
+    // nor are attributes shared between the schematics
+    assertFalse(first.getNode("and_node2").getAttributes()
+        == andNode.getAttributes());
+  }
+
   @Test
   public void testSerialize_DerivedPort()
       throws UndeclaredIdentifierException, MultipleDefinitionException {